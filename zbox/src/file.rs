@@ -1,14 +1,14 @@
-use std::io::{Read, Seek, SeekFrom, Write};
+use std::io::{self, Read, Seek, SeekFrom, Write};
 
 use jni::objects::{JByteBuffer, JObject, JValue};
-use jni::sys::{jint, jlong, jobjectArray};
+use jni::sys::{jbyteArray, jint, jlong, jobjectArray};
 use jni::JNIEnv;
 
 use zbox::{Error, File};
 
 use super::{
     metadata_to_jobject, throw, to_seek_from, versions_to_jobjects,
-    RUST_OBJ_FIELD,
+    read_into_byte_array, write_from_byte_array, RUST_OBJ_FIELD,
 };
 
 #[no_mangle]
@@ -143,6 +143,28 @@ pub extern "system" fn Java_io_zbox_zboxfs_File_jniRead(
     }
 }
 
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_File_jniReadArray(
+    env: JNIEnv,
+    obj: JObject,
+    dst: jbyteArray,
+    off: jint,
+    len: jint,
+) -> jint {
+    let mut file = env
+        .get_rust_field::<&str, File>(obj, RUST_OBJ_FIELD)
+        .unwrap();
+    let result =
+        read_into_byte_array(&env, dst, off, len, |dst| file.read(dst));
+    match result {
+        Ok(read) => read as jint,
+        Err(err) => {
+            throw(&env, Error::from(err));
+            0
+        }
+    }
+}
+
 #[no_mangle]
 pub extern "system" fn Java_io_zbox_zboxfs_File_jniReadAll<'a>(
     env: JNIEnv<'a>,
@@ -179,6 +201,19 @@ pub extern "system" fn Java_io_zbox_zboxfs_File_jniReadAll<'a>(
         0
     };
 
+    // direct buffer capacity is an int on Java side, larger content has to be
+    // read in chunks
+    if len > i32::max_value() as usize {
+        throw(
+            &env,
+            Error::from(io::Error::new(
+                io::ErrorKind::Other,
+                "content is too large to be read at once",
+            )),
+        );
+        return JByteBuffer::from(JObject::null());
+    }
+
     // allocate a direct byte buffer on Java side, this is to let JVM to handle
     // buffer release
     let buf_obj = env
@@ -243,6 +278,28 @@ pub extern "system" fn Java_io_zbox_zboxfs_File_jniWrite(
     }
 }
 
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_File_jniWriteArray(
+    env: JNIEnv,
+    obj: JObject,
+    src: jbyteArray,
+    off: jint,
+    len: jint,
+) -> jint {
+    let mut file = env
+        .get_rust_field::<&str, File>(obj, RUST_OBJ_FIELD)
+        .unwrap();
+    let result =
+        write_from_byte_array(&env, src, off, len, |src| file.write(src));
+    match result {
+        Ok(written) => written as jint,
+        Err(err) => {
+            throw(&env, Error::from(err));
+            0
+        }
+    }
+}
+
 #[no_mangle]
 pub extern "system" fn Java_io_zbox_zboxfs_File_jniSeek(
     env: JNIEnv,
@@ -262,3 +319,138 @@ pub extern "system" fn Java_io_zbox_zboxfs_File_jniSeek(
         }
     }
 }
+
+// run a function at specified position without changing the file cursor
+fn at_position<F, R>(file: &mut File, pos: u64, f: F) -> io::Result<R>
+where
+    F: FnOnce(&mut File) -> io::Result<R>,
+{
+    let curr = file.seek(SeekFrom::Current(0))?;
+    file.seek(SeekFrom::Start(pos))?;
+    let ret = f(file);
+    file.seek(SeekFrom::Start(curr))?;
+    ret
+}
+
+// read until the buffer is full or end of file is reached
+fn read_full(file: &mut File, buf: &mut [u8]) -> io::Result<usize> {
+    let mut read = 0;
+    while read < buf.len() {
+        match file.read(&mut buf[read..])? {
+            0 => break,
+            n => read += n,
+        }
+    }
+    Ok(read)
+}
+
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_File_jniReadAt(
+    env: JNIEnv,
+    obj: JObject,
+    dst: JByteBuffer,
+    pos: jlong,
+) -> jlong {
+    let mut file = env
+        .get_rust_field::<&str, File>(obj, RUST_OBJ_FIELD)
+        .unwrap();
+    let dst = env.get_direct_buffer_address(dst).unwrap();
+    match at_position(&mut file, pos as u64, |file| file.read(dst)) {
+        Ok(read) => read as i64,
+        Err(err) => {
+            throw(&env, Error::from(err));
+            0
+        }
+    }
+}
+
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_File_jniWriteAt(
+    env: JNIEnv,
+    obj: JObject,
+    src: JByteBuffer,
+    pos: jlong,
+) -> jlong {
+    let mut file = env
+        .get_rust_field::<&str, File>(obj, RUST_OBJ_FIELD)
+        .unwrap();
+    let src = env.get_direct_buffer_address(src).unwrap();
+    match at_position(&mut file, pos as u64, |file| file.write(src)) {
+        Ok(written) => written as i64,
+        Err(err) => {
+            throw(&env, Error::from(err));
+            0
+        }
+    }
+}
+
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_File_jniReadv(
+    env: JNIEnv,
+    obj: JObject,
+    dsts: jobjectArray,
+) -> jlong {
+    let mut file = env
+        .get_rust_field::<&str, File>(obj, RUST_OBJ_FIELD)
+        .unwrap();
+    let cnt = env.get_array_length(dsts).unwrap();
+    let mut total = 0;
+
+    // buffers are filled one after another, so stop at the first one which
+    // is not filled completely
+    for i in 0..cnt {
+        let dst_obj = env.get_object_array_element(dsts, i).unwrap();
+        let dst = env
+            .get_direct_buffer_address(JByteBuffer::from(dst_obj))
+            .unwrap();
+        let len = dst.len();
+        let result = read_full(&mut file, dst);
+        env.delete_local_ref(dst_obj).unwrap();
+        match result {
+            Ok(read) => {
+                total += read;
+                if read < len {
+                    break;
+                }
+            }
+            Err(err) => {
+                throw(&env, Error::from(err));
+                return 0;
+            }
+        }
+    }
+
+    total as i64
+}
+
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_File_jniWritev(
+    env: JNIEnv,
+    obj: JObject,
+    srcs: jobjectArray,
+) -> jlong {
+    let mut file = env
+        .get_rust_field::<&str, File>(obj, RUST_OBJ_FIELD)
+        .unwrap();
+    let cnt = env.get_array_length(srcs).unwrap();
+    let mut total = 0;
+
+    for i in 0..cnt {
+        let src_obj = env.get_object_array_element(srcs, i).unwrap();
+        let src = env
+            .get_direct_buffer_address(JByteBuffer::from(src_obj))
+            .unwrap();
+        let len = src.len();
+        let result = file.write_all(src);
+        env.delete_local_ref(src_obj).unwrap();
+        match result {
+            Ok(_) => total += len,
+            Err(err) => {
+                throw(&env, Error::from(err));
+                return 0;
+            }
+        }
+    }
+
+    total as i64
+}
@@ -0,0 +1,342 @@
+use std::os::raw::c_void;
+use std::sync::Once;
+
+use jni::objects::{GlobalRef, JClass, JFieldID, JMethodID, JObject};
+use jni::sys::{jfieldID, jint, jmethodID, JNI_VERSION_1_6};
+use jni::{JNIEnv, JavaVM};
+
+use zbox::FileType;
+
+// Java class, method and field IDs which are used to build Java objects on
+// the native side. They are looked up only once when the library is loaded,
+// so the object building paths don't need to resolve them by name on every
+// call.
+pub struct JniCache {
+    // io.zbox.zboxfs.Metadata
+    metadata_cls: GlobalRef,
+    metadata_ctor: jmethodID,
+    metadata_file_type: jfieldID,
+    metadata_content_len: jfieldID,
+    metadata_curr_version: jfieldID,
+    metadata_created_at: jfieldID,
+    metadata_modified_at: jfieldID,
+
+    // io.zbox.zboxfs.FileType enum constants
+    file_type_file: GlobalRef,
+    file_type_dir: GlobalRef,
+
+    // io.zbox.zboxfs.Version
+    version_cls: GlobalRef,
+    version_ctor: jmethodID,
+    version_num: jfieldID,
+    version_content_len: jfieldID,
+    version_created_at: jfieldID,
+
+    // io.zbox.zboxfs.DirEntry
+    dir_entry_cls: GlobalRef,
+    dir_entry_ctor: jmethodID,
+    dir_entry_path: jfieldID,
+    dir_entry_file_name: jfieldID,
+    dir_entry_metadata: jfieldID,
+
+    // io.zbox.zboxfs.DirEntries
+    dir_entries_longs: jfieldID,
+    dir_entries_versions: jfieldID,
+    dir_entries_types: jfieldID,
+    dir_entries_names: jfieldID,
+    dir_entries_name_offsets: jfieldID,
+
+    // io.zbox.zboxfs.Path
+    path_cls: GlobalRef,
+    path_ctor: jmethodID,
+    path_path: jfieldID,
+}
+
+// method and field IDs are valid across threads as long as the class is not
+// unloaded, which is guaranteed by holding the global class references
+unsafe impl Send for JniCache {}
+unsafe impl Sync for JniCache {}
+
+static INIT: Once = Once::new();
+static mut CACHE: Option<JniCache> = None;
+
+macro_rules! method_id {
+    ($env:expr, $cls:expr, $name:expr, $sig:expr) => {
+        $env.get_method_id($cls, $name, $sig).unwrap().into_inner()
+    };
+}
+
+macro_rules! field_id {
+    ($env:expr, $cls:expr, $name:expr, $sig:expr) => {
+        $env.get_field_id($cls, $name, $sig).unwrap().into_inner()
+    };
+}
+
+impl JniCache {
+    fn new(env: &JNIEnv) -> Self {
+        let metadata_cls = global_class(env, "io/zbox/zboxfs/Metadata");
+        let file_type_cls = global_class(env, "io/zbox/zboxfs/FileType");
+        let version_cls = global_class(env, "io/zbox/zboxfs/Version");
+        let dir_entry_cls = global_class(env, "io/zbox/zboxfs/DirEntry");
+        let path_cls = global_class(env, "io/zbox/zboxfs/Path");
+        let dir_entries = env.find_class("io/zbox/zboxfs/DirEntries").unwrap();
+
+        let metadata = JClass::from(metadata_cls.as_obj());
+        let version = JClass::from(version_cls.as_obj());
+        let dir_entry = JClass::from(dir_entry_cls.as_obj());
+        let path = JClass::from(path_cls.as_obj());
+
+        JniCache {
+            metadata_ctor: method_id!(env, metadata, "<init>", "()V"),
+            metadata_file_type: field_id!(
+                env,
+                metadata,
+                "fileType",
+                "Lio/zbox/zboxfs/FileType;"
+            ),
+            metadata_content_len: field_id!(env, metadata, "contentLen", "J"),
+            metadata_curr_version: field_id!(
+                env,
+                metadata,
+                "currVersion",
+                "I"
+            ),
+            metadata_created_at: field_id!(env, metadata, "createdAt", "J"),
+            metadata_modified_at: field_id!(env, metadata, "modifiedAt", "J"),
+            metadata_cls,
+
+            file_type_file: file_type_constant(env, &file_type_cls, "FILE"),
+            file_type_dir: file_type_constant(env, &file_type_cls, "DIR"),
+
+            version_ctor: method_id!(env, version, "<init>", "()V"),
+            version_num: field_id!(env, version, "num", "J"),
+            version_content_len: field_id!(env, version, "contentLen", "J"),
+            version_created_at: field_id!(env, version, "createdAt", "J"),
+            version_cls,
+
+            dir_entry_ctor: method_id!(env, dir_entry, "<init>", "()V"),
+            dir_entry_path: field_id!(
+                env,
+                dir_entry,
+                "path",
+                "Lio/zbox/zboxfs/Path;"
+            ),
+            dir_entry_file_name: field_id!(
+                env,
+                dir_entry,
+                "fileName",
+                "Ljava/lang/String;"
+            ),
+            dir_entry_metadata: field_id!(
+                env,
+                dir_entry,
+                "metadata",
+                "Lio/zbox/zboxfs/Metadata;"
+            ),
+            dir_entry_cls,
+
+            dir_entries_longs: field_id!(env, dir_entries, "longs", "[J"),
+            dir_entries_versions: field_id!(
+                env,
+                dir_entries,
+                "versions",
+                "[I"
+            ),
+            dir_entries_types: field_id!(env, dir_entries, "types", "[B"),
+            dir_entries_names: field_id!(env, dir_entries, "names", "[B"),
+            dir_entries_name_offsets: field_id!(
+                env,
+                dir_entries,
+                "nameOffsets",
+                "[I"
+            ),
+
+            path_ctor: method_id!(env, path, "<init>", "()V"),
+            path_path: field_id!(env, path, "path", "Ljava/lang/String;"),
+            path_cls,
+        }
+    }
+
+    #[inline]
+    pub fn metadata_class(&self) -> JClass {
+        JClass::from(self.metadata_cls.as_obj())
+    }
+
+    #[inline]
+    pub fn metadata_ctor<'a>(&self) -> JMethodID<'a> {
+        JMethodID::from(self.metadata_ctor)
+    }
+
+    #[inline]
+    pub fn metadata_file_type<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.metadata_file_type)
+    }
+
+    #[inline]
+    pub fn metadata_content_len<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.metadata_content_len)
+    }
+
+    #[inline]
+    pub fn metadata_curr_version<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.metadata_curr_version)
+    }
+
+    #[inline]
+    pub fn metadata_created_at<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.metadata_created_at)
+    }
+
+    #[inline]
+    pub fn metadata_modified_at<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.metadata_modified_at)
+    }
+
+    #[inline]
+    pub fn file_type(&self, file_type: FileType) -> JObject {
+        match file_type {
+            FileType::File => self.file_type_file.as_obj(),
+            FileType::Dir => self.file_type_dir.as_obj(),
+        }
+    }
+
+    #[inline]
+    pub fn version_class(&self) -> JClass {
+        JClass::from(self.version_cls.as_obj())
+    }
+
+    #[inline]
+    pub fn version_ctor<'a>(&self) -> JMethodID<'a> {
+        JMethodID::from(self.version_ctor)
+    }
+
+    #[inline]
+    pub fn version_num<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.version_num)
+    }
+
+    #[inline]
+    pub fn version_content_len<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.version_content_len)
+    }
+
+    #[inline]
+    pub fn version_created_at<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.version_created_at)
+    }
+
+    #[inline]
+    pub fn dir_entry_class(&self) -> JClass {
+        JClass::from(self.dir_entry_cls.as_obj())
+    }
+
+    #[inline]
+    pub fn dir_entry_ctor<'a>(&self) -> JMethodID<'a> {
+        JMethodID::from(self.dir_entry_ctor)
+    }
+
+    #[inline]
+    pub fn dir_entry_path<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.dir_entry_path)
+    }
+
+    #[inline]
+    pub fn dir_entry_file_name<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.dir_entry_file_name)
+    }
+
+    #[inline]
+    pub fn dir_entry_metadata<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.dir_entry_metadata)
+    }
+
+    #[inline]
+    pub fn dir_entries_longs<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.dir_entries_longs)
+    }
+
+    #[inline]
+    pub fn dir_entries_versions<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.dir_entries_versions)
+    }
+
+    #[inline]
+    pub fn dir_entries_types<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.dir_entries_types)
+    }
+
+    #[inline]
+    pub fn dir_entries_names<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.dir_entries_names)
+    }
+
+    #[inline]
+    pub fn dir_entries_name_offsets<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.dir_entries_name_offsets)
+    }
+
+    #[inline]
+    pub fn path_class(&self) -> JClass {
+        JClass::from(self.path_cls.as_obj())
+    }
+
+    #[inline]
+    pub fn path_ctor<'a>(&self) -> JMethodID<'a> {
+        JMethodID::from(self.path_ctor)
+    }
+
+    #[inline]
+    pub fn path_path<'a>(&self) -> JFieldID<'a> {
+        JFieldID::from(self.path_path)
+    }
+}
+
+fn global_class(env: &JNIEnv, name: &str) -> GlobalRef {
+    let cls = env.find_class(name).unwrap();
+    let global = env.new_global_ref(*cls).unwrap();
+    env.delete_local_ref(*cls).unwrap();
+    global
+}
+
+fn file_type_constant(
+    env: &JNIEnv,
+    cls: &GlobalRef,
+    name: &str,
+) -> GlobalRef {
+    let cls = JClass::from(cls.as_obj());
+    let obj = env
+        .get_static_field(cls, name, "Lio/zbox/zboxfs/FileType;")
+        .unwrap()
+        .l()
+        .unwrap();
+    let global = env.new_global_ref(obj).unwrap();
+    env.delete_local_ref(obj).unwrap();
+    global
+}
+
+// initialise the cache, this can be called multiple times but only the first
+// call takes effect
+pub fn init(env: &JNIEnv) {
+    INIT.call_once(|| unsafe {
+        CACHE = Some(JniCache::new(env));
+    });
+}
+
+// get the cache, it must be initialised first
+#[inline]
+pub fn cache() -> &'static JniCache {
+    unsafe { CACHE.as_ref().expect("JNI cache is not initialised") }
+}
+
+// the library is loaded by the class loader of io.zbox.zboxfs.Env, so all the
+// classes are resolvable here
+#[no_mangle]
+pub extern "system" fn JNI_OnLoad(
+    vm: *mut jni::sys::JavaVM,
+    _reserved: *mut c_void,
+) -> jint {
+    let vm = unsafe { JavaVM::from_raw(vm) }.unwrap();
+    let env = vm.get_env().unwrap();
+    init(&env);
+    JNI_VERSION_1_6
+}
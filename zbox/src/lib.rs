@@ -8,18 +8,24 @@ extern crate zbox;
 
 mod env;
 mod file;
+mod jni_cache;
 mod open_options;
 mod path;
 mod repo;
 mod repo_opener;
 mod version_reader;
 
+use std::cell::RefCell;
+use std::cmp;
 use std::error::Error as StdError;
-use std::io::SeekFrom;
+use std::io::{self, SeekFrom};
+use std::mem;
+use std::slice;
+use std::sync::Mutex;
 use std::time::{SystemTime, UNIX_EPOCH};
 
-use jni::objects::{JObject, JString, JThrowable, JValue};
-use jni::sys::{jint, jobjectArray};
+use jni::objects::{JClass, JObject, JString, JThrowable, JValue};
+use jni::sys::{jbyte, jbyteArray, jint, jlong, jobjectArray};
 use jni::JNIEnv;
 
 use zbox::{
@@ -27,6 +33,8 @@ use zbox::{
     VersionReader,
 };
 
+use jni_cache::cache;
+
 // field name in Java class to hold its Rust object
 const RUST_OBJ_FIELD: &str = "rustObj";
 
@@ -71,6 +79,131 @@ fn to_seek_from(offset: i64, whence: jint) -> SeekFrom {
     }
 }
 
+// Max size of per-thread scratch buffer, larger byte array regions are
+// transferred in chunks of this size
+const SCRATCH_SIZE: usize = 1024 * 1024;
+
+thread_local! {
+    // per-thread scratch buffer to transfer Java byte array content
+    static SCRATCH: RefCell<Vec<u8>> = RefCell::new(Vec::new());
+}
+
+// Run a function on a native scratch buffer of the specified length, which
+// must not exceed SCRATCH_SIZE. The buffer is taken out of the thread's slot
+// while the function runs, so the function can call into Java, which may
+// re-enter native code on the same thread.
+fn with_scratch<F, R>(len: usize, f: F) -> R
+where
+    F: FnOnce(&mut [u8]) -> R,
+{
+    debug_assert!(len <= SCRATCH_SIZE);
+    let mut buf =
+        SCRATCH.with(|s| mem::replace(&mut *s.borrow_mut(), Vec::new()));
+    if buf.len() < len {
+        buf.resize(len, 0);
+    }
+    let ret = f(&mut buf[..len]);
+    SCRATCH.with(|s| *s.borrow_mut() = buf);
+    ret
+}
+
+#[inline]
+fn as_jbytes(buf: &[u8]) -> &[jbyte] {
+    unsafe { slice::from_raw_parts(buf.as_ptr() as *const jbyte, buf.len()) }
+}
+
+#[inline]
+fn as_jbytes_mut(buf: &mut [u8]) -> &mut [jbyte] {
+    unsafe {
+        slice::from_raw_parts_mut(buf.as_mut_ptr() as *mut jbyte, buf.len())
+    }
+}
+
+fn array_access_error() -> io::Error {
+    io::Error::new(io::ErrorKind::Other, "cannot access Java byte array")
+}
+
+// Read into a region of Java byte array. The function reads into a native
+// scratch buffer chunk by chunk, and each chunk is then copied to the array
+// region, so no JNI critical section is held while the function does I/O,
+// which may call back into Java for remote storage, and native memory used
+// is bounded regardless of region length. It stops at a short read. If the
+// function fails after some bytes are read, those bytes are returned and the
+// error is left to the next call. The region must be checked on the Java
+// side.
+fn read_into_byte_array<F>(
+    env: &JNIEnv,
+    arr: jbyteArray,
+    off: jint,
+    len: jint,
+    mut f: F,
+) -> io::Result<usize>
+where
+    F: FnMut(&mut [u8]) -> io::Result<usize>,
+{
+    let len = len as usize;
+    with_scratch(cmp::min(len, SCRATCH_SIZE), |buf| {
+        let mut total = 0;
+        while total < len {
+            let chunk = cmp::min(len - total, buf.len());
+            let read = match f(&mut buf[..chunk]) {
+                Ok(read) => read,
+                Err(_) if total > 0 => break,
+                Err(err) => return Err(err),
+            };
+            env.set_byte_array_region(
+                arr,
+                off + total as jint,
+                as_jbytes(&buf[..read]),
+            )
+            .map_err(|_| array_access_error())?;
+            total += read;
+            if read < chunk {
+                break;
+            }
+        }
+        Ok(total)
+    })
+}
+
+// Write from a region of Java byte array. The region is copied to a native
+// scratch buffer chunk by chunk before each chunk is written, see
+// read_into_byte_array. It stops at a short write.
+fn write_from_byte_array<F>(
+    env: &JNIEnv,
+    arr: jbyteArray,
+    off: jint,
+    len: jint,
+    mut f: F,
+) -> io::Result<usize>
+where
+    F: FnMut(&[u8]) -> io::Result<usize>,
+{
+    let len = len as usize;
+    with_scratch(cmp::min(len, SCRATCH_SIZE), |buf| {
+        let mut total = 0;
+        while total < len {
+            let chunk = cmp::min(len - total, buf.len());
+            env.get_byte_array_region(
+                arr,
+                off + total as jint,
+                as_jbytes_mut(&mut buf[..chunk]),
+            )
+            .map_err(|_| array_access_error())?;
+            let written = match f(&buf[..chunk]) {
+                Ok(written) => written,
+                Err(_) if total > 0 => break,
+                Err(err) => return Err(err),
+            };
+            total += written;
+            if written < chunk {
+                break;
+            }
+        }
+        Ok(total)
+    })
+}
+
 fn throw(env: &JNIEnv, err: Error) {
     let msg = if env.exception_check().unwrap() {
         // get exception on java side and re-throw it with its message
@@ -102,55 +235,46 @@ fn throw(env: &JNIEnv, err: Error) {
 }
 
 fn metadata_to_jobject<'a>(env: &JNIEnv<'a>, meta: Metadata) -> JObject<'a> {
+    let cache = cache();
     let meta_obj = env
-        .new_object("io/zbox/zboxfs/Metadata", "()V", &[])
-        .unwrap();
-
-    let ftype_str = format!("{:?}", meta.file_type()).to_uppercase();
-    let ftype = env.new_string(ftype_str).unwrap();
-    let ftype_obj = env
-        .call_static_method(
-            "io/zbox/zboxfs/FileType",
-            "valueOf",
-            "(Ljava/lang/String;)Lio/zbox/zboxfs/FileType;",
-            &[JValue::Object(*ftype)],
+        .new_object_unchecked(
+            cache.metadata_class(),
+            cache.metadata_ctor(),
+            &[],
         )
         .unwrap();
 
-    env.set_field(meta_obj, "fileType", "Lio/zbox/zboxfs/FileType;", ftype_obj)
-        .unwrap();
-    env.set_field(
+    env.set_field_unchecked(
         meta_obj,
-        "contentLen",
-        "J",
+        cache.metadata_file_type(),
+        JValue::Object(cache.file_type(meta.file_type())),
+    )
+    .unwrap();
+    env.set_field_unchecked(
+        meta_obj,
+        cache.metadata_content_len(),
         JValue::Long(meta.content_len() as i64),
     )
     .unwrap();
-    env.set_field(
+    env.set_field_unchecked(
         meta_obj,
-        "currVersion",
-        "I",
+        cache.metadata_curr_version(),
         JValue::Int(meta.curr_version() as i32),
     )
     .unwrap();
-    env.set_field(
+    env.set_field_unchecked(
         meta_obj,
-        "createdAt",
-        "J",
+        cache.metadata_created_at(),
         JValue::Long(time_to_secs(meta.created_at())),
     )
     .unwrap();
-    env.set_field(
+    env.set_field_unchecked(
         meta_obj,
-        "modifiedAt",
-        "J",
+        cache.metadata_modified_at(),
         JValue::Long(time_to_secs(meta.modified_at())),
     )
     .unwrap();
 
-    env.delete_local_ref(*ftype).unwrap();
-    env.delete_local_ref(ftype_obj.l().unwrap()).unwrap();
-
     meta_obj
 }
 
@@ -158,39 +282,41 @@ fn versions_to_jobjects(
     env: &JNIEnv,
     history: Result<Vec<Version>>,
 ) -> jobjectArray {
+    let cache = cache();
     match history {
         Ok(vers) => {
             let objs = env
                 .new_object_array(
                     vers.len() as i32,
-                    "io/zbox/zboxfs/Version",
+                    cache.version_class(),
                     JObject::null(),
                 )
                 .unwrap();
 
             for (i, ver) in vers.iter().enumerate() {
                 let ver_obj = env
-                    .new_object("io/zbox/zboxfs/Version", "()V", &[])
+                    .new_object_unchecked(
+                        cache.version_class(),
+                        cache.version_ctor(),
+                        &[],
+                    )
                     .unwrap();
 
-                env.set_field(
+                env.set_field_unchecked(
                     ver_obj,
-                    "num",
-                    "J",
+                    cache.version_num(),
                     JValue::Long(ver.num() as i64),
                 )
                 .unwrap();
-                env.set_field(
+                env.set_field_unchecked(
                     ver_obj,
-                    "contentLen",
-                    "J",
+                    cache.version_content_len(),
                     JValue::Long(ver.content_len() as i64),
                 )
                 .unwrap();
-                env.set_field(
+                env.set_field_unchecked(
                     ver_obj,
-                    "createdAt",
-                    "J",
+                    cache.version_created_at(),
                     JValue::Long(time_to_secs(ver.created_at())),
                 )
                 .unwrap();
@@ -205,7 +331,7 @@ fn versions_to_jobjects(
         }
         Err(err) => {
             let ret = env
-                .new_object_array(0, "io/zbox/zboxfs/Version", JObject::null())
+                .new_object_array(0, cache.version_class(), JObject::null())
                 .unwrap();
             throw(&env, err);
             ret
@@ -249,10 +375,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_RustObject_jniTakeRustObj(
             env.take_rust_field::<&str, RepoOpener>(obj, RUST_OBJ_FIELD)
                 .unwrap();
         }
-        101 => {
-            env.take_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-                .unwrap();
-        }
+        101 => repo::take_repo(&env, obj),
         102 => {
             env.take_rust_field::<&str, OpenOptions>(obj, RUST_OBJ_FIELD)
                 .unwrap();
@@ -268,3 +391,33 @@ pub extern "system" fn Java_io_zbox_zboxfs_RustObject_jniTakeRustObj(
         _ => {}
     }
 }
+
+// free a Rust object whose Java object is already unreachable, the pointer is
+// what set_rust_field() stored in the Java object
+unsafe fn free_rust_obj<T>(ptr: jlong) {
+    drop(Box::from_raw(ptr as *mut Mutex<T>));
+}
+
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_RustObject_jniFreeRustObj(
+    env: JNIEnv,
+    _cls: JClass,
+    obj_cls: JClass,
+    ptr: jlong,
+) {
+    if ptr == 0 {
+        return;
+    }
+    let rust_obj_id =
+        env.get_static_field(obj_cls, RUST_OBJID_FIELD, "I").unwrap();
+    unsafe {
+        match rust_obj_id.i().unwrap() {
+            100 => free_rust_obj::<RepoOpener>(ptr),
+            101 => repo::free_repo(ptr),
+            102 => free_rust_obj::<OpenOptions>(ptr),
+            103 => free_rust_obj::<File>(ptr),
+            104 => free_rust_obj::<VersionReader>(ptr),
+            _ => {}
+        }
+    }
+}
@@ -2,8 +2,9 @@ use jni::objects::{JObject, JString};
 use jni::sys::{jboolean, jint};
 use jni::JNIEnv;
 
-use zbox::{OpenOptions, Repo};
+use zbox::OpenOptions;
 
+use super::repo::write_repo;
 use super::{check_version_limit, throw, u8_to_bool, RUST_OBJ_FIELD};
 
 #[no_mangle]
@@ -113,9 +114,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_OpenOptions_jniOpen<'a>(
     let opts = env
         .get_rust_field::<&str, OpenOptions>(obj, RUST_OBJ_FIELD)
         .unwrap();
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(repo, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, repo);
     let path: String = env.get_string(path).unwrap().into();
     match opts.open(&mut repo, &path) {
         Ok(file) => {
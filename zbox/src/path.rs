@@ -1,3 +1,6 @@
+// Reference implementation of Java io.zbox.zboxfs.Path using std::path, it is
+// only used to verify and benchmark the pure Java implementation.
+
 use std::path::{Path, PathBuf};
 
 use jni::objects::{JClass, JObject, JString};
@@ -9,7 +12,7 @@ use zbox::Error;
 use super::throw;
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniValidate(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniValidate(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -25,7 +28,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniValidate(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniParent(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniParent(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -45,7 +48,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniParent(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniFileName(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniFileName(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -61,7 +64,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniFileName(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniStripPrefix(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniStripPrefix(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -80,7 +83,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniStripPrefix(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniStartsWith(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniStartsWith(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -93,7 +96,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniStartsWith(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniEndsWith(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniEndsWith(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -106,7 +109,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniEndsWith(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniFileStem(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniFileStem(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -122,7 +125,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniFileStem(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniExtension(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniExtension(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -138,7 +141,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniExtension(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniJoin(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniJoin(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -154,7 +157,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniJoin(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniPush(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniPush(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -168,7 +171,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniPush(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniPop(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniPop(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -180,7 +183,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniPop(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniSetFileName(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniSetFileName(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -196,7 +199,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniSetFileName(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniSetExtension(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniSetExtension(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -212,7 +215,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Path_jniSetExtension(
 }
 
 #[no_mangle]
-pub extern "system" fn Java_io_zbox_zboxfs_Path_jniComponents(
+pub extern "system" fn Java_io_zbox_zboxfs_NativePath_jniComponents(
     env: JNIEnv,
     _cls: JClass,
     path: JString,
@@ -1,14 +1,72 @@
+use std::sync::{RwLock, RwLockReadGuard, RwLockWriteGuard};
+
 use jni::objects::{JClass, JObject, JString, JValue};
-use jni::sys::{jboolean, jint, jobjectArray, JNI_FALSE};
+use jni::sys::{jboolean, jint, jlong, jobjectArray, JNI_FALSE};
 use jni::JNIEnv;
 
-use zbox::{MemLimit, OpsLimit, Repo};
+use zbox::{FileType, MemLimit, OpsLimit, Repo};
 
+use super::jni_cache::cache;
 use super::{
     metadata_to_jobject, throw, time_to_secs, versions_to_jobjects,
     RUST_OBJ_FIELD,
 };
 
+// Repo is shared by multiple threads, so it is wrapped in a RwLock rather than
+// the Mutex used by JNIEnv::set_rust_field(). Read-only operations can run in
+// parallel while mutations are exclusive.
+pub fn set_repo(env: &JNIEnv, obj: JObject, repo: Repo) {
+    let _guard = env.lock_obj(obj).unwrap();
+    let ptr = Box::into_raw(Box::new(RwLock::new(repo)));
+    env.set_field(obj, RUST_OBJ_FIELD, "J", JValue::Long(ptr as jlong))
+        .unwrap();
+}
+
+// get the RwLock holding Rust repo, the Java object monitor must be held
+unsafe fn repo_lock<'a>(env: &JNIEnv, obj: JObject) -> &'a RwLock<Repo> {
+    let ptr = env.get_field(obj, RUST_OBJ_FIELD, "J").unwrap().j().unwrap()
+        as *const RwLock<Repo>;
+    if ptr.is_null() {
+        panic!("rust value from Java is null");
+    }
+    &*ptr
+}
+
+pub fn read_repo<'a>(env: &JNIEnv, obj: JObject) -> RwLockReadGuard<'a, Repo> {
+    // acquire lock while holding the monitor, so the repo cannot be taken
+    // away in between
+    let _guard = env.lock_obj(obj).unwrap();
+    unsafe { repo_lock(env, obj) }.read().unwrap()
+}
+
+pub fn write_repo<'a>(
+    env: &JNIEnv,
+    obj: JObject,
+) -> RwLockWriteGuard<'a, Repo> {
+    let _guard = env.lock_obj(obj).unwrap();
+    unsafe { repo_lock(env, obj) }.write().unwrap()
+}
+
+pub fn take_repo(env: &JNIEnv, obj: JObject) {
+    let lock = {
+        let _guard = env.lock_obj(obj).unwrap();
+        let lock = unsafe { repo_lock(env, obj) };
+
+        // wait for all outstanding operations to finish, no new one can start
+        // as long as we're holding the monitor
+        drop(lock.write().unwrap());
+        env.set_field(obj, RUST_OBJ_FIELD, "J", JValue::Long(0))
+            .unwrap();
+        lock as *const RwLock<Repo> as *mut RwLock<Repo>
+    };
+    drop(unsafe { Box::from_raw(lock) });
+}
+
+// free a Rust repo whose Java object is already unreachable
+pub unsafe fn free_repo(ptr: jlong) {
+    drop(Box::from_raw(ptr as *mut RwLock<Repo>));
+}
+
 #[no_mangle]
 pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniExists(
     env: JNIEnv,
@@ -31,9 +89,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniInfo<'a>(
     env: JNIEnv<'a>,
     obj: JObject,
 ) -> JObject<'a> {
-    let repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let repo = read_repo(&env, obj);
 
     let info = repo.info();
     if let Err(err) = info {
@@ -161,9 +217,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniResetPassword(
     ops_limit: jint,
     mem_limit: jint,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let old_pwd: String = env.get_string(old_pwd).unwrap().into();
     let new_pwd: String = env.get_string(new_pwd).unwrap().into();
     if let Err(err) = repo.reset_password(
@@ -196,9 +250,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniPathExists(
     obj: JObject,
     path: JString,
 ) -> jboolean {
-    let repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let repo = read_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     match repo.path_exists(&path) {
         Ok(result) => result as u8,
@@ -215,9 +267,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniIsFile(
     obj: JObject,
     path: JString,
 ) -> jboolean {
-    let repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let repo = read_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     match repo.is_file(&path) {
         Ok(result) => result as u8,
@@ -234,9 +284,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniIsDir(
     obj: JObject,
     path: JString,
 ) -> jboolean {
-    let repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let repo = read_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     match repo.is_dir(&path) {
         Ok(result) => result as u8,
@@ -253,9 +301,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniCreateFile<'a>(
     obj: JObject,
     path: JString,
 ) -> JObject<'a> {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
 
     let path: String = env.get_string(path).unwrap().into();
     match repo.create_file(&path) {
@@ -279,9 +325,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniOpenFile<'a>(
     obj: JObject,
     path: JString,
 ) -> JObject<'a> {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     match repo.open_file(&path) {
         Ok(file) => {
@@ -304,9 +348,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniCreateDir(
     obj: JObject,
     path: JString,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     if let Err(err) = repo.create_dir(&path) {
         throw(&env, err);
@@ -319,9 +361,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniCreateDirAll(
     obj: JObject,
     path: JString,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     if let Err(err) = repo.create_dir_all(&path) {
         throw(&env, err);
@@ -334,58 +374,62 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniReadDir(
     obj: JObject,
     path: JString,
 ) -> jobjectArray {
-    let repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let repo = read_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
+    let cache = cache();
     match repo.read_dir(&path) {
         Ok(ents) => {
             let objs = env
                 .new_object_array(
                     ents.len() as i32,
-                    "io/zbox/zboxfs/DirEntry",
+                    cache.dir_entry_class(),
                     JObject::null(),
                 )
                 .unwrap();
 
             for (i, ent) in ents.iter().enumerate() {
                 let ent_obj = env
-                    .new_object("io/zbox/zboxfs/DirEntry", "()V", &[])
+                    .new_object_unchecked(
+                        cache.dir_entry_class(),
+                        cache.dir_entry_ctor(),
+                        &[],
+                    )
                     .unwrap();
                 let path_str =
                     env.new_string(ent.path().to_str().unwrap()).unwrap();
                 let name_str = env.new_string(ent.file_name()).unwrap();
                 let meta_obj = metadata_to_jobject(&env, ent.metadata());
 
-                let path_obj =
-                    env.new_object("io/zbox/zboxfs/Path", "()V", &[]).unwrap();
-                env.set_field(
+                let path_obj = env
+                    .new_object_unchecked(
+                        cache.path_class(),
+                        cache.path_ctor(),
+                        &[],
+                    )
+                    .unwrap();
+                env.set_field_unchecked(
                     path_obj,
-                    "path",
-                    "Ljava/lang/String;",
+                    cache.path_path(),
                     JValue::Object(JObject::from(path_str)),
                 )
                 .unwrap();
-                env.set_field(
+                env.set_field_unchecked(
                     ent_obj,
-                    "path",
-                    "Lio/zbox/zboxfs/Path;",
+                    cache.dir_entry_path(),
                     JValue::Object(path_obj),
                 )
                 .unwrap();
                 env.delete_local_ref(path_obj).unwrap();
 
-                env.set_field(
+                env.set_field_unchecked(
                     ent_obj,
-                    "fileName",
-                    "Ljava/lang/String;",
+                    cache.dir_entry_file_name(),
                     JValue::Object(JObject::from(name_str)),
                 )
                 .unwrap();
-                env.set_field(
+                env.set_field_unchecked(
                     ent_obj,
-                    "metadata",
-                    "Lio/zbox/zboxfs/Metadata;",
+                    cache.dir_entry_metadata(),
                     JValue::Object(meta_obj),
                 )
                 .unwrap();
@@ -403,7 +447,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniReadDir(
         }
         Err(err) => {
             let ret = env
-                .new_object_array(0, "io/zbox/zboxfs/DirEntry", JObject::null())
+                .new_object_array(0, cache.dir_entry_class(), JObject::null())
                 .unwrap();
             throw(&env, err);
             ret
@@ -411,15 +455,83 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniReadDir(
     }
 }
 
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniReadDirPacked(
+    env: JNIEnv,
+    obj: JObject,
+    path: JString,
+    ents_obj: JObject,
+) {
+    let repo = read_repo(&env, obj);
+    let path: String = env.get_string(path).unwrap().into();
+    let ents = match repo.read_dir(&path) {
+        Ok(ents) => ents,
+        Err(err) => {
+            throw(&env, err);
+            return;
+        }
+    };
+
+    // pack all entries into a few primitive arrays, each entry has 3 longs:
+    // content length, creation time and modification time
+    let cnt = ents.len();
+    let mut longs: Vec<jlong> = Vec::with_capacity(cnt * 3);
+    let mut versions: Vec<jint> = Vec::with_capacity(cnt);
+    let mut types: Vec<u8> = Vec::with_capacity(cnt);
+    let mut names: Vec<u8> = Vec::new();
+    let mut name_offsets: Vec<jint> = Vec::with_capacity(cnt + 1);
+
+    name_offsets.push(0);
+    for ent in ents.iter() {
+        let meta = ent.metadata();
+        longs.push(meta.content_len() as i64);
+        longs.push(time_to_secs(meta.created_at()));
+        longs.push(time_to_secs(meta.modified_at()));
+        versions.push(meta.curr_version() as i32);
+        types.push(match meta.file_type() {
+            FileType::File => 0,
+            FileType::Dir => 1,
+        });
+        names.extend_from_slice(ent.file_name().as_bytes());
+        name_offsets.push(names.len() as i32);
+    }
+
+    let longs_arr = env.new_long_array(longs.len() as i32).unwrap();
+    env.set_long_array_region(longs_arr, 0, &longs).unwrap();
+    let versions_arr = env.new_int_array(versions.len() as i32).unwrap();
+    env.set_int_array_region(versions_arr, 0, &versions).unwrap();
+    let types_arr = env.byte_array_from_slice(&types).unwrap();
+    let names_arr = env.byte_array_from_slice(&names).unwrap();
+    let offsets_arr = env.new_int_array(name_offsets.len() as i32).unwrap();
+    env.set_int_array_region(offsets_arr, 0, &name_offsets)
+        .unwrap();
+
+    let cache = cache();
+    let fields = [
+        (cache.dir_entries_longs(), longs_arr),
+        (cache.dir_entries_versions(), versions_arr),
+        (cache.dir_entries_types(), types_arr),
+        (cache.dir_entries_names(), names_arr),
+        (cache.dir_entries_name_offsets(), offsets_arr),
+    ];
+    for (field, arr) in fields.iter() {
+        env.set_field_unchecked(
+            ents_obj,
+            *field,
+            JValue::Object(JObject::from(*arr)),
+        )
+        .unwrap();
+        env.delete_local_ref(JObject::from(*arr)).unwrap();
+    }
+}
+
 #[no_mangle]
 pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniMetadata<'a>(
     env: JNIEnv<'a>,
     obj: JObject,
     path: JString,
 ) -> JObject<'a> {
-    let repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let repo = read_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     match repo.metadata(&path) {
         Ok(meta) => metadata_to_jobject(&env, meta),
@@ -437,9 +549,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniHistory(
     obj: JObject,
     path: JString,
 ) -> jobjectArray {
-    let repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let repo = read_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     versions_to_jobjects(&env, repo.history(&path))
 }
@@ -451,9 +561,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniCopy(
     from: JString,
     to: JString,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let from: String = env.get_string(from).unwrap().into();
     let to: String = env.get_string(to).unwrap().into();
     if let Err(err) = repo.copy(&from, &to) {
@@ -468,9 +576,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniCopyDirAll(
     from: JString,
     to: JString,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let from: String = env.get_string(from).unwrap().into();
     let to: String = env.get_string(to).unwrap().into();
     if let Err(err) = repo.copy_dir_all(&from, &to) {
@@ -484,9 +590,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniRemoveFile(
     obj: JObject,
     path: JString,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     if let Err(err) = repo.remove_file(&path) {
         throw(&env, err);
@@ -499,9 +603,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniRemoveDir(
     obj: JObject,
     path: JString,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     if let Err(err) = repo.remove_dir(&path) {
         throw(&env, err);
@@ -514,9 +616,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniRemoveDirAll(
     obj: JObject,
     path: JString,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let path: String = env.get_string(path).unwrap().into();
     if let Err(err) = repo.remove_dir_all(&path) {
         throw(&env, err);
@@ -530,9 +630,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_Repo_jniRename(
     from: JString,
     to: JString,
 ) {
-    let mut repo = env
-        .get_rust_field::<&str, Repo>(obj, RUST_OBJ_FIELD)
-        .unwrap();
+    let mut repo = write_repo(&env, obj);
     let from: String = env.get_string(from).unwrap().into();
     let to: String = env.get_string(to).unwrap().into();
     if let Err(err) = repo.rename(&from, &to) {
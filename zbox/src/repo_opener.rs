@@ -4,6 +4,7 @@ use jni::JNIEnv;
 
 use zbox::{Cipher, MemLimit, OpsLimit, RepoOpener};
 
+use super::repo::set_repo;
 use super::{check_version_limit, throw, u8_to_bool, RUST_OBJ_FIELD};
 
 #[no_mangle]
@@ -143,7 +144,7 @@ pub extern "system" fn Java_io_zbox_zboxfs_RepoOpener_jniOpen<'a>(
         Ok(repo) => {
             let repo_obj =
                 env.new_object("io/zbox/zboxfs/Repo", "()V", &[]).unwrap();
-            env.set_rust_field(repo_obj, RUST_OBJ_FIELD, repo).unwrap();
+            set_repo(&env, repo_obj, repo);
             repo_obj
         }
         Err(err) => {
@@ -1,12 +1,12 @@
-use std::io::{Read, Seek, SeekFrom};
+use std::io::{self, Read, Seek, SeekFrom};
 
 use jni::objects::{JByteBuffer, JObject, JValue};
-use jni::sys::{jint, jlong};
+use jni::sys::{jbyteArray, jint, jlong};
 use jni::JNIEnv;
 
 use zbox::{Error, VersionReader};
 
-use super::{throw, to_seek_from, RUST_OBJ_FIELD};
+use super::{read_into_byte_array, throw, to_seek_from, RUST_OBJ_FIELD};
 
 #[no_mangle]
 pub extern "system" fn Java_io_zbox_zboxfs_VersionReader_jniRead(
@@ -27,6 +27,28 @@ pub extern "system" fn Java_io_zbox_zboxfs_VersionReader_jniRead(
     }
 }
 
+#[no_mangle]
+pub extern "system" fn Java_io_zbox_zboxfs_VersionReader_jniReadArray(
+    env: JNIEnv,
+    obj: JObject,
+    dst: jbyteArray,
+    off: jint,
+    len: jint,
+) -> jint {
+    let mut rdr = env
+        .get_rust_field::<&str, VersionReader>(obj, RUST_OBJ_FIELD)
+        .unwrap();
+    let result =
+        read_into_byte_array(&env, dst, off, len, |dst| rdr.read(dst));
+    match result {
+        Ok(read) => read as jint,
+        Err(err) => {
+            throw(&env, Error::from(err));
+            0
+        }
+    }
+}
+
 #[no_mangle]
 pub extern "system" fn Java_io_zbox_zboxfs_VersionReader_jniReadAll<'a>(
     env: JNIEnv<'a>,
@@ -63,6 +85,19 @@ pub extern "system" fn Java_io_zbox_zboxfs_VersionReader_jniReadAll<'a>(
         0
     };
 
+    // direct buffer capacity is an int on Java side, larger content has to be
+    // read in chunks
+    if len > i32::max_value() as usize {
+        throw(
+            &env,
+            Error::from(io::Error::new(
+                io::ErrorKind::Other,
+                "content is too large to be read at once",
+            )),
+        );
+        return JByteBuffer::from(JObject::null());
+    }
+
     // allocate a direct byte buffer on Java side, this is to let JVM to handle
     // buffer release
     let buf_obj = env
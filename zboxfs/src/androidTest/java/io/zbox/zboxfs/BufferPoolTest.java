@@ -0,0 +1,105 @@
+package io.zbox.zboxfs;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void leaseAndReturn() {
+        long outstanding = BufferPool.outstandingBytes();
+
+        BufferPool.Lease lease = BufferPool.lease(5000);
+        ByteBuffer buf = lease.buffer();
+        assertTrue(buf.isDirect());
+        assertEquals(5000, buf.capacity());
+        assertEquals(0, buf.position());
+        assertEquals(5000, buf.limit());
+        assertEquals(outstanding + 8192, BufferPool.outstandingBytes());
+        lease.close();
+        assertEquals(outstanding, BufferPool.outstandingBytes());
+
+        // closing twice has no effect
+        lease.close();
+        assertEquals(outstanding, BufferPool.outstandingBytes());
+    }
+
+    @Test
+    public void reuseInSameThread() {
+        BufferPool.Lease lease = BufferPool.lease(100);
+        lease.close();
+
+        long hits = BufferPool.hitCount();
+        long misses = BufferPool.missCount();
+        for (int i = 0; i < 100; i++) {
+            BufferPool.Lease lease2 = BufferPool.lease(4096);
+            lease2.close();
+        }
+        assertEquals(hits + 100, BufferPool.hitCount());
+        assertEquals(misses, BufferPool.missCount());
+    }
+
+    @Test
+    public void reuseAcrossThreads() throws InterruptedException {
+        final BufferPool.Lease[] leases = new BufferPool.Lease[2];
+
+        // lease two buffers in the same class, the second one goes to shared list on return
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                leases[0] = BufferPool.lease(20000);
+                leases[1] = BufferPool.lease(20000);
+                leases[0].close();
+                leases[1].close();
+            }
+        });
+        thread.start();
+        thread.join();
+
+        long hits = BufferPool.hitCount();
+        BufferPool.Lease lease = BufferPool.lease(20000);
+        assertEquals(hits + 1, BufferPool.hitCount());
+        lease.close();
+    }
+
+    @Test
+    public void oversizedNotPooled() {
+        long outstanding = BufferPool.outstandingBytes();
+        long misses = BufferPool.missCount();
+
+        BufferPool.Lease lease = BufferPool.lease(2 * 1024 * 1024 + 1);
+        assertEquals(2 * 1024 * 1024 + 1, lease.buffer().capacity());
+        assertEquals(outstanding + 2 * 1024 * 1024 + 1, BufferPool.outstandingBytes());
+        lease.close();
+        assertEquals(outstanding, BufferPool.outstandingBytes());
+
+        BufferPool.lease(2 * 1024 * 1024 + 1).close();
+        assertEquals(misses + 2, BufferPool.missCount());
+    }
+
+    @Test
+    public void wrapDirect() {
+        long outstanding = BufferPool.outstandingBytes();
+        ByteBuffer buf = ByteBuffer.allocateDirect(10);
+
+        BufferPool.Lease lease = BufferPool.wrap(buf);
+        assertSame(buf, lease.buffer());
+        lease.close();
+        assertEquals(outstanding, BufferPool.outstandingBytes());
+
+        // content of a heap buffer is copied to a pooled direct buffer
+        ByteBuffer heap = ByteBuffer.allocate(10);
+        heap.put((byte) 1).put((byte) 2);
+        BufferPool.Lease lease2 = RustObject.leaseDirectBuf(heap);
+        assertNotSame(heap, lease2.buffer());
+        assertTrue(lease2.buffer().isDirect());
+        assertEquals(2, lease2.buffer().position());
+        lease2.close();
+    }
+}
@@ -0,0 +1,116 @@
+package io.zbox.zboxfs;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// Verify pure Java Path against Rust's std::path and compare their performance.
+public class PathConformanceTest {
+    private static final String TAG = "PathConformanceTest";
+
+    private static final String[] PATHS = {
+            "/", "//", "/.", "/..", "/./", "/aaa", "/aaa/", "/aaa//", "/aaa/.", "/aaa/..",
+            "/aaa/bbb", "//aaa//bbb//", "/aaa/./bbb", "/aaa/../bbb", "/aaa/bbb/ccc.txt",
+            "/aaa/bbb/.ccc", "/aaa/bbb/ccc.", "/aaa/bbb/ccc.tar.gz", "/aaa/bbb.d/ccc",
+            "/aaa/bbb.txt/", "/aaa/bbb.txt/.", "/\u4e2d\u6587/\u6587\u4ef6.txt"
+    };
+
+    private static final String[] OTHERS = {
+            "", "/", ".", "..", "aaa", "aaa/", "/aaa", "/aaa/", "aaa/bbb", "bbb", "bbb/ccc.txt",
+            "./bbb", "/aaa/bbb", "/aaa//bbb/", "ccc.txt", ".ccc", "x.y.z"
+    };
+
+    private static final int BENCH_ROUNDS = 20000;
+
+    @Test
+    public void sameAsNative() throws Exception {
+        for (String str : PATHS) {
+            Path path = new Path(str);
+            NativePath.jniValidate(str);
+
+            assertEquals(str, NativePath.jniParent(str), path.parent().toString());
+            assertEquals(str, NativePath.jniFileName(str), path.fileName());
+            assertEquals(str, NativePath.jniFileStem(str), path.fileStem());
+            assertEquals(str, NativePath.jniExtension(str), path.extension());
+            assertArrayEquals(str, NativePath.jniComponents(str), path.components());
+
+            Path popped = path.clone();
+            popped.pop();
+            assertEquals(str, NativePath.jniPop(str), popped.toString());
+
+            for (String other : OTHERS) {
+                String msg = str + " | " + other;
+                assertEquals(msg, NativePath.jniStripPrefix(str, other), path.stripPrefix(other));
+                assertEquals(msg, NativePath.jniStartsWith(str, other), path.startsWith(other));
+                assertEquals(msg, NativePath.jniEndsWith(str, other), path.endsWith(other));
+                assertEquals(msg, NativePath.jniJoin(str, other), path.join(other).toString());
+
+                Path pushed = path.clone();
+                pushed.push(other);
+                assertEquals(msg, NativePath.jniPush(str, other), pushed.toString());
+
+                Path named = path.clone();
+                named.setFileName(other);
+                assertEquals(msg, NativePath.jniSetFileName(str, other), named.toString());
+
+                Path extended = path.clone();
+                extended.setExtension(other);
+                assertEquals(msg, NativePath.jniSetExtension(str, other), extended.toString());
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() throws ZboxException {
+        String str = "/aaa/bbb/ccc/ddd.txt";
+        Path base = new Path("/aaa/bbb");
+        int sink = 0;
+
+        // warm up both implementations
+        for (int i = 0; i < BENCH_ROUNDS; i++) {
+            sink += runJava(str, base);
+            sink += runNative(str);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCH_ROUNDS; i++) {
+            sink += runJava(str, base);
+        }
+        long javaTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCH_ROUNDS; i++) {
+            sink += runNative(str);
+        }
+        long nativeTime = System.nanoTime() - start;
+
+        Log.i(TAG, String.format("path ops: java %d ns/round, native %d ns/round (%d)",
+                javaTime / BENCH_ROUNDS, nativeTime / BENCH_ROUNDS, sink));
+    }
+
+    // one round of typical path operations, the same operations as runNative()
+    private static int runJava(String str, Path base) throws ZboxException {
+        Path path = new Path(str);
+        int ret = path.parent().toString().length();
+        ret += path.join("eee").toString().length();
+        ret += path.fileName().length();
+        ret += path.components().length;
+        ret += path.startsWith(base.toString()) ? 1 : 0;
+        ret += path.extension().length();
+        return ret;
+    }
+
+    private static int runNative(String str) throws ZboxException {
+        NativePath.jniValidate(str);
+        int ret = NativePath.jniParent(str).length();
+        ret += NativePath.jniJoin(str, "eee").length();
+        ret += NativePath.jniFileName(str).length();
+        ret += NativePath.jniComponents(str).length;
+        ret += NativePath.jniStartsWith(str, "/aaa/bbb") ? 1 : 0;
+        ret += NativePath.jniExtension(str).length();
+        return ret;
+    }
+}
@@ -0,0 +1,168 @@
+package io.zbox.zboxfs.test.suite;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.zbox.zboxfs.AsyncExecutor;
+import io.zbox.zboxfs.AsyncFile;
+import io.zbox.zboxfs.AsyncRepo;
+import io.zbox.zboxfs.Callback;
+import io.zbox.zboxfs.DirEntry;
+import io.zbox.zboxfs.Metadata;
+import io.zbox.zboxfs.OpenOptions;
+import io.zbox.zboxfs.Path;
+import io.zbox.zboxfs.Priority;
+import io.zbox.zboxfs.Repo;
+import io.zbox.zboxfs.RepoOpener;
+import io.zbox.zboxfs.SeekFrom;
+import io.zbox.zboxfs.ZboxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncTest {
+
+    private Repo repo;
+    private AsyncExecutor executor;
+    private AsyncRepo asyncRepo;
+
+    @Before
+    public void before() throws ZboxException {
+        repo = new RepoOpener().create(true).open(TestSuite.makeMemRepoUri(), "pwd");
+        executor = new AsyncExecutor(4, 64);
+        asyncRepo = new AsyncRepo(repo, executor);
+    }
+
+    @Test
+    public void fileOperations() throws Exception {
+        Path path = new Path("/async_file");
+        AsyncFile file = asyncRepo.openFile(path, new OpenOptions().create(true), null).get();
+
+        // operations on the same file run in submission order
+        file.write(ByteBuffer.wrap("hello ".getBytes()), null);
+        file.write(ByteBuffer.wrap("world".getBytes()), null);
+        file.finish(null);
+        file.seek(0, SeekFrom.START);
+        ByteBuffer content = file.readAll().get();
+        content.flip();
+        assertEquals("hello world", StandardCharsets.UTF_8.decode(content).toString());
+
+        final AtomicReference<Metadata> md = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        file.metadata(new Callback<Metadata>() {
+            @Override
+            public void onSuccess(Metadata result) {
+                md.set(result);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(ZboxException err) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(11, md.get().contentLen);
+
+        file.close().get();
+        assertTrue(file.file().isClosed());
+    }
+
+    @Test
+    public void repoOperations() throws Exception {
+        List<Future<Void>> writes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final AsyncFile file = asyncRepo.withPriority(i % 2 == 0 ? Priority.HIGH : Priority.LOW)
+                    .createFile(new Path("/file" + i)).get();
+            file.writeOnce(ByteBuffer.wrap(("content" + i).getBytes()), null);
+            writes.add(file.close());
+        }
+        for (Future<Void> write : writes) {
+            write.get();
+        }
+
+        DirEntry[] entries = asyncRepo.readDir(Path.root()).get();
+        assertEquals(10, entries.length);
+
+        asyncRepo.copy(new Path("/file0"), new Path("/copy"), null).get();
+        assertEquals(8, asyncRepo.metadata(new Path("/copy")).get().contentLen);
+        asyncRepo.removeFile(new Path("/copy"), null).get();
+        assertFalse(repo.pathExists(new Path("/copy")));
+    }
+
+    @Test
+    public void pendingLimit() throws Exception {
+        AsyncFile file = asyncRepo.openFile(new Path("/async_limit"),
+                new OpenOptions().create(true), null).get();
+
+        // operations queued on the same file count against the pending limit
+        List<Future<Long>> writes = new ArrayList<>();
+        int rejected = 0;
+        for (int i = 0; i < 200; i++) {
+            Future<Long> write = file.write(ByteBuffer.wrap(new byte[1024]), null);
+            if (write.isDone()) {
+                try {
+                    write.get();
+                } catch (ExecutionException err) {
+                    rejected++;
+                    continue;
+                }
+            }
+            writes.add(write);
+        }
+        assertTrue(rejected > 0);
+        assertTrue(executor.pendingCount() <= 64);
+
+        for (Future<Long> write : writes) {
+            write.get();
+        }
+        file.close().get();
+    }
+
+    @Test
+    public void failureReported() throws Exception {
+        final AtomicReference<ZboxException> error = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Future<AsyncFile> ret = asyncRepo.openFile(new Path("/not_exists"),
+                new Callback<AsyncFile>() {
+                    @Override
+                    public void onSuccess(AsyncFile result) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(ZboxException err) {
+                        error.set(err);
+                        done.countDown();
+                    }
+                });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(ZboxException.ERR_NOT_FOUND, error.get().getErrorCode());
+
+        try {
+            ret.get();
+            fail();
+        } catch (ExecutionException err) {
+            assertTrue(err.getCause() instanceof ZboxException);
+        }
+    }
+
+    @After
+    public void after() {
+        executor.shutdown();
+        repo.close();
+    }
+}
@@ -4,7 +4,9 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import io.zbox.zboxfs.DirEntries;
 import io.zbox.zboxfs.DirEntry;
+import io.zbox.zboxfs.File;
 import io.zbox.zboxfs.Path;
 import io.zbox.zboxfs.Repo;
 import io.zbox.zboxfs.RepoOpener;
@@ -105,6 +107,37 @@ public class DirTest {
         assertEquals(dirs[1].path, dir2);
     }
 
+    @Test
+    public void readDirPacked() throws ZboxException {
+        Path base = new Path("/dir08");
+        Path dir1 = base.join("1");
+        Path file2 = base.join("2.txt");
+
+        this.repo.createDirAll(dir1);
+        File file = this.repo.createFile(file2);
+        file.writeOnce("foo");
+        file.close();
+
+        DirEntries ents = this.repo.readDirPacked(base);
+        DirEntry[] dirs = this.repo.readDir(base);
+        assertEquals(ents.size(), 2);
+        assertEquals(ents.size(), dirs.length);
+        assertEquals(ents.fileName(0), "1");
+        assertEquals(ents.path(0), dir1);
+        assertTrue(ents.isDir(0));
+        assertEquals(ents.fileName(1), "2.txt");
+        assertEquals(ents.path(1), file2);
+        assertTrue(ents.isFile(1));
+        assertEquals(ents.contentLen(1), 3);
+        for (int i = 0; i < dirs.length; i++) {
+            assertTrue(ents.get(i).equals(dirs[i]));
+        }
+
+        ents = this.repo.readDirPacked(dir1);
+        assertTrue(ents.isEmpty());
+        assertEquals(ents.toArray().length, 0);
+    }
+
     @Test(expected = ZboxException.class)
     public void removeRootDir() throws ZboxException {
         this.repo.removeDir(Path.root());
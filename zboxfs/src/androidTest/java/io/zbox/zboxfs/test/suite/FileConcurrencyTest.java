@@ -0,0 +1,213 @@
+package io.zbox.zboxfs.test.suite;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.zbox.zboxfs.File;
+import io.zbox.zboxfs.OpenOptions;
+import io.zbox.zboxfs.Path;
+import io.zbox.zboxfs.Repo;
+import io.zbox.zboxfs.RepoOpener;
+import io.zbox.zboxfs.SeekFrom;
+import io.zbox.zboxfs.ZboxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileConcurrencyTest {
+    private static final String TAG = "FileConcurrencyTest";
+
+    private static final int FILE_SIZE = 8 * 1024 * 1024;
+    private static final int RANGE_SIZE = 64 * 1024;
+    private static final long BENCH_MILLIS = 2000;
+
+    private Repo repo;
+    private File file;
+
+    // content byte at each offset, so any range can be verified
+    private static byte expected(long offset) {
+        return (byte) (offset * 31 + (offset >> 8));
+    }
+
+    @Before
+    public void before() throws ZboxException {
+        repo = new RepoOpener().create(true).open(TestSuite.makeFileRepoUri(), "pwd");
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = expected(i);
+        }
+        File writer = new OpenOptions().create(true).open(repo, new Path("/video"));
+        writer.writeOnce(content);
+        writer.close();
+        file = repo.openFile(new Path("/video"));
+    }
+
+    @Test
+    public void preadDoesNotMoveCursor() throws ZboxException {
+        file.seek(10, SeekFrom.START);
+        ByteBuffer dst = ByteBuffer.allocateDirect(100);
+        assertEquals(100, file.pread(dst, 5000));
+        assertEquals(100, dst.position());
+        assertEquals(expected(5000), dst.get(0));
+        assertEquals(expected(5099), dst.get(99));
+        assertEquals(10, file.seek(0, SeekFrom.CURRENT));
+
+        // at end of file
+        dst.clear();
+        assertEquals(0, file.pread(dst, FILE_SIZE));
+    }
+
+    @Test
+    public void concurrentPread() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            final long seed = t;
+            results.add(pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws ZboxException {
+                    Random random = new Random(seed);
+                    ByteBuffer dst = ByteBuffer.allocate(RANGE_SIZE);
+                    for (int i = 0; i < 50; i++) {
+                        long offset = random.nextInt(FILE_SIZE - RANGE_SIZE);
+                        dst.clear();
+                        while (dst.hasRemaining()) {
+                            file.pread(dst, offset + dst.position());
+                        }
+                        for (int j = 0; j < RANGE_SIZE; j += 997) {
+                            assertEquals(expected(offset + j), dst.get(j));
+                        }
+                    }
+                    return 50;
+                }
+            }));
+        }
+
+        for (Future<Integer> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void preadDuringRead() throws Exception {
+        final AtomicLong preads = new AtomicLong();
+        final AtomicLong maxOverlap = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        // warm up so version and an idle reader are ready
+        ByteBuffer dst = ByteBuffer.allocate(RANGE_SIZE);
+        file.pread(dst, 0);
+
+        // read whole file through the cursor repeatedly, counting preads finished during one read
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<Void> reader = pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ZboxException {
+                ByteBuffer buf = ByteBuffer.allocateDirect(FILE_SIZE);
+                try {
+                    for (int i = 0; i < 5; i++) {
+                        file.seek(0, SeekFrom.START);
+                        buf.clear();
+                        long before = preads.get();
+                        assertEquals(FILE_SIZE, file.read(buf));
+                        long overlap = preads.get() - before;
+                        if (overlap > maxOverlap.get()) maxOverlap.set(overlap);
+                    }
+                } finally {
+                    done.set(true);
+                }
+                return null;
+            }
+        });
+
+        Random random = new Random(0);
+        while (!done.get()) {
+            long offset = random.nextInt(FILE_SIZE - RANGE_SIZE);
+            dst.clear();
+            file.pread(dst, offset);
+            assertEquals(expected(offset), dst.get(0));
+            preads.incrementAndGet();
+        }
+        reader.get();
+        pool.shutdown();
+
+        // preads waiting for the file lock could finish at most one during each read
+        assertTrue(maxOverlap.get() > 1);
+    }
+
+    @Test
+    public void preadSeesOtherHandleCommit() throws ZboxException {
+        ByteBuffer dst = ByteBuffer.allocate(3);
+        file.pread(dst, 0);
+
+        File writer = new OpenOptions().write(true).truncate(true)
+                .open(repo, new Path("/video"));
+        writer.writeOnce("foo".getBytes());
+        writer.close();
+
+        dst.clear();
+        assertEquals(3, file.pread(dst, 0));
+        assertEquals('f', dst.get(0));
+        dst.clear();
+        assertEquals(0, file.pread(dst, 3));
+    }
+
+    // random range read throughput on one opened file with different number of threads
+    @Test
+    public void benchmark() throws Exception {
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Long>> results = new ArrayList<>();
+            final long deadline = System.currentTimeMillis() + BENCH_MILLIS;
+
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                results.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws ZboxException {
+                        Random random = new Random(seed);
+                        ByteBuffer dst = ByteBuffer.allocateDirect(RANGE_SIZE);
+                        long bytes = 0;
+                        while (System.currentTimeMillis() < deadline) {
+                            dst.clear();
+                            bytes += file.pread(dst, random.nextInt(FILE_SIZE - RANGE_SIZE));
+                        }
+                        return bytes;
+                    }
+                }));
+            }
+
+            long bytes = 0;
+            for (Future<Long> result : results) {
+                bytes += result.get();
+            }
+            pool.shutdown();
+
+            Log.i(TAG, String.format("pread %d KiB ranges, %d threads: %.1f MiB/s",
+                    RANGE_SIZE / 1024, threads,
+                    bytes * 1000.0 / BENCH_MILLIS / 1024 / 1024));
+        }
+    }
+
+    @After
+    public void after() {
+        file.close();
+        repo.close();
+    }
+}
@@ -7,10 +7,20 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
-
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.zbox.zboxfs.BlockCache;
+import io.zbox.zboxfs.ChunkConsumer;
+import io.zbox.zboxfs.Env;
 import io.zbox.zboxfs.File;
+import io.zbox.zboxfs.FileChannel;
 import io.zbox.zboxfs.FileInputStream;
+import io.zbox.zboxfs.FileOutputStream;
 import io.zbox.zboxfs.Metadata;
 import io.zbox.zboxfs.OpenOptions;
 import io.zbox.zboxfs.Path;
@@ -26,6 +36,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FileTest {
 
@@ -258,6 +269,75 @@ public class FileTest {
         }
     }
 
+    @Test
+    public void FileInputStreamReadAhead() throws ZboxException, IOException {
+        Path path = new Path("/file07_ahead");
+        byte[] content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7);
+        }
+        File file = new OpenOptions().create(true).open(this.repo, path);
+        file.writeOnce(content);
+        file.close();
+
+        long leased = Env.bufferPoolOutstandingBytes();
+        try (FileInputStream input = repo.openFileInputStream(path, 64)) {
+            assertTrue(input.markSupported());
+            assertEquals(content.length, input.available());
+
+            // byte by byte reads across window boundaries
+            for (int i = 0; i < 100; i++) {
+                assertEquals(content[i] & 0xff, input.read());
+            }
+            assertEquals(900, input.available());
+
+            // reset within window
+            input.mark(0);
+            assertEquals(content[100] & 0xff, input.read());
+            input.reset();
+            assertEquals(content[100] & 0xff, input.read());
+
+            // reset after window has moved on
+            input.mark(0);
+            byte[] dst = new byte[200];
+            assertEquals(200, readFully(input, dst));
+            input.reset();
+            assertEquals(content[101] & 0xff, input.read());
+
+            // large read bypasses window
+            assertEquals(100, input.skip(100));
+            assertEquals(content[202] & 0xff, input.read());
+            dst = new byte[500];
+            assertEquals(500, readFully(input, dst));
+            assertArrayEquals(Arrays.copyOfRange(content, 203, 703), dst);
+
+            // skip is bounded by end of file
+            assertEquals(297, input.skip(1000));
+            assertEquals(0, input.available());
+            assertEquals(-1, input.read());
+            assertEquals(-1, input.read(dst));
+        }
+
+        // window is given back to buffer pool on close
+        assertEquals(leased, Env.bufferPoolOutstandingBytes());
+    }
+
+    private static int readFully(FileInputStream input, byte[] dst) throws IOException {
+        int total = 0, read;
+        while (total < dst.length && (read = input.read(dst, total, dst.length - total)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static int readFully(File file, byte[] dst) throws ZboxException {
+        int total = 0, read;
+        while (total < dst.length && (read = file.read(dst, total, dst.length - total)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+
     @Test
     public void outputStreamRead() throws ZboxException {
         Path path = new Path("/file08");
@@ -564,6 +644,379 @@ public class FileTest {
         file.close();
     }
 
+    @Test
+    public void unclosedFileReclaimed() throws Exception {
+        Path path = new Path("/file_reclaimed");
+        File file = repo.createFile(path);
+        file.writeOnce("foo");
+        file.close();
+
+        long before = Env.reclaimedCount();
+
+        // open files without closing them
+        for (int i = 0; i < 10; i++) {
+            repo.openFile(path);
+        }
+
+        for (int i = 0; i < 50 && Env.reclaimedCount() == before; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertTrue(Env.reclaimedCount() > before);
+
+        // closed file should not be counted
+        before = Env.reclaimedCount();
+        file = repo.openFile(path);
+        file.close();
+        file = null;
+        System.gc();
+        Thread.sleep(100);
+        assertEquals(Env.reclaimedCount(), before);
+    }
+
+    @Test
+    public void largeByteArrayIO() throws ZboxException {
+        Path path = new Path("/file_large_array");
+        File file = new OpenOptions().create(true).open(this.repo, path);
+
+        // larger than any internal buffer, and written from the middle of an array
+        byte[] src = new byte[300 * 1024 + 7];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) i;
+        }
+        int written = 0;
+        while (written < src.length - 3) {
+            written += file.write(src, 3 + written, src.length - 3 - written);
+        }
+        file.finish();
+
+        file.seek(0, SeekFrom.START);
+        byte[] dst = new byte[src.length];
+        int read = 0, ret;
+        while ((ret = file.read(dst, 5 + read, dst.length - 5 - read)) > 0) {
+            read += ret;
+        }
+        assertEquals(src.length - 3, read);
+        for (int i = 0; i < read; i++) {
+            assertEquals(src[3 + i], dst[5 + i]);
+        }
+
+        VersionReader vr = file.versionReader(file.currVersion());
+        byte[] dst2 = new byte[src.length];
+        read = 0;
+        while ((ret = vr.read(dst2, read, dst2.length - read)) > 0) {
+            read += ret;
+        }
+        assertEquals(src.length - 3, read);
+        assertArrayEquals(Arrays.copyOfRange(src, 3, src.length), Arrays.copyOf(dst2, read));
+        vr.close();
+
+        file.close();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void byteArrayOutOfRange() throws ZboxException {
+        File file = new OpenOptions().create(true).open(this.repo, new Path("/file_range"));
+        try {
+            file.read(new byte[4], 2, 3);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void fileOutputStreamWrite() throws ZboxException, IOException {
+        Path path = new Path("/file_output_stream");
+        OpenOptions opts = new OpenOptions().create(true).truncate(true);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+        // small buffer so both buffered and direct writes are exercised
+        FileOutputStream out = repo.openFileOutputStream(path, opts, 100);
+        for (int i = 0; i < 1000; i++) {
+            byte[] rec = ("record " + i + "\n").getBytes();
+            out.write(rec);
+            expected.write(rec);
+            out.write(i);
+            expected.write(i);
+        }
+        byte[] big = new byte[250];
+        Arrays.fill(big, (byte) 42);
+        out.write(big);
+        expected.write(big);
+        out.close();
+        out.close();
+
+        File file = repo.openFile(path);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        file.read(content);
+        assertArrayEquals(expected.toByteArray(), content.toByteArray());
+        file.close();
+
+        // default buffer size
+        out = repo.openFileOutputStream(path, opts);
+        out.write(big, 10, 20);
+        out.close();
+        file = repo.openFile(path);
+        assertEquals(20, file.metadata().contentLen);
+        file.close();
+    }
+
+    @Test
+    public void channelIO() throws ZboxException, IOException {
+        Path path = new Path("/file_channel");
+        File file = new OpenOptions().create(true).open(this.repo, path);
+
+        try (FileChannel ch = file.channel()) {
+            // gathering write from direct and heap buffers
+            ByteBuffer direct = ByteBuffer.allocateDirect(3);
+            direct.put(new byte[]{1, 2, 3}).flip();
+            ByteBuffer heap = ByteBuffer.wrap(new byte[]{4, 5, 6, 7});
+            assertEquals(7, ch.write(new ByteBuffer[]{direct, ByteBuffer.allocate(0), heap}));
+            assertFalse(direct.hasRemaining());
+            assertFalse(heap.hasRemaining());
+            assertEquals(8, ch.write(ByteBuffer.wrap(new byte[]{8})));
+            ch.force();
+            assertEquals(8, ch.size());
+
+            // positional read doesn't move the cursor
+            ch.position(1);
+            ByteBuffer dst = ByteBuffer.allocate(3);
+            assertEquals(3, ch.read(dst, 4));
+            assertArrayEquals(new byte[]{5, 6, 7}, dst.array());
+            assertEquals(1, ch.position());
+            assertEquals(-1, ch.read(ByteBuffer.allocate(1), 8));
+
+            // scattering read into direct and heap buffers
+            ByteBuffer dst1 = ByteBuffer.allocateDirect(2);
+            ByteBuffer dst2 = ByteBuffer.allocate(10);
+            assertEquals(7, ch.read(new ByteBuffer[]{dst1, dst2}));
+            assertEquals(2, dst1.position());
+            assertEquals(5, dst2.position());
+            dst1.flip();
+            assertEquals(2, dst1.get());
+            assertEquals(3, dst1.get());
+            assertEquals(8, dst2.get(4));
+            assertEquals(-1, ch.read(dst2));
+
+            // transfer to and from other channels
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(6, ch.transferTo(2, 100, Channels.newChannel(out)));
+            assertArrayEquals(new byte[]{3, 4, 5, 6, 7, 8}, out.toByteArray());
+
+            ByteArrayInputStream in = new ByteArrayInputStream(new byte[]{9, 9, 9});
+            assertEquals(3, ch.transferFrom(Channels.newChannel(in), 8, 10));
+            ch.force();
+            assertEquals(11, ch.size());
+            ch.truncate(10);
+            assertEquals(10, ch.size());
+        }
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        file.seek(0, SeekFrom.START);
+        file.read(content);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 9}, content.toByteArray());
+        file.close();
+    }
+
+    @Test
+    public void chunkedRead() throws ZboxException {
+        Path path = new Path("/file_chunks");
+        byte[] content = new byte[10000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        File file = new OpenOptions().create(true).open(this.repo, path);
+        file.writeOnce(content);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<Long> offsets = new ArrayList<>();
+        ChunkConsumer consumer = new ChunkConsumer() {
+            @Override
+            public void accept(ByteBuffer chunk, long offset) {
+                assertEquals(out.size(), offset);
+                offsets.add(offset);
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                out.write(bytes, 0, bytes.length);
+            }
+        };
+
+        file.seek(0, SeekFrom.START);
+        assertEquals(content.length, file.readChunks(3000, consumer));
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(4, offsets.size());
+
+        // nothing left to read
+        assertEquals(0, file.readChunks(3000, consumer));
+
+        // version reader, starting from the middle
+        out.reset();
+        VersionReader vr = file.versionReader(file.currVersion());
+        vr.seek(5000, SeekFrom.START);
+        assertEquals(5000, vr.readChunks(VersionReader.DEFAULT_CHUNK_SIZE, consumer));
+        assertArrayEquals(Arrays.copyOfRange(content, 5000, 10000), out.toByteArray());
+        vr.close();
+
+        file.close();
+    }
+
+    @Test
+    public void blockCacheRead() throws ZboxException {
+        Path path = new Path("/file_block_cache");
+        byte[] content = new byte[BlockCache.BLOCK_SIZE * 2 + 1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        File file = new OpenOptions().create(true).open(this.repo, path);
+        file.writeOnce(content);
+
+        BlockCache.setCapacity(16 * BlockCache.BLOCK_SIZE);
+        try {
+            byte[] dst = new byte[content.length];
+
+            // first read loads all blocks
+            long misses = BlockCache.missCount();
+            file.seek(0, SeekFrom.START);
+            assertEquals(content.length, readFully(file, dst));
+            assertArrayEquals(content, dst);
+            assertEquals(misses + 3, BlockCache.missCount());
+            assertEquals(content.length, file.seek(0, SeekFrom.CURRENT));
+
+            // read across block boundary is served by cache
+            long hits = BlockCache.hitCount();
+            byte[] part = new byte[100];
+            file.seek(BlockCache.BLOCK_SIZE - 50, SeekFrom.START);
+            assertEquals(100, file.read(part));
+            assertArrayEquals(Arrays.copyOfRange(content, BlockCache.BLOCK_SIZE - 50,
+                    BlockCache.BLOCK_SIZE + 50), part);
+            assertEquals(hits + 2, BlockCache.hitCount());
+            assertEquals(misses + 3, BlockCache.missCount());
+
+            // version reader and other file handle share cached blocks
+            VersionReader vr = file.versionReader(file.currVersion());
+            assertEquals(content.length, vr.readAll().position());
+            vr.seek(0, SeekFrom.START);
+            ByteBuffer buf = ByteBuffer.allocate(content.length);
+            while (vr.read(buf) > 0) {}
+            assertArrayEquals(content, buf.array());
+            vr.close();
+            File file2 = this.repo.openFile(path);
+            assertEquals(content.length, readFully(file2, dst));
+            file2.close();
+            assertEquals(misses + 3, BlockCache.missCount());
+
+            // new version invalidates cached blocks
+            Arrays.fill(content, (byte) 7);
+            file.seek(0, SeekFrom.START);
+            file.writeOnce(content);
+            file.seek(0, SeekFrom.START);
+            assertEquals(content.length, readFully(file, dst));
+            assertArrayEquals(content, dst);
+
+            // removed file has no cached blocks
+            file.close();
+            long size = BlockCache.size();
+            this.repo.removeFile(path);
+            assertTrue(BlockCache.size() < size);
+        } finally {
+            BlockCache.setCapacity(0);
+        }
+        assertEquals(0, BlockCache.size());
+    }
+
+    @Test
+    public void sequentialReadAhead() throws ZboxException, IOException {
+        Path path = new Path("/file_read_ahead");
+        byte[] content = new byte[1024 * 1024 + 123];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        File file = new OpenOptions().create(true).open(this.repo, path);
+        file.writeOnce(content);
+        file.setReadAhead(4, 64 * 1024);
+
+        // sequential reads in small pieces
+        file.seek(0, SeekFrom.START);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer dst = ByteBuffer.allocateDirect(10000);
+        while (file.read(dst) > 0) {
+            dst.flip();
+            byte[] bytes = new byte[dst.remaining()];
+            dst.get(bytes);
+            out.write(bytes, 0, bytes.length);
+            dst.clear();
+        }
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(content.length, file.seek(0, SeekFrom.CURRENT));
+        assertEquals(0, file.read(new byte[10]));
+
+        // seek resets read-ahead
+        byte[] part = new byte[70000];
+        file.seek(500000, SeekFrom.START);
+        assertEquals(part.length, readFully(file, part));
+        assertArrayEquals(Arrays.copyOfRange(content, 500000, 570000), part);
+        file.seek(100, SeekFrom.START);
+        assertEquals(part.length, readFully(file, part));
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 70100), part);
+
+        // read-ahead follows new version
+        Arrays.fill(content, (byte) 9);
+        file.seek(0, SeekFrom.START);
+        file.writeOnce(content);
+        file.seek(0, SeekFrom.START);
+        byte[] all = new byte[content.length];
+        assertEquals(content.length, readFully(file, all));
+        assertArrayEquals(content, all);
+        file.close();
+
+        // input stream
+        FileInputStream input = this.repo.openFileInputStream(path);
+        input.setReadAhead(2, 256 * 1024);
+        assertEquals(content.length, readFully(input, all));
+        assertArrayEquals(content, all);
+        assertEquals(-1, input.read());
+        input.close();
+    }
+
+    @Test
+    public void pipelinedStreamWrite() throws ZboxException {
+        Path path = new Path("/file_pipelined");
+        final byte[] content = new byte[3 * 1024 * 1024 + 4321];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 249);
+        }
+
+        File file = new OpenOptions().create(true).open(this.repo, path);
+        file.writeOnce(new ByteArrayInputStream(content));
+        assertEquals(content.length, file.metadata().contentLen);
+        file.seek(0, SeekFrom.START);
+        byte[] dst = new byte[content.length];
+        assertEquals(content.length, readFully(file, dst));
+        assertArrayEquals(content, dst);
+
+        // source error is reported to caller
+        final ByteArrayInputStream src = new ByteArrayInputStream(content);
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("boom");
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (src.available() < content.length / 2) throw new IOException("boom");
+                return src.read(b, off, len);
+            }
+        };
+        try {
+            file.writeOnce(failing);
+            fail();
+        } catch (ZboxException err) {
+            assertTrue(err.toString().contains("boom"));
+        }
+        file.close();
+    }
+
     @After
     public void after() {
         this.repo.close();
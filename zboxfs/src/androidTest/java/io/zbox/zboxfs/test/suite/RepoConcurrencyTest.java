@@ -0,0 +1,123 @@
+package io.zbox.zboxfs.test.suite;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.zbox.zboxfs.File;
+import io.zbox.zboxfs.Metadata;
+import io.zbox.zboxfs.Path;
+import io.zbox.zboxfs.Repo;
+import io.zbox.zboxfs.RepoOpener;
+import io.zbox.zboxfs.ZboxException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RepoConcurrencyTest {
+    private static final String TAG = "RepoConcurrencyTest";
+
+    private static final int FILE_CNT = 16;
+    private static final int READ_ROUNDS = 200;
+    private static final long BENCH_MILLIS = 1000;
+
+    private static Repo createRepo(String uri) throws ZboxException {
+        Repo repo = new RepoOpener().create(true).open(uri, "pwd");
+        for (int i = 0; i < FILE_CNT; i++) {
+            File file = repo.createFile(new Path("/file" + i));
+            file.writeOnce("content " + i);
+            file.close();
+        }
+        return repo;
+    }
+
+    @Test
+    public void readersAndWriter() throws Exception {
+        final Repo repo = createRepo(TestSuite.makeMemRepoUri());
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        // readers keep checking the pre-created files while writer adds new ones
+        for (int t = 0; t < 4; t++) {
+            results.add(pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws ZboxException {
+                    for (int i = 0; i < READ_ROUNDS; i++) {
+                        Path path = new Path("/file" + (i % FILE_CNT));
+                        assertTrue(repo.isFile(path));
+                        Metadata md = repo.metadata(path);
+                        assertEquals(("content " + (i % FILE_CNT)).length(), md.contentLen);
+                        assertTrue(repo.readDir(new Path("/")).length >= FILE_CNT);
+                    }
+                    return READ_ROUNDS;
+                }
+            }));
+        }
+        results.add(pool.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws ZboxException {
+                for (int i = 0; i < FILE_CNT; i++) {
+                    repo.createDir(new Path("/dir" + i));
+                }
+                return FILE_CNT;
+            }
+        }));
+
+        for (Future<Integer> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+
+        assertEquals(FILE_CNT * 2, repo.readDir(new Path("/")).length);
+        repo.close();
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        bench("mem", TestSuite.makeMemRepoUri());
+        bench("file", TestSuite.makeFileRepoUri());
+    }
+
+    // measure metadata read throughput with different number of threads
+    private void bench(String storage, String uri) throws Exception {
+        final Repo repo = createRepo(uri);
+
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Long>> results = new ArrayList<>();
+            final long deadline = System.currentTimeMillis() + BENCH_MILLIS;
+
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws ZboxException {
+                        long ops = 0;
+                        while (System.currentTimeMillis() < deadline) {
+                            repo.metadata(new Path("/file" + (ops % FILE_CNT)));
+                            ops++;
+                        }
+                        return ops;
+                    }
+                }));
+            }
+
+            long ops = 0;
+            for (Future<Long> result : results) {
+                ops += result.get();
+            }
+            pool.shutdown();
+
+            Log.i(TAG, String.format("%s repo, %d threads: %d ops/sec", storage, threads,
+                    ops * 1000 / BENCH_MILLIS));
+        }
+
+        repo.close();
+    }
+}
@@ -12,15 +12,22 @@ import org.junit.runners.Suite;
 import java.io.File;
 import java.security.SecureRandom;
 
+import io.zbox.zboxfs.BufferPoolTest;
 import io.zbox.zboxfs.Env;
+import io.zbox.zboxfs.PathConformanceTest;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         RepoTest.class,
+        RepoConcurrencyTest.class,
         PersistTest.class,
         FileTest.class,
+        FileConcurrencyTest.class,
+        AsyncTest.class,
         DirTest.class,
-        PathTest.class
+        PathTest.class,
+        PathConformanceTest.class,
+        BufferPoolTest.class
 })
 public class TestSuite {
     private static final String CHAR_LOWER = "abcdefghijklmnopqrstuvwxyz";
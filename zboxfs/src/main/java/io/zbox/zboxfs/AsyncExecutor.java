@@ -0,0 +1,243 @@
+package io.zbox.zboxfs;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor which runs asynchronous operations of {@link AsyncRepo} and {@link AsyncFile}.
+ *
+ * <p>An executor has a fixed maximum number of threads and a maximum number of pending
+ * operations. Pending operations are started in {@link Priority} order. When the pending limit is
+ * reached, new operations fail immediately with a {@link ZboxException} instead of blocking the
+ * caller.</p>
+ *
+ * <p>Operations on the same {@link AsyncFile} run one at a time in submission order, while
+ * operations on an {@link AsyncRepo} and on different files run in parallel.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * // 4 threads, up to 256 pending operations
+ * AsyncExecutor executor = new AsyncExecutor(4, 256);
+ * AsyncRepo asyncRepo = new AsyncRepo(repo, executor);
+ * </pre></blockquote>
+ *
+ * @author Bo Lu
+ * @see AsyncRepo
+ * @see AsyncFile
+ */
+public final class AsyncExecutor {
+
+    /**
+     * Default maximum number of pending operations.
+     */
+    public static final int DEFAULT_MAX_PENDING = 1024;
+
+    // how long an idle thread is kept, in seconds
+    private static final long KEEP_ALIVE_SECS = 30;
+
+    private static final AtomicInteger threadNum = new AtomicInteger();
+
+    private static AsyncExecutor defaultExecutor = null;
+
+    private final ThreadPoolExecutor pool;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // submission sequence, keeps operations of the same priority in order
+    private final AtomicLong seq = new AtomicLong();
+
+    /**
+     * Create an executor.
+     *
+     * @param threads    maximum number of threads, must be positive
+     * @param maxPending maximum number of pending operations, including running ones, must be
+     *                   positive
+     */
+    public AsyncExecutor(int threads, int maxPending) {
+        if (threads <= 0) throw new IllegalArgumentException("Thread number must be positive");
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("Pending limit must be positive");
+        }
+        this.maxPending = maxPending;
+        this.pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable task) {
+                        String name = "zboxfs-async-" + threadNum.incrementAndGet();
+                        Thread ret = new Thread(task, name);
+                        ret.setDaemon(true);
+                        return ret;
+                    }
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the shared default executor.
+     *
+     * <p>The default executor has one thread per processor, at least 2, and allows up to
+     * {@link #DEFAULT_MAX_PENDING} pending operations.</p>
+     *
+     * @return the default executor
+     */
+    public static synchronized AsyncExecutor getDefault() {
+        if (defaultExecutor == null) {
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            defaultExecutor = new AsyncExecutor(threads, DEFAULT_MAX_PENDING);
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Returns number of pending operations, including running ones and ones queued behind other
+     * operations on the same file.
+     *
+     * @return number of pending operations
+     */
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Stop accepting new operations, already submitted operations are still run.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // run an operation in parallel with others
+    <T> Future<T> submit(Callable<T> op, Priority priority, Callback<T> callback) {
+        Task<T> task = new Task<>(op, priority, callback, null);
+        if (this.reserve(task)) this.dispatch(task);
+        return task;
+    }
+
+    // run operations one at a time in submission order
+    Serial serial() {
+        return new Serial();
+    }
+
+    // count an operation as pending, it fails immediately if the pending limit is reached
+    private boolean reserve(Task<?> task) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            task.fail(new ZboxException("Too many pending operations"));
+            return false;
+        }
+        return true;
+    }
+
+    // start a pending operation, returns false if the executor is shut down
+    private boolean dispatch(Task<?> task) {
+        try {
+            pool.execute(task);
+            return true;
+        } catch (RuntimeException err) {
+            pending.decrementAndGet();
+            task.fail(new ZboxException("Executor is shut down"));
+            return false;
+        }
+    }
+
+    // queue of operations which run one after another
+    final class Serial {
+        private final ArrayDeque<Task<?>> queue = new ArrayDeque<>();
+        private boolean running = false;
+
+        <T> Future<T> submit(Callable<T> op, Priority priority, Callback<T> callback) {
+            Task<T> task = new Task<>(op, priority, callback, this);
+            // queued operations count against the pending limit too
+            if (!AsyncExecutor.this.reserve(task)) return task;
+            synchronized (this) {
+                if (running) {
+                    queue.add(task);
+                    return task;
+                }
+                running = true;
+            }
+            if (!AsyncExecutor.this.dispatch(task)) this.next();
+            return task;
+        }
+
+        // start the next queued operation after the current one is done
+        void next() {
+            while (true) {
+                Task<?> task;
+                synchronized (this) {
+                    task = queue.poll();
+                    if (task == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                if (AsyncExecutor.this.dispatch(task)) return;
+            }
+        }
+    }
+
+    // an operation with its priority and callback
+    private final class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final Priority priority;
+        private final long order = seq.incrementAndGet();
+        private final Callback<T> callback;
+        private final Serial serial;
+
+        Task(Callable<T> op, Priority priority, Callback<T> callback, Serial serial) {
+            super(op);
+            this.priority = priority;
+            this.callback = callback;
+            this.serial = serial;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                pending.decrementAndGet();
+                if (serial != null) serial.next();
+            }
+        }
+
+        // complete without running
+        void fail(ZboxException err) {
+            this.setException(err);
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null || this.isCancelled()) return;
+
+            T result;
+            try {
+                result = this.get();
+            } catch (ExecutionException err) {
+                Throwable cause = err.getCause();
+                callback.onFailure(cause instanceof ZboxException ? (ZboxException) cause
+                        : new ZboxException(cause.toString(), cause));
+                return;
+            } catch (InterruptedException err) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            callback.onSuccess(result);
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            int ret = priority.compareTo(other.priority);
+            if (ret != 0) return ret;
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package io.zbox.zboxfs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous facade of a {@link File}.
+ *
+ * <p>An {@code AsyncFile} is obtained from {@link AsyncRepo}. Operations on the same file run one
+ * at a time in the order they are submitted, so for example a {@link #read(ByteBuffer)} submitted
+ * after {@link #seek(long, SeekFrom)} reads at the new position. Operations on different files run
+ * in parallel.</p>
+ *
+ * <p>Buffers passed to an operation must not be accessed until the operation is done.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * AsyncFile file = asyncRepo.createFile(new Path("/foo.txt")).get();
+ * file.write(ByteBuffer.wrap("Hello".getBytes()), null);
+ * file.finish(new Callback&lt;Void&gt;() { ... });
+ * file.close();
+ * </pre></blockquote>
+ *
+ * @author Bo Lu
+ * @see AsyncRepo
+ * @see File
+ */
+public class AsyncFile {
+
+    private final File file;
+    private final AsyncExecutor.Serial serial;
+    private final Priority priority;
+
+    AsyncFile(File file, AsyncExecutor executor, Priority priority) {
+        this.file = file;
+        this.serial = executor.serial();
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the underlying file.
+     *
+     * <p>The file must not be used directly while there are pending operations on this facade.
+     * </p>
+     *
+     * @return the underlying file
+     */
+    public File file() {
+        return file;
+    }
+
+    /**
+     * Asynchronously query metadata of this file.
+     *
+     * @param callback callback receives the metadata, can be {@code null}
+     * @return a future of the metadata
+     * @see File#metadata()
+     */
+    public Future<Metadata> metadata(Callback<Metadata> callback) {
+        return this.submit(new Callable<Metadata>() {
+            @Override
+            public Metadata call() throws ZboxException {
+                return file.metadata();
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously read some bytes at the cursor into a buffer.
+     *
+     * @param dst the byte buffer into which bytes are to be written
+     * @return a future of number of bytes were read
+     * @see File#read(ByteBuffer)
+     */
+    public Future<Long> read(ByteBuffer dst) {
+        return this.read(dst, null);
+    }
+
+    /**
+     * Asynchronously read some bytes at the cursor into a buffer.
+     *
+     * @param dst      the byte buffer into which bytes are to be written
+     * @param callback callback receives number of bytes were read, can be {@code null}
+     * @return a future of number of bytes were read
+     * @see File#read(ByteBuffer)
+     */
+    public Future<Long> read(final ByteBuffer dst, Callback<Long> callback) {
+        return this.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws ZboxException {
+                return file.read(dst);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously read all bytes until end of this file.
+     *
+     * @return a future of the buffer holds all read bytes
+     * @see File#readAll()
+     */
+    public Future<ByteBuffer> readAll() {
+        return this.readAll(null);
+    }
+
+    /**
+     * Asynchronously read all bytes until end of this file.
+     *
+     * @param callback callback receives the buffer holds all read bytes, can be {@code null}
+     * @return a future of the buffer holds all read bytes
+     * @see File#readAll()
+     */
+    public Future<ByteBuffer> readAll(Callback<ByteBuffer> callback) {
+        return this.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() throws ZboxException {
+                return file.readAll();
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously write a buffer into this file.
+     *
+     * @param buf      the source byte buffer from which bytes are to be read
+     * @param callback callback receives number of bytes were written, can be {@code null}
+     * @return a future of number of bytes were written
+     * @see File#write(ByteBuffer)
+     */
+    public Future<Long> write(final ByteBuffer buf, Callback<Long> callback) {
+        return this.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws ZboxException {
+                return file.write(buf);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously write a buffer into this file and create a new version.
+     *
+     * @param buf      the source byte buffer from which bytes are to be read
+     * @param callback callback called when the new version is created, can be {@code null}
+     * @return a future completes when the new version is created
+     * @see File#writeOnce(ByteBuffer)
+     */
+    public Future<Void> writeOnce(final ByteBuffer buf, Callback<Void> callback) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ZboxException {
+                file.writeOnce(buf);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously complete multi-part write and create a new version.
+     *
+     * @param callback callback called when the new version is created, can be {@code null}
+     * @return a future completes when the new version is created
+     * @see File#finish()
+     */
+    public Future<Void> finish(Callback<Void> callback) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ZboxException {
+                file.finish();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously seek to an offset in this file.
+     *
+     * @param off    the offset within this file, relative to {@code whence}
+     * @param whence the start point to calculate seek offset
+     * @return a future of new position from the start of the content
+     * @see File#seek(long, SeekFrom)
+     */
+    public Future<Long> seek(final long off, final SeekFrom whence) {
+        return this.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws ZboxException {
+                return file.seek(off, whence);
+            }
+        }, null);
+    }
+
+    /**
+     * Close this file after all pending operations are done.
+     *
+     * @return a future completes when the file is closed
+     * @see File#close()
+     */
+    public Future<Void> close() {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                file.close();
+                return null;
+            }
+        }, null);
+    }
+
+    private <T> Future<T> submit(Callable<T> op, Callback<T> callback) {
+        return serial.submit(op, priority, callback);
+    }
+}
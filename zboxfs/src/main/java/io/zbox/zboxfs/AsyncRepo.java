@@ -0,0 +1,305 @@
+package io.zbox.zboxfs;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous facade of a {@link Repo}.
+ *
+ * <p>Each method submits the operation to an {@link AsyncExecutor} and returns a
+ * {@link Future} immediately. The result can be received either by {@link Future#get()}, which
+ * throws an {@link java.util.concurrent.ExecutionException} wrapping the {@link ZboxException}
+ * if the operation failed, or by an optional {@link Callback}.</p>
+ *
+ * <p>Operations are submitted with the priority of this facade, use {@link #withPriority(Priority)}
+ * to submit operations with a different priority. As {@code Repo} can be shared by multiple
+ * threads, operations submitted through this facade may run in parallel.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * AsyncRepo asyncRepo = new AsyncRepo(repo);
+ *
+ * // list a directory in background
+ * Future&lt;DirEntry[]&gt; entries = asyncRepo.readDir(new Path("/"));
+ *
+ * // open a file with high priority and read it
+ * AsyncFile file = asyncRepo.withPriority(Priority.HIGH).openFile(new Path("/foo.txt")).get();
+ * ByteBuffer content = file.readAll().get();
+ * file.close();
+ * </pre></blockquote>
+ *
+ * @author Bo Lu
+ * @see AsyncFile
+ * @see AsyncExecutor
+ */
+public class AsyncRepo {
+
+    private final Repo repo;
+    private final AsyncExecutor executor;
+    private final Priority priority;
+
+    /**
+     * Create an asynchronous facade of a repo using the default executor.
+     *
+     * @param repo the opened repo
+     * @see AsyncExecutor#getDefault()
+     */
+    public AsyncRepo(Repo repo) {
+        this(repo, AsyncExecutor.getDefault());
+    }
+
+    /**
+     * Create an asynchronous facade of a repo using the specified executor.
+     *
+     * @param repo     the opened repo
+     * @param executor the executor runs the operations
+     */
+    public AsyncRepo(Repo repo, AsyncExecutor executor) {
+        this(repo, executor, Priority.NORMAL);
+    }
+
+    private AsyncRepo(Repo repo, AsyncExecutor executor, Priority priority) {
+        if (repo == null || executor == null || priority == null) {
+            throw new NullPointerException();
+        }
+        this.repo = repo;
+        this.executor = executor;
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the underlying repo.
+     *
+     * @return the underlying repo
+     */
+    public Repo repo() {
+        return repo;
+    }
+
+    /**
+     * Returns a facade of the same repo and executor which submits operations with the specified
+     * priority.
+     *
+     * <p>Files opened through the returned facade also use this priority.</p>
+     *
+     * @param priority priority of the operations
+     * @return a facade with the specified priority
+     */
+    public AsyncRepo withPriority(Priority priority) {
+        return new AsyncRepo(repo, executor, priority);
+    }
+
+    /**
+     * Asynchronously create a file in read-write mode.
+     *
+     * @param path absolute path of the file to be created
+     * @return a future of the created file
+     * @see Repo#createFile(Path)
+     */
+    public Future<AsyncFile> createFile(Path path) {
+        return this.createFile(path, null);
+    }
+
+    /**
+     * Asynchronously create a file in read-write mode.
+     *
+     * @param path     absolute path of the file to be created
+     * @param callback callback receives the created file, can be {@code null}
+     * @return a future of the created file
+     * @see Repo#createFile(Path)
+     */
+    public Future<AsyncFile> createFile(final Path path, Callback<AsyncFile> callback) {
+        return this.submit(new Callable<AsyncFile>() {
+            @Override
+            public AsyncFile call() throws ZboxException {
+                return wrap(repo.createFile(path));
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously open a file in read-only mode.
+     *
+     * @param path absolute path of the file to be opened
+     * @return a future of the opened file
+     * @see Repo#openFile(Path)
+     */
+    public Future<AsyncFile> openFile(Path path) {
+        return this.openFile(path, null);
+    }
+
+    /**
+     * Asynchronously open a file in read-only mode.
+     *
+     * @param path     absolute path of the file to be opened
+     * @param callback callback receives the opened file, can be {@code null}
+     * @return a future of the opened file
+     * @see Repo#openFile(Path)
+     */
+    public Future<AsyncFile> openFile(final Path path, Callback<AsyncFile> callback) {
+        return this.submit(new Callable<AsyncFile>() {
+            @Override
+            public AsyncFile call() throws ZboxException {
+                return wrap(repo.openFile(path));
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously open a file with the specified options.
+     *
+     * @param path     absolute path of the file to be opened
+     * @param options  options to open the file
+     * @param callback callback receives the opened file, can be {@code null}
+     * @return a future of the opened file
+     * @see OpenOptions#open(Repo, Path)
+     */
+    public Future<AsyncFile> openFile(final Path path, final OpenOptions options,
+                                      Callback<AsyncFile> callback) {
+        return this.submit(new Callable<AsyncFile>() {
+            @Override
+            public AsyncFile call() throws ZboxException {
+                RustObject.checkNullParam(options);
+                return wrap(options.open(repo, path));
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously read a directory.
+     *
+     * @param path absolute path of the directory
+     * @return a future of the directory entries
+     * @see Repo#readDir(Path)
+     */
+    public Future<DirEntry[]> readDir(Path path) {
+        return this.readDir(path, null);
+    }
+
+    /**
+     * Asynchronously read a directory.
+     *
+     * @param path     absolute path of the directory
+     * @param callback callback receives the directory entries, can be {@code null}
+     * @return a future of the directory entries
+     * @see Repo#readDir(Path)
+     */
+    public Future<DirEntry[]> readDir(final Path path, Callback<DirEntry[]> callback) {
+        return this.submit(new Callable<DirEntry[]>() {
+            @Override
+            public DirEntry[] call() throws ZboxException {
+                return repo.readDir(path);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously get metadata of a file or directory.
+     *
+     * @param path absolute path of the file or directory
+     * @return a future of the metadata
+     * @see Repo#metadata(Path)
+     */
+    public Future<Metadata> metadata(Path path) {
+        return this.metadata(path, null);
+    }
+
+    /**
+     * Asynchronously get metadata of a file or directory.
+     *
+     * @param path     absolute path of the file or directory
+     * @param callback callback receives the metadata, can be {@code null}
+     * @return a future of the metadata
+     * @see Repo#metadata(Path)
+     */
+    public Future<Metadata> metadata(final Path path, Callback<Metadata> callback) {
+        return this.submit(new Callable<Metadata>() {
+            @Override
+            public Metadata call() throws ZboxException {
+                return repo.metadata(path);
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously copy the content of one file to another.
+     *
+     * @param from     absolute path of the source regular file
+     * @param to       absolute path of the target regular file
+     * @param callback callback called when the copy is done, can be {@code null}
+     * @return a future completes when the copy is done
+     * @see Repo#copy(Path, Path)
+     */
+    public Future<Void> copy(final Path from, final Path to, Callback<Void> callback) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ZboxException {
+                repo.copy(from, to);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously remove a regular file.
+     *
+     * @param path     absolute path of the regular file to be removed
+     * @param callback callback called when the file is removed, can be {@code null}
+     * @return a future completes when the file is removed
+     * @see Repo#removeFile(Path)
+     */
+    public Future<Void> removeFile(final Path path, Callback<Void> callback) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ZboxException {
+                repo.removeFile(path);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously remove an empty directory.
+     *
+     * @param path     absolute path of the directory to be removed
+     * @param callback callback called when the directory is removed, can be {@code null}
+     * @return a future completes when the directory is removed
+     * @see Repo#removeDir(Path)
+     */
+    public Future<Void> removeDir(final Path path, Callback<Void> callback) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ZboxException {
+                repo.removeDir(path);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Asynchronously remove a directory after removing all its children.
+     *
+     * @param path     absolute path of the directory to be removed
+     * @param callback callback called when the directory is removed, can be {@code null}
+     * @return a future completes when the directory is removed
+     * @see Repo#removeDirAll(Path)
+     */
+    public Future<Void> removeDirAll(final Path path, Callback<Void> callback) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws ZboxException {
+                repo.removeDirAll(path);
+                return null;
+            }
+        }, callback);
+    }
+
+    private <T> Future<T> submit(Callable<T> op, Callback<T> callback) {
+        return executor.submit(op, priority, callback);
+    }
+
+    private AsyncFile wrap(File file) {
+        return new AsyncFile(file, executor, priority);
+    }
+}
@@ -0,0 +1,283 @@
+package io.zbox.zboxfs;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of decrypted file content blocks.
+ *
+ * <p>When enabled, reads through {@link File#read(ByteBuffer)}, {@link File#read(byte[])},
+ * {@link File#pread(ByteBuffer, long)} and {@link VersionReader#read(ByteBuffer)} are served in
+ * blocks of {@link #BLOCK_SIZE} bytes from this cache. A block is only read and decrypted once
+ * and then kept in off-heap memory until it is evicted, so repeated reads of the same regions
+ * don't decrypt again.</p>
+ *
+ * <p>Blocks are keyed by repository, file path, content version and block offset. Blocks of a
+ * file are invalidated when a new version of it is committed through {@link File#finish()},
+ * {@link File#writeOnce(ByteBuffer)} or {@link File#setLen(long)}, or when it is removed,
+ * renamed or overwritten by copy through its {@link Repo}. When the cache is full, the least
+ * recently used blocks are evicted.</p>
+ *
+ * <p>The cache is disabled by default. Use {@link #setCapacity(long)} to enable it.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * // use up to 32 MiB for cached blocks
+ * BlockCache.setCapacity(32 * 1024 * 1024);
+ * </pre></blockquote>
+ *
+ * <p>Reads through the cache on a {@code File} always see the latest content version, the same
+ * as reads without the cache. Blocks of a {@code File} read are keyed and loaded by the version
+ * current at the time of the read.</p>
+ *
+ * @author Bo Lu
+ */
+public final class BlockCache {
+
+    /**
+     * Size of each cached block, 64 KiB.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final Object lock = new Object();
+
+    // cached blocks in access order, guarded by lock
+    private static final LinkedHashMap<Key, ByteBuffer> blocks =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    // block keys of each file, guarded by lock
+    private static final Map<String, Set<Key>> files = new HashMap<>();
+
+    // capacity in bytes, only changed with lock held
+    private static volatile long capacity = 0;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // key of a cached block
+    static final class Key {
+        final String file;
+        final long version;
+        final long block;
+
+        Key(String file, long version, long block) {
+            this.file = file;
+            this.version = version;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return block == other.block && version == other.version && file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            int ret = file.hashCode();
+            ret = 31 * ret + (int) (version ^ (version >>> 32));
+            return 31 * ret + (int) (block ^ (block >>> 32));
+        }
+    }
+
+    /**
+     * Reads content of a block from file on cache miss.
+     */
+    interface Loader {
+        /**
+         * Fill {@code dst} with content starting at {@code offset}, returning how many bytes were
+         * read, which is less than the buffer capacity only if end of content is reached.
+         */
+        int load(ByteBuffer dst, long offset) throws ZboxException;
+    }
+
+    private BlockCache() {
+    }
+
+    /**
+     * Set cache capacity in bytes.
+     *
+     * <p>Setting capacity to {@code 0} disables the cache and releases all cached blocks. If the
+     * new capacity is smaller than currently cached size, least recently used blocks are evicted.
+     * </p>
+     *
+     * @param bytes cache capacity in bytes, must not be negative
+     */
+    public static void setCapacity(long bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("Negative capacity");
+        synchronized (lock) {
+            capacity = bytes;
+            evict();
+        }
+    }
+
+    /**
+     * Get cache capacity in bytes.
+     *
+     * @return cache capacity in bytes, {@code 0} if cache is disabled
+     */
+    public static long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Get number of bytes used by cached blocks.
+     *
+     * @return number of bytes used by cached blocks
+     */
+    public static long size() {
+        synchronized (lock) {
+            return (long) blocks.size() * BLOCK_SIZE;
+        }
+    }
+
+    /**
+     * Get number of block reads served by cache.
+     *
+     * @return number of cache hits
+     */
+    public static long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get number of block reads which had to read and decrypt the block from file.
+     *
+     * @return number of cache misses
+     */
+    public static long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all cached blocks.
+     */
+    public static void clear() {
+        synchronized (lock) {
+            blocks.clear();
+            files.clear();
+        }
+    }
+
+    static boolean isEnabled() {
+        return capacity >= BLOCK_SIZE;
+    }
+
+    // read content starting at pos into dst through cache, returning number of bytes read
+    static int read(String file, long version, long pos, ByteBuffer dst, Loader loader)
+            throws ZboxException {
+        int total = 0;
+
+        while (dst.hasRemaining()) {
+            long offset = pos + total;
+            long blkIdx = offset / BLOCK_SIZE;
+            int inBlk = (int) (offset % BLOCK_SIZE);
+
+            ByteBuffer blk = get(new Key(file, version, blkIdx), loader);
+            if (inBlk >= blk.limit()) break;
+
+            int len = Math.min(blk.limit() - inBlk, dst.remaining());
+            ByteBuffer src = blk.duplicate();
+            src.position(inBlk);
+            src.limit(inBlk + len);
+            dst.put(src);
+            total += len;
+
+            // reached end of content
+            if (blk.limit() < BLOCK_SIZE && inBlk + len >= blk.limit()) break;
+        }
+
+        return total;
+    }
+
+    // invalidate cached blocks of a file
+    static void invalidate(String file) {
+        synchronized (lock) {
+            removeFile(file);
+        }
+    }
+
+    // invalidate cached blocks of a file or all files under a directory
+    static void invalidateTree(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (lock) {
+            removeFile(path);
+            Iterator<Map.Entry<String, Set<Key>>> it = files.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Set<Key>> ent = it.next();
+                if (ent.getKey().startsWith(prefix)) {
+                    for (Key key : ent.getValue()) {
+                        blocks.remove(key);
+                    }
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer get(Key key, Loader loader) throws ZboxException {
+        synchronized (lock) {
+            ByteBuffer blk = blocks.get(key);
+            if (blk != null) {
+                hits.incrementAndGet();
+                return blk;
+            }
+        }
+
+        // load block outside lock, concurrent loads of the same block may happen but they
+        // produce the same content
+        misses.incrementAndGet();
+        ByteBuffer blk = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        int len = loader.load(blk, key.block * BLOCK_SIZE);
+        blk.clear();
+        blk.limit(len);
+        ByteBuffer ret = blk.asReadOnlyBuffer();
+
+        synchronized (lock) {
+            if (isEnabled()) {
+                blocks.put(key, ret);
+                Set<Key> keys = files.get(key.file);
+                if (keys == null) {
+                    keys = new HashSet<>();
+                    files.put(key.file, keys);
+                }
+                keys.add(key);
+                evict();
+            }
+        }
+
+        return ret;
+    }
+
+    // must be called with lock held
+    private static void removeFile(String file) {
+        Set<Key> keys = files.remove(file);
+        if (keys == null) return;
+        for (Key key : keys) {
+            blocks.remove(key);
+        }
+    }
+
+    // evict least recently used blocks until size is within capacity, must be called with lock
+    // held
+    private static void evict() {
+        Iterator<Map.Entry<Key, ByteBuffer>> it = blocks.entrySet().iterator();
+        while ((long) blocks.size() * BLOCK_SIZE > capacity && it.hasNext()) {
+            Key key = it.next().getKey();
+            it.remove();
+            Set<Key> keys = files.get(key.file);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) files.remove(key.file);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package io.zbox.zboxfs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pool of direct byte buffers.
+ *
+ * <p>Native calls can only access direct buffers, so content in heap buffers has to be copied
+ * through a direct buffer. Instead of allocating a new one on each call, a buffer is leased from
+ * this pool and returned after use.</p>
+ *
+ * <p>Buffers are grouped into power-of-two size classes from 4 KiB to 1 MiB. Each thread caches
+ * one free buffer for each of the smaller classes, so a thread doing repeated I/O mostly hits
+ * its own cache without contention. Other free buffers are kept in shared free lists, which are
+ * bounded in size. Requests larger than the largest class are allocated and dropped directly.</p>
+ *
+ * @author Bo Lu
+ */
+final class BufferPool {
+
+    // size classes, from 4 KiB to 1 MiB
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 20;
+    private static final int CLASS_CNT = MAX_SHIFT - MIN_SHIFT + 1;
+
+    // largest size class cached per thread, 64 KiB
+    private static final int MAX_LOCAL_SHIFT = 16;
+
+    // max bytes kept in the shared free list of each size class
+    private static final int MAX_SHARED_BYTES = 4 * 1024 * 1024;
+
+    private static final FreeList[] shared = new FreeList[CLASS_CNT];
+
+    private static final ThreadLocal<ByteBuffer[]> local = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[MAX_LOCAL_SHIFT - MIN_SHIFT + 1];
+        }
+    };
+
+    // pool statistics
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong outstanding = new AtomicLong();
+
+    static {
+        for (int i = 0; i < CLASS_CNT; i++) {
+            shared[i] = new FreeList(MAX_SHARED_BYTES >> (MIN_SHIFT + i));
+        }
+    }
+
+    // bounded free list of one size class
+    private static final class FreeList {
+        private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final int max;
+
+        FreeList(int max) {
+            this.max = max;
+        }
+
+        ByteBuffer poll() {
+            ByteBuffer buf = queue.poll();
+            if (buf != null) size.decrementAndGet();
+            return buf;
+        }
+
+        boolean offer(ByteBuffer buf) {
+            if (size.incrementAndGet() > max) {
+                size.decrementAndGet();
+                return false;
+            }
+            queue.offer(buf);
+            return true;
+        }
+    }
+
+    /**
+     * A direct buffer leased from the pool, it must be closed to give the buffer back.
+     */
+    static final class Lease implements AutoCloseable {
+        // the pooled buffer, null if not owned by the pool
+        private ByteBuffer pooled;
+
+        // the part of pooled buffer exposed to user
+        private final ByteBuffer view;
+
+        private Lease(ByteBuffer pooled, ByteBuffer view) {
+            this.pooled = pooled;
+            this.view = view;
+        }
+
+        /**
+         * Returns the leased buffer, its capacity is the requested size.
+         */
+        ByteBuffer buffer() {
+            return view;
+        }
+
+        /**
+         * Gives the buffer back to the pool, the buffer must not be used afterwards.
+         */
+        @Override
+        public void close() {
+            if (pooled != null) {
+                release(pooled);
+                pooled = null;
+            }
+        }
+    }
+
+    private BufferPool() {
+    }
+
+    /**
+     * Lease a direct buffer which has at least {@code size} bytes.
+     */
+    static Lease lease(int size) {
+        ByteBuffer buf = acquire(size);
+        outstanding.addAndGet(buf.capacity());
+        buf.clear();
+        buf.limit(size);
+        return new Lease(buf, buf.slice());
+    }
+
+    /**
+     * Wrap a buffer which is already direct, it is not owned by the pool.
+     */
+    static Lease wrap(ByteBuffer buf) {
+        return new Lease(null, buf);
+    }
+
+    static long hitCount() {
+        return hits.get();
+    }
+
+    static long missCount() {
+        return misses.get();
+    }
+
+    static long outstandingBytes() {
+        return outstanding.get();
+    }
+
+    // size class index of a given size, or -1 if it is too large to be pooled
+    private static int sizeClass(int size) {
+        if (size <= 1 << MIN_SHIFT) return 0;
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    private static ByteBuffer acquire(int size) {
+        int cls = sizeClass(size);
+        if (cls < 0) {
+            misses.incrementAndGet();
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        ByteBuffer buf = null;
+        if (cls + MIN_SHIFT <= MAX_LOCAL_SHIFT) {
+            ByteBuffer[] cache = local.get();
+            buf = cache[cls];
+            cache[cls] = null;
+        }
+        if (buf == null) {
+            buf = shared[cls].poll();
+        }
+
+        if (buf != null) {
+            hits.incrementAndGet();
+            return buf;
+        }
+
+        misses.incrementAndGet();
+        return ByteBuffer.allocateDirect(1 << (cls + MIN_SHIFT));
+    }
+
+    private static void release(ByteBuffer buf) {
+        int cap = buf.capacity();
+        outstanding.addAndGet(-cap);
+
+        // only buffers of exact class size are pooled
+        int cls = sizeClass(cap);
+        if (cls < 0 || cap != 1 << (cls + MIN_SHIFT)) return;
+
+        if (cls + MIN_SHIFT <= MAX_LOCAL_SHIFT) {
+            ByteBuffer[] cache = local.get();
+            if (cache[cls] == null) {
+                cache[cls] = buf;
+                return;
+            }
+        }
+        shared[cls].offer(buf);
+    }
+}
@@ -0,0 +1,46 @@
+package io.zbox.zboxfs;
+
+/**
+ * Callback which receives the result of an asynchronous operation.
+ *
+ * <p>Callback methods are called on the executor thread which ran the operation, so they should
+ * return quickly, for example by posting the result to another thread. Neither method is called
+ * if the operation is cancelled.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * asyncRepo.readDir(new Path("/"), new Callback&lt;DirEntry[]&gt;() {
+ *     &#64;Override
+ *     public void onSuccess(DirEntry[] result) {
+ *         handler.post(...);
+ *     }
+ *
+ *     &#64;Override
+ *     public void onFailure(ZboxException err) {
+ *         Log.e(TAG, err.toString());
+ *     }
+ * });
+ * </pre></blockquote>
+ *
+ * @param <T> type of the operation result
+ * @author Bo Lu
+ * @see AsyncRepo
+ * @see AsyncFile
+ */
+public interface Callback<T> {
+
+    /**
+     * Called when the operation completes successfully.
+     *
+     * @param result the operation result, {@code null} for operations without result
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called when the operation fails.
+     *
+     * @param err the error happened
+     */
+    void onFailure(ZboxException err);
+}
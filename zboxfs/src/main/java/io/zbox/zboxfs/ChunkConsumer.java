@@ -0,0 +1,43 @@
+package io.zbox.zboxfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Callback which receives file content chunk by chunk.
+ *
+ * <p>It is used by {@link File#readChunks(int, ChunkConsumer)} and
+ * {@link VersionReader#readChunks(int, ChunkConsumer)} to stream content of any size through a
+ * single reused buffer.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * long total = file.readChunks(File.DEFAULT_CHUNK_SIZE, new ChunkConsumer() {
+ *     &#64;Override
+ *     public void accept(ByteBuffer chunk, long offset) throws IOException {
+ *         channel.write(chunk);
+ *     }
+ * });
+ * </pre></blockquote>
+ *
+ * @author Bo Lu
+ * @see File#readChunks(int, ChunkConsumer)
+ * @see VersionReader#readChunks(int, ChunkConsumer)
+ */
+public interface ChunkConsumer {
+
+    /**
+     * Accept a chunk of content.
+     *
+     * <p>The chunk is a read-only buffer whose remaining bytes are the content. All chunks are
+     * full sized except the last one. The buffer is reused for the next chunk, so it must not be
+     * kept after this method returns.</p>
+     *
+     * @param chunk  the buffer holds the chunk content
+     * @param offset offset of this chunk, relative to where reading started
+     * @throws IOException if the chunk cannot be consumed, reading stops with a
+     *                     {@link ZboxException}
+     */
+    void accept(ByteBuffer chunk, long offset) throws IOException;
+}
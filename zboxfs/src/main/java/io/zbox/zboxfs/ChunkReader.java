@@ -0,0 +1,58 @@
+package io.zbox.zboxfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Chunked content reading shared by {@link File#readChunks(int, ChunkConsumer)} and
+ * {@link VersionReader#readChunks(int, ChunkConsumer)}.
+ */
+final class ChunkReader {
+
+    // where content is read from
+    interface Source {
+        // read into dst, returning how many bytes were read, 0 means end of content
+        long read(ByteBuffer dst) throws ZboxException;
+    }
+
+    private ChunkReader() {
+    }
+
+    // read source until end through a pooled buffer of chunkSize bytes, returning how many bytes
+    // were read
+    static long readChunks(Source src, int chunkSize, ChunkConsumer consumer)
+            throws ZboxException {
+        if (chunkSize <= 0) throw new ZboxException("Invalid chunk size");
+
+        long total = 0;
+
+        try (BufferPool.Lease lease = BufferPool.lease(chunkSize)) {
+            ByteBuffer buf = lease.buffer();
+            ByteBuffer chunk = buf.asReadOnlyBuffer();
+
+            while (true) {
+                // fill up the whole chunk unless end is reached
+                int len = 0;
+                while (len < chunkSize) {
+                    buf.clear();
+                    buf.position(len);
+                    long read = src.read(buf.slice());
+                    if (read == 0) break;
+                    len += (int) read;
+                }
+                if (len == 0) break;
+
+                chunk.clear();
+                chunk.limit(len);
+                consumer.accept(chunk, total);
+                total += len;
+
+                if (len < chunkSize) break;
+            }
+        } catch (IOException err) {
+            throw new ZboxException(err.toString());
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,231 @@
+package io.zbox.zboxfs;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Entries returned by the {@link Repo#readDirPacked(Path)} function.
+ *
+ * <p>An instance of {@code DirEntries} holds all the entries of a directory in a few packed
+ * primitive arrays, which are filled in a single native call. Each entry is accessed by its index,
+ * from {@code 0} to {@code size() - 1}, using the cheap accessors provided by this class.</p>
+ *
+ * <p>Unlike {@link Repo#readDir(Path)}, no {@link DirEntry}, {@link Path} or {@link Metadata}
+ * objects are created until they are explicitly asked for by {@link #get(int)},
+ * {@link #path(int)} or {@link #metadata(int)}. This makes listing large directories much
+ * cheaper.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * DirEntries ents = repo.readDirPacked(new Path("/foo"));
+ *
+ * for (int i = 0; i &lt; ents.size(); i++) {
+ *     if (ents.isFile(i) &amp;&amp; ents.contentLen(i) &gt; 1024) {
+ *         System.out.println(ents.fileName(i));
+ *     }
+ * }
+ * </pre></blockquote>
+ *
+ * @author Bo Lu
+ * @see Repo#readDirPacked(Path)
+ * @see DirEntry
+ */
+public class DirEntries {
+
+    // number of long values stored for each entry
+    private static final int LONGS_PER_ENTRY = 3;
+
+    // the directory these entries belong to
+    private final Path dir;
+
+    // content length, creation time and modification time of each entry, these fields are set
+    // on the native side
+    private long[] longs = new long[0];
+
+    // current version number of each entry
+    private int[] versions = new int[0];
+
+    // file type of each entry, see FileType.getValue()
+    private byte[] types = new byte[0];
+
+    // UTF-8 encoded file names of all entries concatenated together
+    private byte[] names = new byte[0];
+
+    // start offset of each entry's name in names, plus the end offset of the last one
+    private int[] nameOffsets = {0};
+
+    DirEntries(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the directory path these entries belong to.
+     *
+     * @return the directory path
+     */
+    public Path dir() {
+        return dir;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return types.length;
+    }
+
+    /**
+     * Returns {@code true} if there is no entry.
+     *
+     * @return {@code true} if there is no entry, {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return types.length == 0;
+    }
+
+    /**
+     * Returns the bare file name of the entry at specified index.
+     *
+     * @param index index of the entry
+     * @return file name of the entry
+     */
+    public String fileName(int index) {
+        int start = nameOffsets[index];
+        return new String(names, start, nameOffsets[index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the file type of the entry at specified index.
+     *
+     * @param index index of the entry
+     * @return file type of the entry
+     */
+    public FileType fileType(int index) {
+        return types[index] == FileType.DIR.getValue() ? FileType.DIR : FileType.FILE;
+    }
+
+    /**
+     * Returns if the entry at specified index is a directory.
+     *
+     * @param index index of the entry
+     * @return true if the entry is a directory, false otherwise
+     */
+    public boolean isDir(int index) {
+        return types[index] == FileType.DIR.getValue();
+    }
+
+    /**
+     * Returns if the entry at specified index is a regular file.
+     *
+     * @param index index of the entry
+     * @return true if the entry is a regular file, false otherwise
+     */
+    public boolean isFile(int index) {
+        return types[index] == FileType.FILE.getValue();
+    }
+
+    /**
+     * Returns the content length of the entry at specified index, in bytes.
+     *
+     * @param index index of the entry
+     * @return content length of the entry
+     */
+    public long contentLen(int index) {
+        return longs[index * LONGS_PER_ENTRY];
+    }
+
+    /**
+     * Returns the creation time of the entry at specified index, in seconds from UNIX EPOCH time.
+     *
+     * @param index index of the entry
+     * @return creation time of the entry
+     */
+    public long createdAt(int index) {
+        return longs[index * LONGS_PER_ENTRY + 1];
+    }
+
+    /**
+     * Returns the last modification time of the entry at specified index, in seconds from UNIX
+     * EPOCH time.
+     *
+     * @param index index of the entry
+     * @return last modification time of the entry
+     */
+    public long modifiedAt(int index) {
+        return longs[index * LONGS_PER_ENTRY + 2];
+    }
+
+    /**
+     * Returns the current version number of the entry at specified index.
+     *
+     * @param index index of the entry
+     * @return current version number of the entry
+     */
+    public int currVersion(int index) {
+        return versions[index];
+    }
+
+    /**
+     * Returns the full path of the entry at specified index.
+     *
+     * <p>A new {@link Path} instance is created on each call.</p>
+     *
+     * @param index index of the entry
+     * @return full path of the entry
+     */
+    public Path path(int index) {
+        return dir.join(fileName(index));
+    }
+
+    /**
+     * Returns the metadata of the entry at specified index.
+     *
+     * <p>A new {@link Metadata} instance is created on each call.</p>
+     *
+     * @param index index of the entry
+     * @return metadata of the entry
+     */
+    public Metadata metadata(int index) {
+        Metadata md = new Metadata();
+        md.fileType = fileType(index);
+        md.contentLen = contentLen(index);
+        md.currVersion = currVersion(index);
+        md.createdAt = createdAt(index);
+        md.modifiedAt = modifiedAt(index);
+        return md;
+    }
+
+    /**
+     * Returns the entry at specified index as a {@link DirEntry}.
+     *
+     * <p>A new {@link DirEntry} instance is created on each call.</p>
+     *
+     * @param index index of the entry
+     * @return the directory entry
+     */
+    public DirEntry get(int index) {
+        DirEntry ent = new DirEntry();
+        ent.fileName = fileName(index);
+        ent.path = dir.join(ent.fileName);
+        ent.metadata = metadata(index);
+        return ent;
+    }
+
+    /**
+     * Returns all entries as an array of {@link DirEntry}.
+     *
+     * <p>This creates all the entry objects at once, it is equivalent to what
+     * {@link Repo#readDir(Path)} returns.</p>
+     *
+     * @return array of directory entries
+     */
+    public DirEntry[] toArray() {
+        DirEntry[] ret = new DirEntry[size()];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = get(i);
+        }
+        return ret;
+    }
+}
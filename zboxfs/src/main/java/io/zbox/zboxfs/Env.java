@@ -1,5 +1,8 @@
 package io.zbox.zboxfs;
 
+import io.zbox.zboxfs.transport.Transport;
+import io.zbox.zboxfs.transport.Transports;
+
 /**
  * This class is to initialise ZboxFS environment.
  *
@@ -49,11 +52,27 @@ public final class Env {
      *                 {@code LOG_WARN} is default.
      */
     public static void init(String logLevel) {
+        init(logLevel, null);
+    }
+
+    /**
+     * Initialise ZboxFS environment with log level and the transport used by remote repos.
+     *
+     * <p>This method is the same as {@link #init(String)}, except that requests to remote storage
+     * of {@code "zbox://"} repos are sent by the specified transport.</p>
+     *
+     * @param logLevel  Log output level, see {@link #init(String)}
+     * @param transport the transport used by remote repos, {@code null} to keep the current
+     *                  transport
+     * @see Transport
+     */
+    public static void init(String logLevel, Transport transport) {
         String lvl = logLevel == null ? LOG_WARN : logLevel;
         if (!(lvl.equals(LOG_ERROR) || lvl.equals(LOG_WARN) || lvl.equals(LOG_INFO)
                 || lvl.equals(LOG_DEBUG) || lvl.equals(LOG_TRACE))) {
             throw new IllegalArgumentException();
         }
+        if (transport != null) Transports.set(transport);
         initEnv(lvl);
     }
 
@@ -66,6 +85,54 @@ public final class Env {
      */
     public static native String version();
 
+    /**
+     * Get the number of ZboxFS objects which were not closed explicitly and have been released
+     * automatically after they became unreachable.
+     *
+     * <p>Objects such as {@link Repo}, {@link File} and {@link VersionReader} should always be
+     * closed after use. A growing number returned by this method indicates some of them are
+     * leaked and only released by garbage collection.</p>
+     *
+     * @return number of objects released automatically
+     */
+    public static long reclaimedCount() {
+        return Reaper.reclaimedCount();
+    }
+
+    /**
+     * Get the number of times a direct buffer was leased from the shared buffer pool without new
+     * allocation.
+     *
+     * <p>Direct buffers are used internally to pass heap {@link java.nio.ByteBuffer} content to
+     * and from native code.</p>
+     *
+     * @return number of buffer pool hits
+     * @see #bufferPoolMisses()
+     */
+    public static long bufferPoolHits() {
+        return BufferPool.hitCount();
+    }
+
+    /**
+     * Get the number of times a new direct buffer had to be allocated by the shared buffer pool.
+     *
+     * @return number of buffer pool misses
+     * @see #bufferPoolHits()
+     */
+    public static long bufferPoolMisses() {
+        return BufferPool.missCount();
+    }
+
+    /**
+     * Get the total capacity of direct buffers currently leased from the shared buffer pool, in
+     * bytes.
+     *
+     * @return number of bytes currently leased
+     */
+    public static long bufferPoolOutstandingBytes() {
+        return BufferPool.outstandingBytes();
+    }
+
     static native void initEnv(String logLevel);
 
     static {
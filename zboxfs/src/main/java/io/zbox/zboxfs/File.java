@@ -6,6 +6,8 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A reference to an opened file in the repository.
@@ -145,17 +147,106 @@ public class File extends RustObject {
 
     private static final int rustObjId = 103;
 
-    // read buffer
-    private static final int READ_BUF_CAP = 8 * 1024;
-    private ByteBuffer readBuf = ByteBuffer.allocateDirect(READ_BUF_CAP);
+    /**
+     * Default chunk size used by {@link #readChunks(int, ChunkConsumer)}, 1 MiB.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    // max number of idle version readers kept for pread()
+    private static final int MAX_IDLE_PREADERS = 16;
+
+    // bumped whenever content is committed through any file handle or repo, pread() fetches the
+    // current version again only after it has changed
+    private static final AtomicLong commitStamp = new AtomicLong();
+
+    // idle version readers used by pread(), readers created before the latest content change are
+    // discarded by comparing generation
+    private final ConcurrentLinkedQueue<PReader> preaders = new ConcurrentLinkedQueue<>();
+    private final AtomicLong preadGen = new AtomicLong();
+
+    private static final class PReader {
+        final VersionReader rdr;
+        final long gen;
+        final long version;
+
+        PReader(VersionReader rdr, long gen, long version) {
+            this.rdr = rdr;
+            this.gen = gen;
+            this.version = version;
+        }
+    }
+
+    // current version used by pread() and the commit stamp it was fetched at
+    private static final class PVersion {
+        final long stamp;
+        final long version;
+
+        PVersion(long stamp, long version) {
+            this.stamp = stamp;
+            this.version = version;
+        }
+    }
+
+    private volatile PVersion preadVersion = null;
+
+    // key of this file in block cache, null if this file is not bound to the cache
+    private String cacheFile;
+
+    // true if there are uncommitted writes, cache is bypassed until they are committed
+    private boolean uncommitted = false;
+
+    // read-ahead settings, chunks is 0 if read-ahead is disabled
+    private int readAheadChunks = 0;
+    private int readAheadChunkSize = 0;
+
+    // background read-ahead of current version, lazily created when sequential read is detected
+    private ReadAhead readAhead = null;
+
+    // content version read-ahead streams
+    private long readAheadVersion = -1;
 
-    // write buffer, lazily allocated
-    private static final int WRITE_BUF_CAP = 8 * 1024;
-    private ByteBuffer writeBuf = null;
+    // position where last read ended, -1 if unknown
+    private long lastReadEnd = -1;
+
+    // read blocks of exactly the version they are keyed by on cache miss, through a version
+    // reader opened on first miss
+    private final class VersionLoader implements BlockCache.Loader, AutoCloseable {
+        final long version;
+        VersionReader rdr = null;
+
+        VersionLoader(long version) {
+            this.version = version;
+        }
+
+        @Override
+        public int load(ByteBuffer dst, long offset) throws ZboxException {
+            if (rdr == null) rdr = tracked(File.this.jniVersionReader(version));
+            rdr.seek(offset, SeekFrom.START);
+            int len = 0;
+            while (dst.hasRemaining()) {
+                long read = rdr.jniRead(dst.slice());
+                if (read == 0) break;
+                len += (int) read;
+                dst.position(len);
+            }
+            return len;
+        }
+
+        @Override
+        public void close() {
+            if (rdr != null) rdr.close();
+        }
+    }
 
     private File() {
     }
 
+    // bind this file to block cache using its key, called after file is opened
+    File bindCache(String key) throws ZboxException {
+        this.cacheFile = key;
+        return this;
+    }
+
     /**
      * Queries metadata about the file.
      *
@@ -198,7 +289,8 @@ public class File extends RustObject {
      * @throws ZboxException if any error happened
      */
     public VersionReader versionReader(long verNum) throws ZboxException {
-        return this.jniVersionReader(verNum);
+        VersionReader ret = tracked(this.jniVersionReader(verNum));
+        return cacheFile == null ? ret : ret.bindCache(cacheFile, verNum);
     }
 
     /**
@@ -214,6 +306,7 @@ public class File extends RustObject {
      */
     public void setLen(long len) throws ZboxException {
         this.jniSetLen(len);
+        this.committed();
     }
 
     /**
@@ -226,6 +319,8 @@ public class File extends RustObject {
      * <p>It is recommended to use a direct {@link java.nio.ByteBuffer} to avoid extra memory
      * allocation.</p>
      *
+     * <p>If {@link BlockCache} is enabled, content is read through the cache.</p>
+     *
      * @param dst the byte buffer into which bytes are to be written
      * @return number of bytes were read
      * @throws ZboxException if any error happened
@@ -235,17 +330,108 @@ public class File extends RustObject {
     public long read(ByteBuffer dst) throws ZboxException {
         checkNullParam(dst);
 
+        if (readAheadChunks > 0 && !uncommitted) {
+            return this.readSequential(dst);
+        }
+        if (this.useCache()) {
+            return this.readCached(dst);
+        }
+
         if (dst.isDirect()) {
             long ret = this.jniRead(dst.slice());
             dst.position(dst.position() + (int) ret);
             return ret;
         }
 
-        ByteBuffer cloned = ByteBuffer.allocateDirect(dst.remaining());
-        long ret = this.jniRead(cloned);
-        cloned.limit((int) ret);
-        dst.put(cloned);
-        return ret;
+        try (BufferPool.Lease lease = BufferPool.lease(dst.remaining())) {
+            ByteBuffer buf = lease.buffer();
+            long ret = this.jniRead(buf);
+            buf.limit((int) ret);
+            dst.put(buf);
+            return ret;
+        }
+    }
+
+    /**
+     * Enable or disable background read-ahead for sequential reads.
+     *
+     * <p>When enabled, after two consecutive reads through {@link #read(ByteBuffer)} or
+     * {@link #read(byte[], int, int)} at adjacent positions, the following content is read and
+     * decrypted in background into a ring of {@code chunks} direct buffers of {@code chunkSize}
+     * bytes each, so reading from storage and decryption overlap with the caller consuming the
+     * content. Read-ahead is stopped by {@link #seek(long, SeekFrom)} and restarted once
+     * sequential reading resumes.</p>
+     *
+     * <p>Read-ahead always streams the latest content version, it is restarted if a new version
+     * is committed, either through this file or through another handle. Read-ahead is bypassed
+     * while this file has uncommitted writes.</p>
+     *
+     * @param chunks    number of chunks to read ahead, {@code 0} to disable read-ahead
+     * @param chunkSize size of each chunk in bytes, must be positive if read-ahead is enabled
+     * @throws ZboxException if any parameter is invalid
+     * @see FileInputStream#setReadAhead(int, int)
+     */
+    public void setReadAhead(int chunks, int chunkSize) throws ZboxException {
+        if (chunks < 0) throw new ZboxException("Invalid chunk number");
+        if (chunks > 0 && chunkSize <= 0) throw new ZboxException("Invalid chunk size");
+        this.closeReadAhead();
+        this.readAheadChunks = chunks;
+        this.readAheadChunkSize = chunkSize;
+    }
+
+    /**
+     * Pull some bytes from this file at the specified offset into the specified buffer, returning
+     * how many bytes were read.
+     *
+     * <p>Unlike {@link #read(ByteBuffer)}, this method doesn't use or change the cursor of this
+     * file. Multiple threads can call this method on the same file concurrently to read different
+     * ranges, those reads run in parallel.</p>
+     *
+     * <p>The read is done by one of the {@link VersionReader}s kept internally for the current
+     * file version, a new one is created if all of them are in use. Content written to this file
+     * is visible to {@code pread} once it is committed by {@link #finish()} or
+     * {@link #writeOnce(ByteBuffer)}, either through this file or through another handle of the
+     * same file opened in this process.</p>
+     *
+     * <p>The current version is cached between commits, so {@code pread} doesn't wait for a
+     * {@link #read(ByteBuffer)} or {@link #seek(long, SeekFrom)} in progress on this file, except
+     * on the first call after a commit or when a new reader has to be created.</p>
+     *
+     * @param dst    the byte buffer into which bytes are to be written
+     * @param offset the offset within this file at which reading starts; must be non-negative
+     * @return number of bytes were read, {@code 0} if {@code offset} is at or beyond end of file
+     * @throws ZboxException if any error happened
+     * @see #read(ByteBuffer)
+     */
+    public long pread(ByteBuffer dst, long offset) throws ZboxException {
+        checkNullParam(dst);
+        if (offset < 0) throw new ZboxException("Invalid negative offset");
+
+        long gen = preadGen.get();
+        PReader rdr;
+
+        // discard readers of old versions, including versions committed by other handles
+        long version = this.preadVersion();
+        while ((rdr = preaders.poll()) != null && (rdr.gen != gen || rdr.version != version)) {
+            rdr.rdr.close();
+        }
+        if (rdr == null) {
+            rdr = new PReader(this.versionReader(version), gen, version);
+        }
+
+        boolean reuse = false;
+        try {
+            rdr.rdr.seek(offset, SeekFrom.START);
+            long ret = rdr.rdr.read(dst);
+            reuse = true;
+            return ret;
+        } finally {
+            if (reuse && rdr.gen == preadGen.get() && preaders.size() < MAX_IDLE_PREADERS) {
+                preaders.offer(rdr);
+            } else {
+                rdr.rdr.close();
+            }
+        }
     }
 
     /**
@@ -255,8 +441,8 @@ public class File extends RustObject {
      * <p>This method copies {@code n} bytes from this file into the given destination array. If
      * there is no exception thrown, then it must be guaranteed that {@code 0 <= n <= len}.</p>
      *
-     * <p>It is recommended to make {@code len} less than 8KB (8192) to avoid extra memory
-     * allocation.</p>
+     * <p>Bytes are decrypted in chunks of up to 1 MiB into a reusable per-thread native buffer and
+     * copied into the array region, so no buffer is allocated regardless of {@code len}.</p>
      *
      * @param dst the array into which bytes are to be written
      * @param off the offset within the array of the first byte to be written; must be non-negative
@@ -267,24 +453,14 @@ public class File extends RustObject {
      * @throws ZboxException if any error happened
      */
     public int read(byte[] dst, int off, int len) throws ZboxException {
-        checkNullParam(dst);
-
-        ByteBuffer buf;
-
-        if (len > READ_BUF_CAP) {
-            buf = ByteBuffer.allocateDirect(len);
-        } else {
-            buf = this.readBuf.duplicate();
-            buf.clear();
-            buf.limit(len);
-            buf = buf.slice();
+        checkArrayRange(dst, off, len);
+        if (readAheadChunks > 0 && !uncommitted) {
+            return this.readSequential(ByteBuffer.wrap(dst, off, len));
         }
-
-        int ret = (int) this.jniRead(buf);
-        buf.limit(ret);
-        buf.get(dst, off, len > ret ? ret : len);
-
-        return ret;
+        if (this.useCache()) {
+            return this.readCached(ByteBuffer.wrap(dst, off, len));
+        }
+        return this.jniReadArray(dst, off, len);
     }
 
     /**
@@ -299,9 +475,6 @@ public class File extends RustObject {
      * file.read(dst, 0, dst.length)
      * </pre></blockquote>
      *
-     * <p>It is recommended to make {@code dst.length} less than 8KB (8192) to avoid extra memory
-     * allocation.</p>
-     *
      * @param dst the array into which bytes are to be written
      * @return number of bytes were read
      * @throws ZboxException if any error happened
@@ -342,10 +515,14 @@ public class File extends RustObject {
     /**
      * Read all bytes until end of the file, placing them into the returned buffer.
      *
+     * <p>The whole content is held in one direct buffer, so it cannot be larger than 2 GiB. Use
+     * {@link #readChunks(int, ChunkConsumer)} to read large content.</p>
+     *
      * @return the byte buffer holds all read bytes
      * @throws ZboxException if any error happened
      * @see #read(ByteBuffer)
      * @see #readAllString()
+     * @see #readChunks(int, ChunkConsumer)
      */
     public ByteBuffer readAll() throws ZboxException {
         ByteBuffer ret = this.jniReadAll();
@@ -366,6 +543,31 @@ public class File extends RustObject {
         return StandardCharsets.UTF_8.decode(buf).toString();
     }
 
+    /**
+     * Read all bytes until end of the file chunk by chunk, passing each chunk to the specified
+     * consumer, returning how many bytes were read.
+     *
+     * <p>Unlike {@link #readAll()}, content is read through a single buffer of
+     * {@code chunkSize} bytes which is reused for all chunks, so memory usage is bounded
+     * regardless of the content size, and content larger than 2 GiB can be read.</p>
+     *
+     * @param chunkSize size of each chunk in bytes, must be positive
+     * @param consumer  the consumer receives the chunks
+     * @return number of bytes were read
+     * @throws ZboxException if any error happened
+     * @see #DEFAULT_CHUNK_SIZE
+     * @see #readAll()
+     */
+    public long readChunks(int chunkSize, ChunkConsumer consumer) throws ZboxException {
+        checkNullParam(consumer);
+        return ChunkReader.readChunks(new ChunkReader.Source() {
+            @Override
+            public long read(ByteBuffer dst) throws ZboxException {
+                return jniRead(dst);
+            }
+        }, chunkSize, consumer);
+    }
+
     /**
      * Write a buffer into this file, returning how many bytes were written.
      *
@@ -376,8 +578,10 @@ public class File extends RustObject {
      */
     public long write(ByteBuffer buf) throws ZboxException {
         checkNullParam(buf);
-        ByteBuffer src = this.ensureDirectBuf(buf);
-        return this.jniWrite(src);
+        this.markUncommitted();
+        try (BufferPool.Lease src = leaseDirectBuf(buf)) {
+            return this.jniWrite(src.buffer());
+        }
     }
 
     /**
@@ -387,8 +591,8 @@ public class File extends RustObject {
      * <p>This method copies {@code n} bytes from the given source array into this file. If there is
      * no exception thrown, then it must be guaranteed that {@code 0 <= n <= len}.</p>
      *
-     * <p>It is recommended to make {@code len} less than 8KB (8192) to avoid extra memory
-     * allocation.</p>
+     * <p>Bytes are copied from the array region in chunks of up to 1 MiB into a reusable per-thread
+     * native buffer, so no buffer is allocated regardless of {@code len}.</p>
      *
      * @param src the source array from which bytes are to be read
      * @param off the offset within the array of the first byte to be read; must be non-negative
@@ -399,23 +603,9 @@ public class File extends RustObject {
      * @throws ZboxException if any error happened
      */
     public int write(byte[] src, int off, int len) throws ZboxException {
-        checkNullParam(src);
-
-        ByteBuffer buf;
-
-        if (len > WRITE_BUF_CAP) {
-            buf = ByteBuffer.allocateDirect(len);
-        } else {
-            if (this.writeBuf == null) this.writeBuf = ByteBuffer.allocateDirect(WRITE_BUF_CAP);
-
-            buf = this.writeBuf.duplicate();
-            buf.clear();
-            buf.limit(len);
-            buf = buf.slice();
-        }
-
-        buf.put(src, off, len);
-        return (int) this.jniWrite(buf);
+        checkArrayRange(src, off, len);
+        this.markUncommitted();
+        return this.jniWriteArray(src, off, len);
     }
 
     /**
@@ -430,9 +620,6 @@ public class File extends RustObject {
      * file.write(src, 0, src.length)
      * </pre></blockquote>
      *
-     * <p>It is recommended to make {@code src.length} less than 8KB (8192) to avoid extra memory
-     * allocation.</p>
-     *
      * @param src the source array from which bytes are to be read
      * @return number of bytes were written
      * @throws ZboxException if any error happened
@@ -449,6 +636,7 @@ public class File extends RustObject {
      */
     public void finish() throws ZboxException {
         this.jniFinish();
+        this.committed();
     }
 
     /**
@@ -468,8 +656,10 @@ public class File extends RustObject {
      */
     public void writeOnce(ByteBuffer buf) throws ZboxException {
         checkNullParam(buf);
-        ByteBuffer src = this.ensureDirectBuf(buf);
-        this.jniWriteOnce(src);
+        try (BufferPool.Lease src = leaseDirectBuf(buf)) {
+            this.jniWriteOnce(src.buffer());
+        }
+        this.committed();
     }
 
     /**
@@ -488,8 +678,10 @@ public class File extends RustObject {
         checkNullParam(buf);
         ByteBuffer bytes = ByteBuffer.wrap(buf);
         bytes.position(buf.length);
-        ByteBuffer src = this.ensureDirectBuf(bytes);
-        this.jniWriteOnce(src);
+        try (BufferPool.Lease src = leaseDirectBuf(bytes)) {
+            this.jniWriteOnce(src.buffer());
+        }
+        this.committed();
     }
 
     /**
@@ -510,6 +702,12 @@ public class File extends RustObject {
     /**
      * Single-part write to file using an input stream and create a new version.
      *
+     * <p>The stream is read in background into two pooled 1 MiB direct buffers, while the
+     * calling thread writes the previously read buffer into this file, so reading the source
+     * overlaps with encryption and storage. This method returns after all content is written and
+     * {@link #finish()} is called. If writing fails, it throws without waiting for a pending read
+     * of the stream to return.</p>
+     *
      * @param stream the source input stream from which bytes are to be read
      * @throws ZboxException if any error happened
      * @see #write(byte[])
@@ -518,18 +716,9 @@ public class File extends RustObject {
      */
     public void writeOnce(InputStream stream) throws ZboxException {
         checkNullParam(stream);
-
-        byte[] buf = new byte[4096];
-        int read;
-
-        try {
-            while((read = stream.read(buf)) > 0) {
-                this.write(buf, 0, read);
-            }
-        } catch (IOException err) {
-            throw new ZboxException(err.toString());
-        }
-
+        this.markUncommitted();
+        WritePipeline.copy(stream, this, WritePipeline.DEFAULT_BUF_SIZE,
+                WritePipeline.DEFAULT_BUF_COUNT);
         this.finish();
     }
 
@@ -550,9 +739,164 @@ public class File extends RustObject {
      */
     public long seek(long off, SeekFrom whence) throws ZboxException {
         checkNullParam(whence);
+        if (readAhead != null) readAhead.cancel();
+        lastReadEnd = -1;
         return this.jniSeek(off, whence.getValue());
     }
 
+    /**
+     * Closes this file and releases any resources associated with it.
+     */
+    @Override
+    public void close() {
+        this.closeReadAhead();
+        this.resetPReaders();
+        super.close();
+    }
+
+    // content is committed as a new version
+    private void committed() throws ZboxException {
+        contentCommitted();
+        this.resetPReaders();
+        this.closeReadAhead();
+        this.uncommitted = false;
+        if (cacheFile != null) {
+            BlockCache.invalidate(cacheFile);
+        }
+    }
+
+    // content is changed but not committed yet
+    void markUncommitted() {
+        this.uncommitted = true;
+    }
+
+    private boolean useCache() {
+        return cacheFile != null && !uncommitted && BlockCache.isEnabled();
+    }
+
+    // read at the cursor through block cache, and then advance the cursor
+    private int readCached(ByteBuffer dst) throws ZboxException {
+        long pos = this.jniSeek(0, SeekFrom.CURRENT.getValue());
+        int ret = this.readCachedAt(pos, dst);
+        this.jniSeek(pos + ret, SeekFrom.START.getValue());
+        return ret;
+    }
+
+    // read the latest version at pos through block cache. Blocks are keyed and loaded by the
+    // version current at read time, so reads always see the latest committed content.
+    private int readCachedAt(long pos, ByteBuffer dst) throws ZboxException {
+        int start = dst.position();
+        long version = this.jniCurrVersion();
+        try (VersionLoader loader = new VersionLoader(version)) {
+            return BlockCache.read(cacheFile, version, pos, dst, loader);
+        } catch (ZboxException err) {
+            // the version might be committed over and pruned by another handle, retry once with
+            // the new version
+            long newVersion = this.jniCurrVersion();
+            if (newVersion == version) throw err;
+            dst.position(start);
+            try (VersionLoader loader = new VersionLoader(newVersion)) {
+                return BlockCache.read(cacheFile, newVersion, pos, dst, loader);
+            }
+        }
+    }
+
+    // read at the cursor, through read-ahead if reads are sequential, and then advance the cursor
+    private int readSequential(ByteBuffer dst) throws ZboxException {
+        long pos = this.jniSeek(0, SeekFrom.CURRENT.getValue());
+        int ret;
+
+        // stream the latest version, restart the stream if a new version has been committed,
+        // possibly by another handle
+        ReadAhead stream = null;
+        if (pos == lastReadEnd) {
+            long version = this.jniCurrVersion();
+            if (readAhead != null && readAheadVersion != version) {
+                readAhead.close();
+                readAhead = null;
+            }
+            if (readAhead == null) {
+                try {
+                    VersionReader rdr = tracked(this.jniVersionReader(version));
+                    readAhead = new ReadAhead(rdr, readAheadChunks, readAheadChunkSize);
+                    readAheadVersion = version;
+                } catch (ZboxException ignored) {
+                    // version was pruned by a concurrent commit, read directly this time
+                }
+            }
+            stream = readAhead;
+        }
+
+        if (stream != null) {
+            ret = stream.read(pos, dst);
+        } else if (this.useCache()) {
+            ret = this.readCachedAt(pos, dst);
+        } else if (dst.isDirect()) {
+            ret = (int) this.jniRead(dst.slice());
+            dst.position(dst.position() + ret);
+        } else {
+            try (BufferPool.Lease lease = BufferPool.lease(dst.remaining())) {
+                ByteBuffer buf = lease.buffer();
+                ret = (int) this.jniRead(buf);
+                buf.limit(ret);
+                dst.put(buf);
+            }
+        }
+
+        lastReadEnd = pos + ret;
+        this.jniSeek(lastReadEnd, SeekFrom.START.getValue());
+        return ret;
+    }
+
+    private void closeReadAhead() {
+        if (readAhead != null) {
+            readAhead.close();
+            readAhead = null;
+        }
+        lastReadEnd = -1;
+    }
+
+    // discard idle readers used by pread() as file content has changed
+    // content of a file is committed, called by repo when it changes content without a handle
+    static void contentCommitted() {
+        commitStamp.incrementAndGet();
+    }
+
+    // current version for pread(), cached until content is committed so it doesn't wait for the
+    // file lock held by read() or seek()
+    private long preadVersion() throws ZboxException {
+        long stamp = commitStamp.get();
+        PVersion curr = preadVersion;
+        if (curr == null || curr.stamp != stamp) {
+            // stamp is taken before the version, a commit in between forces another fetch
+            curr = new PVersion(stamp, this.currVersion());
+            preadVersion = curr;
+        }
+        return curr.version;
+    }
+
+    private void resetPReaders() {
+        preadGen.incrementAndGet();
+        PReader rdr;
+        while ((rdr = preaders.poll()) != null) {
+            rdr.rdr.close();
+        }
+    }
+
+    /**
+     * Returns a channel to read and write this file.
+     *
+     * <p>The channel shares the cursor with this file, so reading or writing through the channel
+     * advances the position of this file as well. Positional read and write provided by the
+     * channel do not change the cursor.</p>
+     *
+     * @return a new channel of this file
+     * @see FileChannel
+     */
+    public FileChannel channel() {
+        return new FileChannel(this);
+    }
+
     // jni methods
     private native Metadata jniMetadata() throws ZboxException;
 
@@ -568,11 +912,23 @@ public class File extends RustObject {
 
     private native void jniSetLen(long len) throws ZboxException;
 
-    private native long jniRead(ByteBuffer dst) throws ZboxException;
+    native long jniRead(ByteBuffer dst) throws ZboxException;
+
+    private native int jniReadArray(byte[] dst, int off, int len) throws ZboxException;
 
     private native ByteBuffer jniReadAll() throws ZboxException;
 
-    private native long jniWrite(ByteBuffer buf) throws ZboxException;
+    native long jniWrite(ByteBuffer buf) throws ZboxException;
+
+    private native int jniWriteArray(byte[] src, int off, int len) throws ZboxException;
 
     private native long jniSeek(long offset, int whence) throws ZboxException;
+
+    native long jniReadAt(ByteBuffer dst, long pos) throws ZboxException;
+
+    native long jniWriteAt(ByteBuffer src, long pos) throws ZboxException;
+
+    native long jniReadv(ByteBuffer[] dsts) throws ZboxException;
+
+    native long jniWritev(ByteBuffer[] srcs) throws ZboxException;
 }
@@ -0,0 +1,546 @@
+package io.zbox.zboxfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * <p>A {@code FileChannel} reads and writes a {@link File} through the NIO channel interfaces.</p>
+ *
+ * <p>To obtain a {@code FileChannel} instance, use {@link File#channel()}.</p>
+ *
+ * <p>The channel has the same methods as {@code java.nio.channels.SeekableByteChannel}, which is
+ * only available since Android API level 24, and it also provides positional read and write,
+ * scattering read and gathering write, and transfer between channels similar to
+ * {@link java.nio.channels.FileChannel}. Each read, write, positional or scattering/gathering
+ * operation is done in a single native call. Direct buffers are accessed in place, content of
+ * heap buffers is copied through buffers leased from a shared pool.</p>
+ *
+ * <p>Like {@link File#write(ByteBuffer)}, written content is not committed until
+ * {@link #force()} or {@link #close()} is called, which finishes writing and creates a new file
+ * version. Closing the channel doesn't close the underlying file.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * File file = repo.openFile(new Path("/foo"));
+ * try (FileChannel ch = file.channel()) {
+ *     ch.transferTo(0, ch.size(), socketChannel);
+ * }
+ * file.close();
+ * </pre></blockquote>
+ *
+ * @see File#channel()
+ */
+public class FileChannel implements ByteChannel, GatheringByteChannel, ScatteringByteChannel {
+
+    // max size of buffer used to transfer between channels, 1 MiB
+    private static final int TRANSFER_BUF_SIZE = 1024 * 1024;
+
+    private final File file;
+    private boolean open = true;
+
+    // if there are uncommitted writes
+    private boolean dirty = false;
+
+    FileChannel(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Reads a sequence of bytes from this channel into the given buffer, starting at the current
+     * position of this channel.
+     *
+     * @param dst the buffer into which bytes are to be transferred
+     * @return number of bytes read, possibly zero, or {@code -1} if the channel has reached
+     *         end-of-stream
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return readAt(dst, -1);
+    }
+
+    /**
+     * Reads a sequence of bytes from this channel into the given buffer, starting at the given
+     * file position. This method does not modify the position of this channel.
+     *
+     * @param dst      the buffer into which bytes are to be transferred
+     * @param position the file position at which the transfer is to begin, must be non-negative
+     * @return number of bytes read, possibly zero, or {@code -1} if the given position is greater
+     *         than or equal to the file's current size
+     * @throws IOException if an I/O error occurs
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        checkPosition(position);
+        return readAt(dst, position);
+    }
+
+    /**
+     * Reads a sequence of bytes from this channel into the given buffers, starting at the current
+     * position of this channel.
+     *
+     * @param dsts the buffers into which bytes are to be transferred
+     * @return number of bytes read, possibly zero, or {@code -1} if the channel has reached
+     *         end-of-stream
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return read(dsts, 0, dsts.length);
+    }
+
+    /**
+     * Reads a sequence of bytes from this channel into a subsequence of the given buffers,
+     * starting at the current position of this channel.
+     *
+     * <p>Buffers are filled one after another in a single native call.</p>
+     *
+     * @param dsts   the buffers into which bytes are to be transferred
+     * @param offset the offset within the buffer array of the first buffer
+     * @param length the maximum number of buffers to be accessed
+     * @return number of bytes read, possibly zero, or {@code -1} if the channel has reached
+     *         end-of-stream
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        checkRange(dsts.length, offset, length);
+        ensureOpen();
+
+        ByteBuffer[] bufs = new ByteBuffer[length];
+        BufferPool.Lease[] leases = new BufferPool.Lease[length];
+        int cnt = 0;
+
+        try {
+            for (int i = 0; i < length; i++) {
+                ByteBuffer dst = dsts[offset + i];
+                if (!dst.hasRemaining()) continue;
+                if (dst.isDirect()) {
+                    bufs[cnt] = dst.slice();
+                } else {
+                    leases[cnt] = BufferPool.lease(dst.remaining());
+                    bufs[cnt] = leases[cnt].buffer();
+                }
+                cnt++;
+            }
+            if (cnt == 0) return 0;
+
+            long total = file.jniReadv(cnt == length ? bufs : copyOf(bufs, cnt));
+
+            // distribute read bytes to destination buffers in order
+            long left = total;
+            for (int i = 0, j = 0; i < length && left > 0; i++) {
+                ByteBuffer dst = dsts[offset + i];
+                if (!dst.hasRemaining()) continue;
+                int n = (int) Math.min(bufs[j].capacity(), left);
+                if (leases[j] != null) {
+                    ByteBuffer buf = bufs[j];
+                    buf.limit(n);
+                    dst.put(buf);
+                } else {
+                    dst.position(dst.position() + n);
+                }
+                left -= n;
+                j++;
+            }
+
+            return total == 0 ? -1 : total;
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        } finally {
+            for (int i = 0; i < cnt; i++) {
+                if (leases[i] != null) leases[i].close();
+            }
+        }
+    }
+
+    /**
+     * Writes a sequence of bytes to this channel from the given buffer, starting at the current
+     * position of this channel.
+     *
+     * @param src the buffer from which bytes are to be retrieved
+     * @return number of bytes written, possibly zero
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return writeAt(src, -1);
+    }
+
+    /**
+     * Writes a sequence of bytes to this channel from the given buffer, starting at the given
+     * file position. This method does not modify the position of this channel.
+     *
+     * @param src      the buffer from which bytes are to be transferred
+     * @param position the file position at which the transfer is to begin, must be non-negative
+     * @return number of bytes written, possibly zero
+     * @throws IOException if an I/O error occurs
+     */
+    public int write(ByteBuffer src, long position) throws IOException {
+        checkPosition(position);
+        return writeAt(src, position);
+    }
+
+    /**
+     * Writes a sequence of bytes to this channel from the given buffers, starting at the current
+     * position of this channel.
+     *
+     * @param srcs the buffers from which bytes are to be retrieved
+     * @return number of bytes written, possibly zero
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * Writes a sequence of bytes to this channel from a subsequence of the given buffers,
+     * starting at the current position of this channel.
+     *
+     * <p>All the buffers are written in a single native call.</p>
+     *
+     * @param srcs   the buffers from which bytes are to be retrieved
+     * @param offset the offset within the buffer array of the first buffer
+     * @param length the maximum number of buffers to be accessed
+     * @return number of bytes written, possibly zero
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        checkRange(srcs.length, offset, length);
+        ensureOpen();
+
+        ByteBuffer[] bufs = new ByteBuffer[length];
+        BufferPool.Lease[] leases = new BufferPool.Lease[length];
+        int cnt = 0;
+
+        try {
+            for (int i = 0; i < length; i++) {
+                ByteBuffer src = srcs[offset + i];
+                if (!src.hasRemaining()) continue;
+                if (src.isDirect()) {
+                    bufs[cnt] = src.slice();
+                } else {
+                    leases[cnt] = BufferPool.lease(src.remaining());
+                    bufs[cnt] = leases[cnt].buffer();
+                    bufs[cnt].put(src.duplicate());
+                }
+                cnt++;
+            }
+            if (cnt == 0) return 0;
+
+            long total = file.jniWritev(cnt == length ? bufs : copyOf(bufs, cnt));
+            dirty = true;
+            file.markUncommitted();
+
+            // all buffers are written completely
+            for (int i = 0; i < length; i++) {
+                ByteBuffer src = srcs[offset + i];
+                src.position(src.limit());
+            }
+
+            return total;
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        } finally {
+            for (int i = 0; i < cnt; i++) {
+                if (leases[i] != null) leases[i].close();
+            }
+        }
+    }
+
+    /**
+     * Returns this channel's position.
+     *
+     * @return this channel's position
+     * @throws IOException if an I/O error occurs
+     */
+    public long position() throws IOException {
+        ensureOpen();
+        try {
+            return file.seek(0, SeekFrom.CURRENT);
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+    }
+
+    /**
+     * Sets this channel's position.
+     *
+     * @param newPosition the new position, must be non-negative
+     * @return this channel
+     * @throws IOException if an I/O error occurs
+     */
+    public FileChannel position(long newPosition) throws IOException {
+        checkPosition(newPosition);
+        ensureOpen();
+        try {
+            file.seek(newPosition, SeekFrom.START);
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Returns the current size of the file, uncommitted writes are not included.
+     *
+     * @return the current size of the file, in bytes
+     * @throws IOException if an I/O error occurs
+     */
+    public long size() throws IOException {
+        ensureOpen();
+        try {
+            return file.metadata().contentLen;
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+    }
+
+    /**
+     * Truncates the file to the given size.
+     *
+     * <p>If the given size is less than the file's current size then the file is truncated,
+     * otherwise the file is not modified. If this channel's position is greater than the given
+     * size then it is set to that size.</p>
+     *
+     * @param size the new size, must be non-negative
+     * @return this channel
+     * @throws IOException if an I/O error occurs
+     */
+    public FileChannel truncate(long size) throws IOException {
+        checkPosition(size);
+        ensureOpen();
+        try {
+            if (size < file.metadata().contentLen) {
+                file.setLen(size);
+            }
+            if (file.seek(0, SeekFrom.CURRENT) > size) {
+                file.seek(size, SeekFrom.START);
+            }
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Transfers bytes from this channel's file to the given writable byte channel. This method
+     * does not modify the position of this channel.
+     *
+     * <p>Bytes are read in chunks of up to 1 MiB, each chunk is read in a single native call.</p>
+     *
+     * @param position the position within the file at which the transfer is to begin, must be
+     *                 non-negative
+     * @param count    the maximum number of bytes to be transferred, must be non-negative
+     * @param target   the target channel
+     * @return number of bytes actually transferred, possibly zero
+     * @throws IOException if an I/O error occurs
+     */
+    public long transferTo(long position, long count, WritableByteChannel target)
+            throws IOException {
+        checkPosition(position);
+        checkPosition(count);
+        ensureOpen();
+        if (count == 0) return 0;
+
+        long total = 0;
+        int size = (int) Math.min(count, TRANSFER_BUF_SIZE);
+
+        try (BufferPool.Lease lease = BufferPool.lease(size)) {
+            ByteBuffer buf = lease.buffer();
+
+            while (total < count) {
+                buf.clear();
+                buf.limit((int) Math.min(count - total, size));
+                long read = file.jniReadAt(buf.slice(), position + total);
+                if (read == 0) break;
+
+                buf.limit((int) read);
+                while (buf.hasRemaining()) {
+                    target.write(buf);
+                }
+                total += read;
+            }
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+
+        return total;
+    }
+
+    /**
+     * Transfers bytes into this channel's file from the given readable byte channel. This method
+     * does not modify the position of this channel.
+     *
+     * <p>Bytes are written in chunks of up to 1 MiB, each chunk is written in a single native
+     * call.</p>
+     *
+     * @param src      the source channel
+     * @param position the position within the file at which the transfer is to begin, must be
+     *                 non-negative
+     * @param count    the maximum number of bytes to be transferred, must be non-negative
+     * @return number of bytes actually transferred, possibly zero
+     * @throws IOException if an I/O error occurs
+     */
+    public long transferFrom(ReadableByteChannel src, long position, long count)
+            throws IOException {
+        checkPosition(position);
+        checkPosition(count);
+        ensureOpen();
+        if (count == 0) return 0;
+
+        long total = 0;
+        int size = (int) Math.min(count, TRANSFER_BUF_SIZE);
+
+        try (BufferPool.Lease lease = BufferPool.lease(size)) {
+            ByteBuffer buf = lease.buffer();
+
+            while (total < count) {
+                buf.clear();
+                buf.limit((int) Math.min(count - total, size));
+                if (src.read(buf) <= 0) break;
+
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    long written = file.jniWriteAt(buf.slice(), position + total);
+                    if (written == 0) throw new IOException("Failed to write file");
+                    dirty = true;
+                    file.markUncommitted();
+                    buf.position(buf.position() + (int) written);
+                    total += written;
+                }
+            }
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+
+        return total;
+    }
+
+    /**
+     * Commits written content to the file and creates a new file version, if there is any
+     * content written through this channel.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void force() throws IOException {
+        ensureOpen();
+        commit();
+    }
+
+    /**
+     * Tells whether or not this channel is open.
+     *
+     * @return {@code true} if, and only if, this channel is open
+     */
+    @Override
+    public boolean isOpen() {
+        return open && !file.isClosed();
+    }
+
+    /**
+     * Closes this channel, written content is committed to the file. The underlying file is not
+     * closed.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) return;
+        try {
+            if (!file.isClosed()) commit();
+        } finally {
+            open = false;
+        }
+    }
+
+    private int readAt(ByteBuffer dst, long position) throws IOException {
+        ensureOpen();
+
+        int len = dst.remaining();
+        if (len == 0) return 0;
+
+        long ret;
+        try {
+            if (dst.isDirect()) {
+                ret = readDirect(dst.slice(), position);
+                dst.position(dst.position() + (int) ret);
+            } else {
+                try (BufferPool.Lease lease = BufferPool.lease(len)) {
+                    ByteBuffer buf = lease.buffer();
+                    ret = readDirect(buf, position);
+                    buf.limit((int) ret);
+                    dst.put(buf);
+                }
+            }
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+
+        return ret == 0 ? -1 : (int) ret;
+    }
+
+    private long readDirect(ByteBuffer direct, long position) throws ZboxException {
+        return position < 0 ? file.jniRead(direct) : file.jniReadAt(direct, position);
+    }
+
+    private int writeAt(ByteBuffer src, long position) throws IOException {
+        ensureOpen();
+
+        int len = src.remaining();
+        if (len == 0) return 0;
+
+        long ret;
+        try (BufferPool.Lease lease = src.isDirect() ? BufferPool.wrap(src.slice())
+                : BufferPool.lease(len)) {
+            ByteBuffer buf = lease.buffer();
+            if (!src.isDirect()) buf.put(src.duplicate());
+            ret = position < 0 ? file.jniWrite(buf) : file.jniWriteAt(buf, position);
+            dirty = true;
+            file.markUncommitted();
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+
+        src.position(src.position() + (int) ret);
+        return (int) ret;
+    }
+
+    private void commit() throws IOException {
+        if (!dirty) return;
+        try {
+            file.finish();
+            dirty = false;
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!isOpen()) throw new ClosedChannelException();
+    }
+
+    private static void checkPosition(long position) {
+        if (position < 0) throw new IllegalArgumentException("Negative position or count");
+    }
+
+    private static void checkRange(int size, int offset, int length) {
+        if (offset < 0 || length < 0 || length > size - offset) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private static ByteBuffer[] copyOf(ByteBuffer[] bufs, int cnt) {
+        ByteBuffer[] ret = new ByteBuffer[cnt];
+        System.arraycopy(bufs, 0, ret, 0, cnt);
+        return ret;
+    }
+}
@@ -2,20 +2,82 @@ package io.zbox.zboxfs;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * <p>A {@code FileInputStream} obtains input bytes from a file in a ZboxFS file system.</p>
  *
  * <p>To obtain a {@code FileInputStream} instance, use
  * {@link io.zbox.zboxfs.Repo#openFileInputStream(Path)}.</p>
+ *
+ * <p>The stream reads ahead from the file into an internal window, which is 64 KiB by default.
+ * The window is a direct buffer leased from the shared buffer pool, so the file is decrypted
+ * into it without copy, and it is given back when the stream is closed. Single byte reads and
+ * small reads are served from the window without native calls, so the stream can be used by
+ * byte oriented parsers directly. Reads not smaller than the window bypass it and go to the file
+ * directly.</p>
+ *
+ * <p>For large sequential reads, background read-ahead of the file can be enabled by
+ * {@link #setReadAhead(int, int)}, so decryption of the following content overlaps with
+ * consuming the stream.</p>
+ *
+ * <p>This stream supports {@link #mark(int)} and {@link #reset()}. The read limit passed to
+ * {@code mark} is not enforced, the stream can always be reset to the marked position.</p>
  */
 public class FileInputStream extends InputStream {
 
+    /**
+     * Default read-ahead window size, 64 KiB.
+     */
+    public static final int DEFAULT_BUF_SIZE = 64 * 1024;
+
     private final File file;
-    private long read = 0;
+    private final int bufSize;
+
+    // read-ahead window, lazily leased from buffer pool, bytes are decrypted into it directly
+    private BufferPool.Lease lease = null;
+    private ByteBuffer buf = null;
+    private boolean closed = false;
+
+    // number of valid bytes and read position in window
+    private int count = 0;
+    private int pos = 0;
+
+    // file position of the first byte in window
+    private long bufStart = 0;
+
+    // marked stream position, -1 if not marked
+    private long markPos = -1;
+
+    // cached file content length, -1 if not fetched yet
+    private long contentLen = -1;
 
     FileInputStream(File file) {
+        this(file, DEFAULT_BUF_SIZE);
+    }
+
+    FileInputStream(File file, int bufSize) {
+        if (bufSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
         this.file = file;
+        this.bufSize = bufSize;
+    }
+
+    /**
+     * <p>Enable or disable background read-ahead of the underlying file.</p>
+     *
+     * @param chunks    number of chunks to read ahead, {@code 0} to disable read-ahead
+     * @param chunkSize size of each chunk in bytes, must be positive if read-ahead is enabled
+     * @throws IOException if any parameter is invalid
+     * @see File#setReadAhead(int, int)
+     */
+    public void setReadAhead(int chunks, int chunkSize) throws IOException {
+        try {
+            file.setReadAhead(chunks, chunkSize);
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
     }
 
     /**
@@ -23,21 +85,17 @@ public class FileInputStream extends InputStream {
      * from this input stream without blocking by the next invocation of a method for this input
      * stream.</p>
      *
+     * <p>The file content length is fetched only once and cached.</p>
+     *
      * @return an estimate of the number of bytes that can be read (or skipped over) from this input
      *         stream without blocking or 0 when it reaches the end of the input stream.
      * @throws IOException if an I/O error occurs.
      */
     @Override
     public int available() throws IOException {
-        Metadata md;
-
-        try {
-            md = file.metadata();
-        } catch (ZboxException err) {
-            throw new IOException(err.toString());
-        }
-
-        return (int)(md.contentLen - read);
+        long remaining = contentLen() - position();
+        if (remaining <= 0) return 0;
+        return remaining > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) remaining;
     }
 
     /**
@@ -45,6 +103,12 @@ public class FileInputStream extends InputStream {
      */
     @Override
     public void close() {
+        if (lease != null) {
+            lease.close();
+            lease = null;
+            buf = null;
+        }
+        closed = true;
         file.close();
     }
 
@@ -59,18 +123,11 @@ public class FileInputStream extends InputStream {
      */
     @Override
     public int read() throws IOException {
-        byte[] buf = new byte[1];
-        int read;
-
-        try {
-            read = file.read(buf);
-            this.read += read;
-            if (read == 0) read = -1;
-        } catch (ZboxException err) {
-            throw new IOException(err.toString());
+        if (pos >= count) {
+            fill();
+            if (pos >= count) return -1;
         }
-
-        return read;
+        return buf.get(pos++) & 0xff;
     }
 
     /**
@@ -104,17 +161,32 @@ public class FileInputStream extends InputStream {
      */
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int read;
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) return 0;
 
-        try {
-            read = file.read(b, off, len);
-            this.read += read;
-            if (read == 0 && len > 0) read = -1;
-        } catch (ZboxException err) {
-            throw new IOException(err.toString());
+        int avail = count - pos;
+        if (avail <= 0) {
+            // large read bypasses the window
+            if (len >= bufSize) {
+                bufStart += count;
+                count = pos = 0;
+                int read = readFile(b, off, len);
+                bufStart += read;
+                return read == 0 ? -1 : read;
+            }
+
+            fill();
+            avail = count - pos;
+            if (avail <= 0) return -1;
         }
 
-        return read;
+        int cnt = avail < len ? avail : len;
+        buf.position(pos);
+        buf.get(b, off, cnt);
+        pos += cnt;
+        return cnt;
     }
 
     /**
@@ -146,17 +218,7 @@ public class FileInputStream extends InputStream {
      */
     @Override
     public int read(byte[] b) throws IOException {
-        int read;
-
-        try {
-            read = file.read(b);
-            this.read += read;
-            if (read == 0 && b.length > 0) read = -1;
-        } catch (ZboxException err) {
-            throw new IOException(err.toString());
-        }
-
-        return read;
+        return read(b, 0, b.length);
     }
 
     /**
@@ -172,18 +234,113 @@ public class FileInputStream extends InputStream {
      */
     @Override
     public long skip(long n) throws IOException {
-        if (n < 0) return 0;
+        if (n <= 0) return 0;
+
+        int avail = count - pos;
+        if (n <= avail) {
+            pos += (int) n;
+            return n;
+        }
+
+        long curr = position();
+        long remaining = contentLen() - curr;
+        if (remaining <= 0) return 0;
+        long skipped = n < remaining ? n : remaining;
+        seekFile(curr + skipped);
+        return skipped;
+    }
 
-        long skipped;
+    /**
+     * <p>Tests if this input stream supports the {@code mark} and {@code reset} methods, which it
+     * does.</p>
+     *
+     * @return {@code true}
+     */
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
 
+    /**
+     * <p>Marks the current position in this input stream. A subsequent call to {@link #reset()}
+     * repositions this stream at the last marked position.</p>
+     *
+     * @param readlimit not used, this stream can be reset regardless of how many bytes are read
+     *                  after mark
+     */
+    @Override
+    public synchronized void mark(int readlimit) {
+        markPos = position();
+    }
+
+    /**
+     * <p>Repositions this stream to the position at the time {@link #mark(int)} was last called.
+     * </p>
+     *
+     * <p>If the marked position is still in the read-ahead window, no native call is made.</p>
+     *
+     * @throws IOException if the stream has not been marked or an I/O error occurs.
+     */
+    @Override
+    public synchronized void reset() throws IOException {
+        if (markPos < 0) throw new IOException("Resetting to invalid mark");
+
+        if (markPos >= bufStart && markPos <= bufStart + count) {
+            pos = (int) (markPos - bufStart);
+        } else {
+            seekFile(markPos);
+        }
+    }
+
+    // current stream position
+    private long position() {
+        return bufStart + pos;
+    }
+
+    private long contentLen() throws IOException {
+        if (contentLen < 0) {
+            try {
+                contentLen = file.metadata().contentLen;
+            } catch (ZboxException err) {
+                throw new IOException(err.toString());
+            }
+        }
+        return contentLen;
+    }
+
+    // refill window from file, window must be fully consumed
+    private void fill() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (lease == null) {
+            lease = BufferPool.lease(bufSize);
+            buf = lease.buffer();
+        }
+        bufStart += count;
+        count = pos = 0;
+        buf.clear();
+        try {
+            count = (int) file.read(buf);
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+    }
+
+    private int readFile(byte[] b, int off, int len) throws IOException {
         try {
-            long currPos = file.seek(0, SeekFrom.CURRENT);
-            long newPos = file.seek(n, SeekFrom.CURRENT);
-            skipped = newPos - currPos;
+            return file.read(b, off, len);
         } catch (ZboxException err) {
             throw new IOException(err.toString());
         }
+    }
 
-        return skipped;
+    // move file cursor and discard window
+    private void seekFile(long newPos) throws IOException {
+        try {
+            file.seek(newPos, SeekFrom.START);
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+        bufStart = newPos;
+        count = pos = 0;
     }
 }
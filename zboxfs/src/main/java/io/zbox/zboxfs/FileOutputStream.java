@@ -0,0 +1,163 @@
+package io.zbox.zboxfs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>A {@code FileOutputStream} writes output bytes to a file in a ZboxFS file system.</p>
+ *
+ * <p>To obtain a {@code FileOutputStream} instance, use
+ * {@link io.zbox.zboxfs.Repo#openFileOutputStream(Path, OpenOptions)}.</p>
+ *
+ * <p>Bytes written to this stream are collected in a direct buffer, which is 1 MiB by default,
+ * and written to the file in large chunks. Writing many small records therefore costs about one
+ * native call per buffer size. Writes larger than the buffer bypass it and go to the file
+ * directly.</p>
+ *
+ * <p>A new file version is created when this stream is closed, so the stream must always be
+ * closed, otherwise the written content will be lost.</p>
+ */
+public class FileOutputStream extends OutputStream {
+
+    /**
+     * Default buffer size, 1 MiB.
+     */
+    public static final int DEFAULT_BUF_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final int bufSize;
+
+    // buffer leased from pool, lazily allocated on first buffered write
+    private BufferPool.Lease lease = null;
+    private ByteBuffer buf = null;
+
+    private boolean closed = false;
+
+    FileOutputStream(File file, int bufSize) {
+        if (bufSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        this.file = file;
+        this.bufSize = bufSize;
+    }
+
+    /**
+     * <p>Writes the specified byte to this output stream.</p>
+     *
+     * @param b the byte to be written.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void write(int b) throws IOException {
+        ensureBuf();
+        if (!buf.hasRemaining()) flushBuf();
+        buf.put((byte) b);
+    }
+
+    /**
+     * <p>Writes {@code len} bytes from the specified byte array starting at offset {@code off} to
+     * this output stream.</p>
+     *
+     * <p>If {@code len} is not less than the buffer size, the buffered bytes are flushed first and
+     * then the array is written to the file directly.</p>
+     *
+     * @param b the data.
+     * @param off the start offset in the data.
+     * @param len the number of bytes to write.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+
+        if (len >= bufSize) {
+            if (buf != null) flushBuf();
+            try {
+                while (len > 0) {
+                    int written = file.write(b, off, len);
+                    if (written == 0) throw new IOException("Failed to write file");
+                    off += written;
+                    len -= written;
+                }
+            } catch (ZboxException err) {
+                throw new IOException(err.toString());
+            }
+            return;
+        }
+
+        ensureBuf();
+        if (len > buf.remaining()) flushBuf();
+        buf.put(b, off, len);
+    }
+
+    /**
+     * <p>Flushes this output stream, the buffered bytes are written to the file.</p>
+     *
+     * <p>Note that this doesn't create a new file version, which is only created when this stream
+     * is closed.</p>
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (buf != null) flushBuf();
+    }
+
+    /**
+     * <p>Closes this output stream, the buffered bytes are written and a new file version is
+     * created. The file associated with the stream is also released.</p>
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+
+        try {
+            if (buf != null) flushBuf();
+            file.finish();
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        } finally {
+            closed = true;
+            if (lease != null) {
+                lease.close();
+                lease = null;
+                buf = null;
+            }
+            file.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Stream closed");
+    }
+
+    private void ensureBuf() throws IOException {
+        ensureOpen();
+        if (buf == null) {
+            lease = BufferPool.lease(bufSize);
+            buf = lease.buffer();
+        }
+    }
+
+    // write all buffered bytes to file
+    private void flushBuf() throws IOException {
+        try {
+            while (buf.position() > 0) {
+                int written = (int) file.write(buf);
+                if (written == 0) throw new IOException("Failed to write file");
+                buf.flip();
+                buf.position(written);
+                buf.compact();
+            }
+        } catch (ZboxException err) {
+            throw new IOException(err.toString());
+        }
+    }
+}
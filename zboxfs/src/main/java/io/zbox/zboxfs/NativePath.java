@@ -0,0 +1,46 @@
+package io.zbox.zboxfs;
+
+/**
+ * Path operations implemented by Rust's {@code std::path}.
+ *
+ * <p>This is the reference implementation of {@link Path}, which was used before {@link Path} is
+ * implemented in Java. It is not used by the library itself but only kept for verifying and
+ * benchmarking {@link Path} against the native behaviour.</p>
+ *
+ * @author Bo Lu
+ * @see Path
+ */
+final class NativePath {
+
+    private NativePath() {
+    }
+
+    // jni methods
+    static native void jniValidate(String path) throws ZboxException;
+
+    static native String jniParent(String path);
+
+    static native String jniFileName(String path);
+
+    static native String jniStripPrefix(String path, String base);
+
+    static native boolean jniStartsWith(String path, String base);
+
+    static native boolean jniEndsWith(String path, String child);
+
+    static native String jniFileStem(String path);
+
+    static native String jniExtension(String path);
+
+    static native String jniJoin(String path, String path2);
+
+    static native String jniPush(String path, String other);
+
+    static native String jniPop(String path);
+
+    static native String jniSetFileName(String path, String fileName);
+
+    static native String jniSetExtension(String path, String ext);
+
+    static native String[] jniComponents(String path);
+}
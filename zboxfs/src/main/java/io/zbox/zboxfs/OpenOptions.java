@@ -157,7 +157,7 @@ public class OpenOptions extends RustObject {
      */
     public File open(Repo repo, Path path) throws ZboxException {
         checkNullParam2(repo, path);
-        return this.jniOpen(repo, path.toString());
+        return tracked(this.jniOpen(repo, path.toString())).bindCache(repo.cacheKey(path));
     }
 
     // jni methods
@@ -1,18 +1,32 @@
 package io.zbox.zboxfs;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * This class represents an absolute location of file or directory in ZboxFS repository.
  *
  * <p>{@code Path} is always absolute and the separator character is <b>"/"</b>.</p>
  *
+ * <p>{@code Path} is implemented purely in Java and follows exactly the same semantics as Rust's
+ * {@code std::path::Path} on Unix, which is used by ZboxFS internally. For example, repeated
+ * separators and {@code "."} components are ignored when a path is split into components, but
+ * {@code ".."} components are kept as they are.</p>
+ *
+ * <p>Paths are ordered by their components first, and then by their string form, which is
+ * consistent with {@link #equals(Object)}.</p>
+ *
  * @author Bo Lu
  */
-public class Path implements Cloneable, Serializable {
+public class Path implements Cloneable, Serializable, Comparable<Path> {
+
+    private static final char SEP = '/';
 
     private String path;
 
+    // start and end offsets of each component in path, parsed lazily and reset on each change
+    private transient int[] comps;
+
     /**
      * Create a path points to the root directory "/".
      */
@@ -31,10 +45,26 @@ public class Path implements Cloneable, Serializable {
      * @throws ZboxException if {@code path} is null or not absolute
      */
     public Path(String path) throws ZboxException {
-        jniValidate(path);
+        if (path == null || path.isEmpty() || path.charAt(0) != SEP) {
+            throw new ZboxException(ZboxException.ERR_INVALID_PATH,
+                    "Invalid path (" + ZboxException.ERR_INVALID_PATH + ")");
+        }
         this.path = path;
     }
 
+    // create path from a string which is known to be absolute
+    private static Path of(String path) {
+        Path ret = new Path();
+        ret.path = path;
+        return ret;
+    }
+
+    // update path string and invalidate parsed components
+    private void set(String path) {
+        this.path = path;
+        this.comps = null;
+    }
+
     /**
      * Convert a path to string.
      *
@@ -104,6 +134,44 @@ public class Path implements Cloneable, Serializable {
         return path.equals(other);
     }
 
+    /**
+     * Returns a hash code for this path, which is consistent with {@link #equals(Object)}.
+     *
+     * @return hash code of this path
+     */
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    /**
+     * Compares this path to another path.
+     *
+     * <p>Paths are compared component by component, the same as Rust's {@code std::path::Path}
+     * does. Paths having same components but different string forms, such as "/aaa/bbb" and
+     * "/aaa//bbb", are then ordered by their string forms.</p>
+     *
+     * @param other the other path to compare with
+     * @return a negative integer, zero, or a positive integer as this path is less than, equal to,
+     * or greater than the other path
+     */
+    @Override
+    public int compareTo(Path other) {
+        int[] comps = comps(), comps2 = other.comps();
+        int cnt = Math.min(comps.length, comps2.length);
+
+        for (int i = 0; i < cnt; i += 2) {
+            int ret = compareComponent(path, comps[i], comps[i + 1],
+                    other.path, comps2[i], comps2[i + 1]);
+            if (ret != 0) return ret;
+        }
+        if (comps.length != comps2.length) {
+            return comps.length < comps2.length ? -1 : 1;
+        }
+
+        return path.compareTo(other.path);
+    }
+
     /**
      * Returns the path without its final component.
      *
@@ -120,14 +188,8 @@ public class Path implements Cloneable, Serializable {
      * @return path of parent directory
      */
     public Path parent() {
-        String parent = jniParent(path);
-        Path ret = null;
-        try {
-            ret = new Path(parent);
-        } catch (ZboxException ignore) {
-            // never reach here
-        }
-        return ret;
+        int end = parentEnd();
+        return end < 0 ? new Path() : of(path.substring(0, end));
     }
 
     /**
@@ -149,7 +211,10 @@ public class Path implements Cloneable, Serializable {
      * @return final component of the path
      */
     public String fileName() {
-        return jniFileName(path);
+        int[] comps = comps();
+        int cnt = comps.length / 2;
+        if (cnt == 0 || !isNormal(path, comps[cnt * 2 - 2], comps[cnt * 2 - 1])) return "";
+        return path.substring(comps[cnt * 2 - 2], comps[cnt * 2 - 1]);
     }
 
     /**
@@ -169,7 +234,16 @@ public class Path implements Cloneable, Serializable {
      */
     public String stripPrefix(String base) {
         if (base == null) return null;
-        return jniStripPrefix(path, base);
+
+        int[] comps = comps();
+        int[] baseComps = parse(base);
+        if (!matches(comps, 0, base, baseComps)) return null;
+
+        // the remaining components, with leading and trailing separators trimmed
+        int matched = baseComps.length;
+        if (matched == comps.length) return "";
+        int start = matched == 0 ? 0 : comps[matched];
+        return path.substring(start, comps[comps.length - 1]);
     }
 
     /**
@@ -191,7 +265,8 @@ public class Path implements Cloneable, Serializable {
      */
     public boolean startsWith(String base) {
         if (base == null) return false;
-        return jniStartsWith(path, base);
+        int[] baseComps = parse(base);
+        return matches(comps(), 0, base, baseComps);
     }
 
     /**
@@ -213,7 +288,9 @@ public class Path implements Cloneable, Serializable {
      */
     public boolean endsWith(String child) {
         if (child == null) return false;
-        return jniEndsWith(path, child);
+        int[] comps = comps();
+        int[] childComps = parse(child);
+        return matches(comps, comps.length - childComps.length, child, childComps);
     }
 
     /**
@@ -232,7 +309,8 @@ public class Path implements Cloneable, Serializable {
      * @return file stem
      */
     public String fileStem() {
-        return jniFileStem(path);
+        String fileName = fileName();
+        return fileName.substring(0, stemLen(fileName));
     }
 
     /***
@@ -251,7 +329,9 @@ public class Path implements Cloneable, Serializable {
      * @return file extension
      */
     public String extension() {
-        return jniExtension(path);
+        String fileName = fileName();
+        int stemLen = stemLen(fileName);
+        return stemLen < fileName.length() ? fileName.substring(stemLen + 1) : "";
     }
 
     /**
@@ -272,14 +352,7 @@ public class Path implements Cloneable, Serializable {
      */
     public Path join(String path) {
         if (path == null) return this;
-        String newPath = jniJoin(this.path, path);
-        Path ret = null;
-        try {
-            ret = new Path(newPath);
-        } catch (ZboxException ignore) {
-            // never reach here
-        }
-        return ret;
+        return of(pushed(this.path, path));
     }
 
     /**
@@ -304,7 +377,7 @@ public class Path implements Cloneable, Serializable {
      */
     public void push(String path) {
         if (path == null) return;
-        this.path = jniPush(this.path, path);
+        set(pushed(this.path, path));
     }
 
     /**
@@ -328,10 +401,10 @@ public class Path implements Cloneable, Serializable {
      * @return true if any path components are truncated, false otherwise
      */
     public boolean pop() {
-        String newPath = jniPop(this.path);
-        boolean ret = !this.path.equals(newPath);
-        this.path = newPath;
-        return ret;
+        int end = parentEnd();
+        if (end < 0) return false;
+        set(this.path.substring(0, end));
+        return true;
     }
 
     /**
@@ -358,7 +431,8 @@ public class Path implements Cloneable, Serializable {
      */
     public void setFileName(String fileName) {
         if (fileName == null) return;
-        this.path = jniSetFileName(this.path, fileName);
+        if (!fileName().isEmpty()) pop();
+        push(fileName);
     }
 
     /**
@@ -388,7 +462,15 @@ public class Path implements Cloneable, Serializable {
      */
     public void setExtension(String extension) {
         if (extension == null) return;
-        this.path = jniSetExtension(this.path, extension);
+
+        String fileName = fileName();
+        if (fileName.isEmpty()) return;
+
+        // truncate right after the file stem and then append the new extension
+        int[] comps = comps();
+        int end = comps[comps.length - 2] + stemLen(fileName);
+        String stem = this.path.substring(0, end);
+        set(extension.isEmpty() ? stem : stem + '.' + extension);
     }
 
     /**
@@ -414,7 +496,12 @@ public class Path implements Cloneable, Serializable {
      * @return an array of all components of this path
      */
     public String[] components() {
-        return jniComponents(this.path);
+        int[] comps = comps();
+        String[] ret = new String[comps.length / 2];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = path.substring(comps[i * 2], comps[i * 2 + 1]);
+        }
+        return ret;
     }
 
     @Override
@@ -422,36 +509,118 @@ public class Path implements Cloneable, Serializable {
         super.clone();
         Path ret = new Path();
         ret.path = this.path;
+        ret.comps = this.comps;
         return ret;
     }
 
-    // jni methods
-    private native void jniValidate(String path) throws ZboxException;
-
-    private native String jniParent(String path);
-
-    private native String jniFileName(String path);
-
-    private native String jniStripPrefix(String path, String base);
+    private int[] comps() {
+        if (comps == null) comps = parse(path);
+        return comps;
+    }
 
-    private native boolean jniStartsWith(String path, String base);
+    // end offset of parent path, or -1 if there is no parent
+    private int parentEnd() {
+        int[] comps = comps();
+        int cnt = comps.length / 2;
+        if (cnt == 0 || isRootDir(path, comps[cnt * 2 - 2], comps[cnt * 2 - 1])) return -1;
+        return cnt == 1 ? 0 : comps[cnt * 2 - 3];
+    }
 
-    private native boolean jniEndsWith(String path, String child);
+    // split path into components and return start and end offsets of each component, the same
+    // way as Rust's std::path::Components does: repeated separators and "." components are
+    // skipped, except a leading "." in a relative path
+    static int[] parse(String path) {
+        int len = path.length();
+        int[] ret = new int[16];
+        int cnt = 0;
+        int pos = 0;
+
+        if (len > 0 && (path.charAt(0) == SEP
+                || (path.charAt(0) == '.' && (len == 1 || path.charAt(1) == SEP)))) {
+            ret[cnt++] = 0;
+            ret[cnt++] = 1;
+            pos = 1;
+        }
 
-    private native String jniFileStem(String path);
+        while (pos < len) {
+            int end = path.indexOf(SEP, pos);
+            if (end < 0) end = len;
+            int compLen = end - pos;
+            if (compLen > 0 && !(compLen == 1 && path.charAt(pos) == '.')) {
+                if (cnt == ret.length) ret = Arrays.copyOf(ret, cnt * 2);
+                ret[cnt++] = pos;
+                ret[cnt++] = end;
+            }
+            pos = end + 1;
+        }
 
-    private native String jniExtension(String path);
+        return cnt == ret.length ? ret : Arrays.copyOf(ret, cnt);
+    }
 
-    private native String jniJoin(String path, String path2);
+    // check if components of this path starting from offset match all components of other
+    private boolean matches(int[] comps, int from, String other, int[] otherComps) {
+        if (from < 0 || comps.length - from < otherComps.length) return false;
+        for (int i = from, j = 0; j < otherComps.length; i += 2, j += 2) {
+            int len = comps[i + 1] - comps[i];
+            if (len != otherComps[j + 1] - otherComps[j]
+                    || !path.regionMatches(comps[i], other, otherComps[j], len)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-    private native String jniPush(String path, String other);
+    // append other path to base, the same as Rust's PathBuf::push
+    private static String pushed(String base, String other) {
+        if (!other.isEmpty() && other.charAt(0) == SEP) return other;
+        if (!base.isEmpty() && base.charAt(base.length() - 1) != SEP) {
+            return base + SEP + other;
+        }
+        return base + other;
+    }
 
-    private native String jniPop(String path);
+    // length of file stem in file name, the rest after it is '.' and extension
+    private static int stemLen(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot <= 0 ? fileName.length() : dot;
+    }
 
-    private native String jniSetFileName(String path, String fileName);
+    private static boolean isRootDir(String path, int start, int end) {
+        return end - start == 1 && path.charAt(start) == SEP;
+    }
 
-    private native String jniSetExtension(String path, String ext);
+    // component kind order is the same as Rust's std::path::Component:
+    // root dir, current dir, parent dir and then normal
+    private static int componentKind(String path, int start, int end) {
+        int len = end - start;
+        if (len == 1 && path.charAt(start) == SEP) return 0;
+        if (len == 1 && path.charAt(start) == '.') return 1;
+        if (len == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.') return 2;
+        return 3;
+    }
 
-    private native String[] jniComponents(String path);
+    private static boolean isNormal(String path, int start, int end) {
+        return componentKind(path, start, end) == 3;
+    }
 
-}
\ No newline at end of file
+    // compare two components, normal components are compared by code points which gives the
+    // same order as comparing their UTF-8 bytes
+    private static int compareComponent(String path, int start, int end,
+                                        String path2, int start2, int end2) {
+        int kind = componentKind(path, start, end);
+        int kind2 = componentKind(path2, start2, end2);
+        if (kind != kind2) return kind < kind2 ? -1 : 1;
+
+        int i = start, j = start2;
+        while (i < end && j < end2) {
+            int c = path.codePointAt(i);
+            int c2 = path2.codePointAt(j);
+            if (c != c2) return c < c2 ? -1 : 1;
+            i += Character.charCount(c);
+            j += Character.charCount(c2);
+        }
+        if (i < end) return 1;
+        if (j < end2) return -1;
+        return 0;
+    }
+}
@@ -0,0 +1,28 @@
+package io.zbox.zboxfs;
+
+/**
+ * Priority of an asynchronous operation.
+ *
+ * <p>Pending operations of higher priority are started before those of lower priority, operations
+ * of the same priority are started in submission order.</p>
+ *
+ * @author Bo Lu
+ * @see AsyncExecutor
+ * @see AsyncRepo#withPriority(Priority)
+ */
+public enum Priority {
+    /**
+     * For operations which the user is waiting for, such as loading visible content.
+     */
+    HIGH,
+
+    /**
+     * Default priority.
+     */
+    NORMAL,
+
+    /**
+     * For background operations, such as prefetching and cleanup.
+     */
+    LOW
+}
@@ -0,0 +1,222 @@
+package io.zbox.zboxfs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background sequential read-ahead of one file content version.
+ *
+ * <p>A producer task running on a {@link Workers} thread reads chunks starting at the stream
+ * position into a bounded ring of direct buffers, while the consumer copies them out in order.
+ * Reading at another position restarts the producer from there, chunks of the previous stream are
+ * recycled without being read.</p>
+ *
+ * <p>Producer reads through its own {@link VersionReader}, so it doesn't block the cursor of the
+ * file being read. The consumer side is not thread safe, it is called by the owning file only.
+ * </p>
+ */
+final class ReadAhead {
+
+    // how long producer waits for a free buffer before checking if it is cancelled
+    private static final long POLL_MILLIS = 100;
+
+    // a buffer in the ring
+    private static final class Chunk {
+        final ByteBuffer buf;
+
+        // stream generation and content offset of this chunk
+        long gen;
+        long offset;
+
+        // number of valid bytes, less than buffer capacity only at end of content
+        int len;
+
+        // error happened when reading this chunk
+        ZboxException err;
+
+        Chunk(int size) {
+            this.buf = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    private final VersionReader rdr;
+    private final int chunkSize;
+
+    // buffers ready to be filled and buffers filled by producer, in content order
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+
+    // current stream generation, producers of older generations stop as soon as possible
+    private final AtomicLong gen = new AtomicLong();
+
+    // chunk being consumed and the position next read is expected at, -1 if not streaming
+    private Chunk curr = null;
+    private long nextPos = -1;
+
+    ReadAhead(VersionReader rdr, int chunks, int chunkSize) {
+        this.rdr = rdr;
+        this.chunkSize = chunkSize;
+        this.free = new ArrayBlockingQueue<>(chunks);
+        this.filled = new ArrayBlockingQueue<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            free.offer(new Chunk(chunkSize));
+        }
+    }
+
+    // read content at pos into dst, restarting the stream from pos if it is not sequential
+    int read(long pos, ByteBuffer dst) throws ZboxException {
+        if (pos != nextPos) this.restart(pos);
+
+        int total = 0;
+
+        while (dst.hasRemaining()) {
+            if (curr == null) {
+                curr = this.take();
+                if (curr.err != null) {
+                    ZboxException err = curr.err;
+                    this.cancel();
+                    throw err;
+                }
+            }
+
+            int off = (int) (pos + total - curr.offset);
+            int len = Math.min(curr.len - off, dst.remaining());
+            ByteBuffer src = curr.buf.duplicate();
+            src.position(off);
+            src.limit(off + len);
+            dst.put(src);
+            total += len;
+
+            if (off + len < curr.len) continue;
+
+            // end of content, keep the last chunk so subsequent reads return 0
+            if (curr.len < chunkSize) break;
+
+            free.offer(curr);
+            curr = null;
+        }
+
+        nextPos = pos + total;
+        return total;
+    }
+
+    // stop current stream, next read will start a new one
+    void cancel() {
+        gen.incrementAndGet();
+        nextPos = -1;
+        this.recycle();
+    }
+
+    // stop producer and close the version reader
+    void close() {
+        synchronized (rdr) {
+            gen.incrementAndGet();
+            rdr.close();
+        }
+        nextPos = -1;
+        this.recycle();
+    }
+
+    private void restart(final long pos) {
+        final long myGen = gen.incrementAndGet();
+        this.recycle();
+        nextPos = pos;
+
+        Workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                produce(myGen, pos);
+            }
+        });
+    }
+
+    // give back consumed and filled buffers
+    private void recycle() {
+        if (curr != null) {
+            free.offer(curr);
+            curr = null;
+        }
+        Chunk chunk;
+        while ((chunk = filled.poll()) != null) {
+            free.offer(chunk);
+        }
+    }
+
+    // wait for next chunk of current stream, discarding chunks of stale streams
+    private Chunk take() throws ZboxException {
+        try {
+            while (true) {
+                Chunk chunk = filled.take();
+                if (chunk.gen == gen.get()) return chunk;
+                free.offer(chunk);
+            }
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new ZboxException("Read interrupted");
+        }
+    }
+
+    // producer task, read chunks sequentially from pos until end of content or cancelled, any
+    // failure is published as a chunk error so the consumer never waits for a dead producer
+    private void produce(long myGen, long pos) {
+        Error fatal = null;
+
+        try {
+            while (gen.get() == myGen) {
+                Chunk chunk = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (chunk == null) continue;
+
+                synchronized (rdr) {
+                    if (gen.get() != myGen) {
+                        free.offer(chunk);
+                        return;
+                    }
+                    chunk.gen = myGen;
+                    chunk.offset = pos;
+                    chunk.err = null;
+                    try {
+                        chunk.len = this.fill(chunk.buf, pos);
+                    } catch (ZboxException err) {
+                        chunk.len = 0;
+                        chunk.err = err;
+                    } catch (RuntimeException err) {
+                        chunk.len = 0;
+                        chunk.err = new ZboxException("Read ahead failed", err);
+                    } catch (Error err) {
+                        chunk.len = 0;
+                        chunk.err = new ZboxException("Read ahead failed", err);
+                        fatal = err;
+                    }
+                }
+
+                filled.put(chunk);
+                if (chunk.err != null || chunk.len < chunkSize) break;
+                pos += chunk.len;
+            }
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+        }
+
+        // let the worker thread see the error after the consumer is woken up
+        if (fatal != null) throw fatal;
+    }
+
+    // fill up buffer with content at pos unless end of content is reached, must be called with
+    // rdr locked
+    private int fill(ByteBuffer buf, long pos) throws ZboxException {
+        rdr.seek(pos, SeekFrom.START);
+        int len = 0;
+        buf.clear();
+        while (buf.hasRemaining()) {
+            long read = rdr.jniRead(buf.slice());
+            if (read == 0) break;
+            len += (int) read;
+            buf.position(len);
+        }
+        buf.clear();
+        return len;
+    }
+}
@@ -0,0 +1,108 @@
+package io.zbox.zboxfs;
+
+import android.util.Log;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reaper for Rust objects which are not closed explicitly.
+ *
+ * <p>Each {@link RustObject} registers a {@link Handle} holding its Rust object pointer. The
+ * handle is a phantom reference to the Java object, so once the Java object becomes unreachable
+ * the handle is enqueued by GC and a daemon thread frees the Rust object right away. Unlike
+ * finalization, the Java object is never resurrected and the native memory is released in the
+ * same GC cycle it is found unreachable.</p>
+ *
+ * @author Bo Lu
+ * @see RustObject
+ */
+final class Reaper {
+
+    private static final String TAG = "Reaper";
+
+    private static final ReferenceQueue<RustObject> queue = new ReferenceQueue<>();
+
+    // keep handles strongly reachable until they are released or reaped
+    private static final Set<Handle> handles =
+            Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+
+    // number of Rust objects freed by this reaper rather than closed explicitly
+    private static final AtomicLong reclaimed = new AtomicLong();
+
+    static {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        reap((Handle) queue.remove());
+                    } catch (InterruptedException ignore) {
+                        // keep reaping
+                    } catch (Throwable err) {
+                        // failing to free one object must not stop reaping others
+                        Log.e(TAG, "Failed to free Rust object", err);
+                    }
+                }
+            }
+        }, "zboxfs-reaper");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Native object state holder, which is all the reaper needs to free a Rust object.
+     */
+    static final class Handle extends PhantomReference<RustObject> {
+        // Java class of the object, used to identify type of the Rust object
+        private final Class<?> cls;
+
+        // pointer to Rust object
+        private long rustObj;
+
+        private Handle(RustObject obj, long rustObj) {
+            super(obj, queue);
+            this.cls = obj.getClass();
+            this.rustObj = rustObj;
+        }
+
+        private synchronized long take() {
+            long ret = rustObj;
+            rustObj = 0;
+            return ret;
+        }
+    }
+
+    private Reaper() {
+    }
+
+    static Handle register(RustObject obj, long rustObj) {
+        Handle handle = new Handle(obj, rustObj);
+        handles.add(handle);
+        return handle;
+    }
+
+    // called when the Rust object is released explicitly
+    static void release(Handle handle) {
+        handle.take();
+        handle.clear();
+        handles.remove(handle);
+    }
+
+    static long reclaimedCount() {
+        return reclaimed.get();
+    }
+
+    private static void reap(Handle handle) {
+        handles.remove(handle);
+        long rustObj = handle.take();
+        if (rustObj != 0) {
+            RustObject.freeRustObj(handle.cls, rustObj);
+            reclaimed.incrementAndGet();
+        }
+    }
+}
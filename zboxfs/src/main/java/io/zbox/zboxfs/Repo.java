@@ -1,5 +1,9 @@
 package io.zbox.zboxfs;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * <p>The {@code Repo} class represents an encrypted repository containing the whole file system.</p>
  *
@@ -69,6 +73,14 @@ package io.zbox.zboxfs;
  *                  .open("mem://foo", "pwd");
  * </pre></blockquote>
  *
+ * <h3>Thread safety</h3>
+ *
+ * <p>A {@code Repo} instance can be shared by multiple threads. Operations which only read the
+ * file system, such as {@link #metadata(Path)}, {@link #readDir(Path)} and {@link #pathExists},
+ * can run concurrently. Operations which modify the file system, including opening and creating
+ * files, are exclusive and wait for all running operations to finish. The {@link File} objects
+ * opened from a repo are not shared, each of them should be used by one thread at a time.</p>
+ *
  * @author Bo Lu
  * @see File
  */
@@ -76,6 +88,12 @@ public class Repo extends RustObject {
 
     private static final int rustObjId = 101;
 
+    // source of repo ids used in block cache keys
+    private static final AtomicLong nextCacheId = new AtomicLong();
+
+    // id of this repo in block cache keys
+    private final long cacheId = nextCacheId.incrementAndGet();
+
     private Repo() {
     }
 
@@ -198,7 +216,7 @@ public class Repo extends RustObject {
      */
     public File createFile(Path path) throws ZboxException {
         checkNullParam(path);
-        return this.jniCreateFile(path.toString());
+        return tracked(this.jniCreateFile(path.toString())).bindCache(this.cacheKey(path));
     }
 
     /**
@@ -211,15 +229,19 @@ public class Repo extends RustObject {
      * @throws ZboxException if any error happened
      * @see OpenOptions#open(Repo, Path)
      * @see #openFileInputStream(Path)
+     * @see #openFileOutputStream(Path, OpenOptions)
      */
     public File openFile(Path path) throws ZboxException {
         checkNullParam(path);
-        return this.jniOpenFile(path.toString());
+        return tracked(this.jniOpenFile(path.toString())).bindCache(this.cacheKey(path));
     }
 
     /**
      * Attempts to open a file input stream at specified path.
      *
+     * <p>The stream uses a read-ahead window of {@link FileInputStream#DEFAULT_BUF_SIZE} bytes.
+     * </p>
+     *
      * @param path absolute path of the file to be opened
      * @return {@code FileInputStream} instance opened
      * @throws ZboxException if any error happened
@@ -229,6 +251,66 @@ public class Repo extends RustObject {
         return new FileInputStream(openFile(path));
     }
 
+    /**
+     * Attempts to open a file input stream at specified path with the read-ahead window size
+     * specified.
+     *
+     * @param path    absolute path of the file to be opened
+     * @param bufSize size of the read-ahead window in bytes, must be positive
+     * @return {@code FileInputStream} instance opened
+     * @throws ZboxException if any error happened
+     * @see #openFileInputStream(Path)
+     */
+    public FileInputStream openFileInputStream(Path path, int bufSize) throws ZboxException {
+        if (bufSize <= 0) throw new ZboxException("Invalid buffer size");
+        return new FileInputStream(openFile(path), bufSize);
+    }
+
+    /**
+     * Attempts to open a file output stream at specified path with the options specified.
+     *
+     * <p>The stream uses a buffer of {@link FileOutputStream#DEFAULT_BUF_SIZE} bytes. A new
+     * version of the file is created when the stream is closed.</p>
+     *
+     * <h3>Example</h3>
+     *
+     * <blockquote><pre>
+     * OpenOptions opts = new OpenOptions().create(true).truncate(true);
+     * try (FileOutputStream out = repo.openFileOutputStream(new Path("/foo"), opts)) {
+     *     out.write(bytes);
+     * }
+     * </pre></blockquote>
+     *
+     * @param path    absolute path of the file to be opened
+     * @param options options used to open the file, it must allow writing
+     * @return {@code FileOutputStream} instance opened
+     * @throws ZboxException if any error happened
+     * @see #openFileOutputStream(Path, OpenOptions, int)
+     * @see OpenOptions#open(Repo, Path)
+     */
+    public FileOutputStream openFileOutputStream(Path path, OpenOptions options)
+            throws ZboxException {
+        return openFileOutputStream(path, options, FileOutputStream.DEFAULT_BUF_SIZE);
+    }
+
+    /**
+     * Attempts to open a file output stream at specified path with the options and buffer size
+     * specified.
+     *
+     * @param path    absolute path of the file to be opened
+     * @param options options used to open the file, it must allow writing
+     * @param bufSize size of the stream buffer in bytes, must be positive
+     * @return {@code FileOutputStream} instance opened
+     * @throws ZboxException if any error happened
+     * @see #openFileOutputStream(Path, OpenOptions)
+     */
+    public FileOutputStream openFileOutputStream(Path path, OpenOptions options, int bufSize)
+            throws ZboxException {
+        checkNullParam(options);
+        if (bufSize <= 0) throw new ZboxException("Invalid buffer size");
+        return new FileOutputStream(options.open(this, path), bufSize);
+    }
+
     /**
      * Creates a new, empty directory at the specified path.
      *
@@ -265,12 +347,34 @@ public class Repo extends RustObject {
      * @param path absolute path of the directory to be read
      * @return array of directory entries
      * @throws ZboxException if any error happened
+     * @see #readDirPacked(Path)
      */
     public DirEntry[] readDir(Path path) throws ZboxException {
         checkNullParam(path);
         return this.jniReadDir(path.toString());
     }
 
+    /**
+     * Returns all the entries within a directory in a packed form.
+     *
+     * <p>This method is the same as {@link #readDir(Path)}, except that the entries are returned
+     * in a few packed primitive arrays instead of an array of {@link DirEntry}. Entry objects are
+     * only created when they are asked for, which makes it much faster for large directories.</p>
+     *
+     * <p>{@code path} must be an absolute path.</p>
+     *
+     * @param path absolute path of the directory to be read
+     * @return packed directory entries
+     * @throws ZboxException if any error happened
+     * @see #readDir(Path)
+     */
+    public DirEntries readDirPacked(Path path) throws ZboxException {
+        checkNullParam(path);
+        DirEntries ents = new DirEntries(path);
+        this.jniReadDirPacked(path.toString(), ents);
+        return ents;
+    }
+
     /**
      * Get the metadata about a file or directory at specified path.
      *
@@ -315,6 +419,8 @@ public class Repo extends RustObject {
     public void copy(Path from, Path to) throws ZboxException {
         checkNullParam2(from, to);
         this.jniCopy(from.toString(), to.toString());
+        File.contentCommitted();
+        BlockCache.invalidate(this.cacheKey(to));
     }
 
     /**
@@ -338,7 +444,11 @@ public class Repo extends RustObject {
      */
     public void copyDirAll(Path from, Path to) throws ZboxException {
         checkNullParam2(from, to);
-        this.jniCopyDirAll(from.toString(), to.toString());
+        try {
+            this.jniCopyDirAll(from.toString(), to.toString());
+        } finally {
+            BlockCache.invalidateTree(this.cacheKey(to));
+        }
     }
 
     /**
@@ -352,6 +462,7 @@ public class Repo extends RustObject {
     public void removeFile(Path path) throws ZboxException {
         checkNullParam(path);
         this.jniRemoveFile(path.toString());
+        BlockCache.invalidate(this.cacheKey(path));
     }
 
     /**
@@ -366,6 +477,7 @@ public class Repo extends RustObject {
     public void removeDir(Path path) throws ZboxException {
         checkNullParam(path);
         this.jniRemoveDir(path.toString());
+        BlockCache.invalidateTree(this.cacheKey(path));
     }
 
     /**
@@ -379,7 +491,11 @@ public class Repo extends RustObject {
      */
     public void removeDirAll(Path path) throws ZboxException {
         checkNullParam(path);
-        this.jniRemoveDirAll(path.toString());
+        try {
+            this.jniRemoveDirAll(path.toString());
+        } finally {
+            BlockCache.invalidateTree(this.cacheKey(path));
+        }
     }
 
     /**
@@ -392,6 +508,8 @@ public class Repo extends RustObject {
     public void rename(Path from, Path to) throws ZboxException {
         checkNullParam2(from, to);
         this.jniRename(from.toString(), to.toString());
+        BlockCache.invalidateTree(this.cacheKey(from));
+        BlockCache.invalidateTree(this.cacheKey(to));
     }
 
     /**
@@ -421,6 +539,35 @@ public class Repo extends RustObject {
         jniDestroy(uri);
     }
 
+    /**
+     * Closes this repo and releases any resources associated with it.
+     */
+    @Override
+    public void close() {
+        BlockCache.invalidateTree(this.cacheKey(Path.root()));
+        super.close();
+    }
+
+    // key of a file in block cache, which is the repo id and normalized path
+    String cacheKey(Path path) {
+        List<String> names = new ArrayList<>();
+        for (String name : path.components()) {
+            if (name.equals("/") || name.equals(".")) continue;
+            if (name.equals("..")) {
+                if (!names.isEmpty()) names.remove(names.size() - 1);
+                continue;
+            }
+            names.add(name);
+        }
+
+        StringBuilder key = new StringBuilder().append(cacheId).append(':');
+        if (names.isEmpty()) return key.append('/').toString();
+        for (String name : names) {
+            key.append('/').append(name);
+        }
+        return key.toString();
+    }
+
     // jni methods
     private native static boolean jniExists(String uri) throws ZboxException;
 
@@ -447,6 +594,8 @@ public class Repo extends RustObject {
 
     private native DirEntry[] jniReadDir(String path) throws ZboxException;
 
+    private native void jniReadDirPacked(String path, DirEntries ents) throws ZboxException;
+
     private native Metadata jniMetadata(String path) throws ZboxException;
 
     private native Version[] jniHistory(String path) throws ZboxException;
@@ -230,7 +230,7 @@ public class RepoOpener extends RustObject {
      */
     public Repo open(String uri, String pwd) throws ZboxException {
         checkNullParam2(uri, pwd);
-        return this.jniOpen(uri, pwd);
+        return tracked(this.jniOpen(uri, pwd));
     }
 
     // jni methods
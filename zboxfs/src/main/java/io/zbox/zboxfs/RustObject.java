@@ -6,8 +6,25 @@ abstract class RustObject implements AutoCloseable {
     // pointer to Rust object
     private long rustObj = 0;
 
+    // native object state holder registered to reaper
+    private Reaper.Handle handle = null;
+
     RustObject() {
         this.jniSetRustObj();
+        this.track();
+    }
+
+    // register the Rust object to reaper, so it will be freed if this object is not closed
+    // explicitly, this must be called after the Rust object is set
+    void track() {
+        if (this.rustObj != 0 && this.handle == null) {
+            this.handle = Reaper.register(this, this.rustObj);
+        }
+    }
+
+    static <T extends RustObject> T tracked(T obj) {
+        if (obj != null) obj.track();
+        return obj;
     }
 
     /**
@@ -15,6 +32,10 @@ abstract class RustObject implements AutoCloseable {
      * instance.
      */
     public void close() {
+        if (this.handle != null) {
+            Reaper.release(this.handle);
+            this.handle = null;
+        }
         if (this.rustObj != 0) {
             this.jniTakeRustObj();
             if (rustObj != 0) {
@@ -33,12 +54,6 @@ abstract class RustObject implements AutoCloseable {
         return rustObj == 0;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        this.close();
-        super.finalize();
-    }
-
     static void checkNullParam(Object param) throws ZboxException {
         if (param == null)
             throw new ZboxException("Invalid null parameter");
@@ -49,21 +64,36 @@ abstract class RustObject implements AutoCloseable {
             throw new ZboxException("Invalid null parameter");
     }
 
-    ByteBuffer ensureDirectBuf(ByteBuffer buf) {
+    static void checkArrayRange(byte[] arr, int off, int len) throws ZboxException {
+        checkNullParam(arr);
+        if (off < 0 || len < 0 || len > arr.length - off)
+            throw new IndexOutOfBoundsException("Invalid array range");
+    }
+
+    // get a direct buffer holding content of the flipped buffer, the content is copied to a
+    // buffer leased from pool if the buffer is not direct
+    static BufferPool.Lease leaseDirectBuf(ByteBuffer buf) {
         ByteBuffer src = buf.asReadOnlyBuffer();
         src.flip();
 
         if (buf.isDirect()) {
-            return src.slice();
+            return BufferPool.wrap(src.slice());
         }
 
-        ByteBuffer cloned = ByteBuffer.allocateDirect(src.limit());
-        cloned.put(src);
-        return cloned;
+        BufferPool.Lease lease = BufferPool.lease(src.limit());
+        lease.buffer().put(src);
+        return lease;
+    }
+
+    // free Rust object which is not closed explicitly
+    static void freeRustObj(Class<?> cls, long rustObj) {
+        jniFreeRustObj(cls, rustObj);
     }
 
     // jni methods
     private native void jniSetRustObj();
 
     private native void jniTakeRustObj();
+
+    private static native void jniFreeRustObj(Class<?> cls, long rustObj);
 }
@@ -46,9 +46,31 @@ public class VersionReader extends RustObject {
 
     private static final int rustObjId = 104;
 
-    // read buffer
-    private int READ_BUF_CAP = 16 * 1024;
-    private ByteBuffer readBuf = ByteBuffer.allocateDirect(READ_BUF_CAP);
+    /**
+     * Default chunk size used by {@link #readChunks(int, ChunkConsumer)}, 1 MiB.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    // key of the file in block cache and version of this reader, cacheFile is null if this reader
+    // is not bound to the cache
+    private String cacheFile;
+    private long cacheVersion;
+
+    // read blocks of this version on cache miss
+    private final BlockCache.Loader cacheLoader = new BlockCache.Loader() {
+        @Override
+        public int load(ByteBuffer dst, long offset) throws ZboxException {
+            VersionReader.this.jniSeek(offset, SeekFrom.START.getValue());
+            int len = 0;
+            while (dst.hasRemaining()) {
+                long read = VersionReader.this.jniRead(dst.slice());
+                if (read == 0) break;
+                len += (int) read;
+                dst.position(len);
+            }
+            return len;
+        }
+    };
 
     /**
      * Create a version reader instance.
@@ -56,6 +78,13 @@ public class VersionReader extends RustObject {
     private VersionReader() {
     }
 
+    // bind this reader to block cache, called after it is created
+    VersionReader bindCache(String file, long version) {
+        this.cacheFile = file;
+        this.cacheVersion = version;
+        return this;
+    }
+
     /**
      * Pull some bytes from this version reader into the specified buffer, returning how many bytes
      * were read.
@@ -66,6 +95,8 @@ public class VersionReader extends RustObject {
      * <p>It is recommended to use a direct {@link java.nio.ByteBuffer} to avoid extra memory
      * allocation.</p>
      *
+     * <p>If {@link BlockCache} is enabled, content is read through the cache.</p>
+     *
      * @param dst the byte buffer into which bytes are to be written
      * @return number of bytes were read
      * @throws ZboxException if any error happened
@@ -74,17 +105,23 @@ public class VersionReader extends RustObject {
     public long read(ByteBuffer dst) throws ZboxException {
         checkNullParam(dst);
 
+        if (this.useCache()) {
+            return this.readCached(dst);
+        }
+
         if (dst.isDirect()) {
             long ret = this.jniRead(dst.slice());
             dst.position(dst.position() + (int) ret);
             return ret;
         }
 
-        ByteBuffer cloned = ByteBuffer.allocateDirect(dst.remaining());
-        long ret = this.jniRead(cloned);
-        cloned.limit((int) ret);
-        dst.put(cloned);
-        return ret;
+        try (BufferPool.Lease lease = BufferPool.lease(dst.remaining())) {
+            ByteBuffer buf = lease.buffer();
+            long ret = this.jniRead(buf);
+            buf.limit((int) ret);
+            dst.put(buf);
+            return ret;
+        }
     }
 
     /**
@@ -95,8 +132,8 @@ public class VersionReader extends RustObject {
      * array. If there is no exception thrown, then it must be guaranteed that {@code 0 <= n <= len}.
      * </p>
      *
-     * <p>It is recommended to make {@code len} less than 16KB (16384) to avoid extra memory
-     * allocation.</p>
+     * <p>Bytes are decrypted in chunks of up to 1 MiB into a reusable per-thread native buffer and
+     * copied into the array region, so no buffer is allocated regardless of {@code len}.</p>
      *
      * @param dst the array into which bytes are to be written
      * @param off the offset within the array of the first byte to be written; must be non-negative
@@ -107,24 +144,11 @@ public class VersionReader extends RustObject {
      * @throws ZboxException if any error happened
      */
     public int read(byte[] dst, int off, int len) throws ZboxException {
-        checkNullParam(dst);
-
-        ByteBuffer buf;
-
-        if (len > READ_BUF_CAP) {
-            buf = ByteBuffer.allocateDirect(len);
-        } else {
-            buf = this.readBuf.duplicate();
-            buf.clear();
-            buf.limit(len);
-            buf = buf.slice();
+        checkArrayRange(dst, off, len);
+        if (this.useCache()) {
+            return this.readCached(ByteBuffer.wrap(dst, off, len));
         }
-
-        int ret = (int) this.jniRead(buf);
-        buf.limit(ret);
-        buf.get(dst, off, len > ret ? ret : len);
-
-        return ret;
+        return this.jniReadArray(dst, off, len);
     }
 
     /**
@@ -139,9 +163,6 @@ public class VersionReader extends RustObject {
      * vr.read(dst, 0, dst.length)
      * </pre></blockquote>
      *
-     * <p>It is recommended to make {@code dst.length} less than 16KB (16384) to avoid extra memory
-     * allocation.</p>
-     *
      * @param dst the array into which bytes are to be written
      * @return number of bytes were read
      * @throws ZboxException if any error happened
@@ -153,10 +174,14 @@ public class VersionReader extends RustObject {
     /**
      * Read all bytes until end of the version reader, placing them into the returned buffer.
      *
+     * <p>The whole content is held in one direct buffer, so it cannot be larger than 2 GiB. Use
+     * {@link #readChunks(int, ChunkConsumer)} to read large content.</p>
+     *
      * @return the byte buffer holds all read bytes
      * @throws ZboxException if any error happened
      * @see #read(ByteBuffer)
      * @see #readAllString()
+     * @see #readChunks(int, ChunkConsumer)
      */
     public ByteBuffer readAll() throws ZboxException {
         ByteBuffer ret = this.jniReadAll();
@@ -177,6 +202,31 @@ public class VersionReader extends RustObject {
         return StandardCharsets.UTF_8.decode(buf).toString();
     }
 
+    /**
+     * Read all bytes until end of the version reader chunk by chunk, passing each chunk to the
+     * specified consumer, returning how many bytes were read.
+     *
+     * <p>Unlike {@link #readAll()}, content is read through a single buffer of
+     * {@code chunkSize} bytes which is reused for all chunks, so memory usage is bounded
+     * regardless of the content size, and content larger than 2 GiB can be read.</p>
+     *
+     * @param chunkSize size of each chunk in bytes, must be positive
+     * @param consumer  the consumer receives the chunks
+     * @return number of bytes were read
+     * @throws ZboxException if any error happened
+     * @see #DEFAULT_CHUNK_SIZE
+     * @see #readAll()
+     */
+    public long readChunks(int chunkSize, ChunkConsumer consumer) throws ZboxException {
+        checkNullParam(consumer);
+        return ChunkReader.readChunks(new ChunkReader.Source() {
+            @Override
+            public long read(ByteBuffer dst) throws ZboxException {
+                return jniRead(dst);
+            }
+        }, chunkSize, consumer);
+    }
+
     /**
      * Seek to an offset, relative to from in bytes, in this version reader.
      *
@@ -197,8 +247,22 @@ public class VersionReader extends RustObject {
         return this.jniSeek(off, whence.getValue());
     }
 
+    private boolean useCache() {
+        return cacheFile != null && BlockCache.isEnabled();
+    }
+
+    // read at the cursor through block cache, and then advance the cursor
+    private int readCached(ByteBuffer dst) throws ZboxException {
+        long pos = this.jniSeek(0, SeekFrom.CURRENT.getValue());
+        int ret = BlockCache.read(cacheFile, cacheVersion, pos, dst, cacheLoader);
+        this.jniSeek(pos + ret, SeekFrom.START.getValue());
+        return ret;
+    }
+
     // jni methods
-    private native long jniRead(ByteBuffer dst) throws ZboxException;
+    native long jniRead(ByteBuffer dst) throws ZboxException;
+
+    private native int jniReadArray(byte[] dst, int off, int len) throws ZboxException;
 
     private native ByteBuffer jniReadAll() throws ZboxException;
 
@@ -0,0 +1,33 @@
+package io.zbox.zboxfs;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared daemon threads for background file I/O, such as read-ahead and pipelined writes.
+ *
+ * <p>Threads are created on demand and exit after being idle for a while.</p>
+ */
+final class Workers {
+
+    private static final AtomicInteger threadNum = new AtomicInteger();
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable task) {
+                    Thread ret = new Thread(task, "zboxfs-worker-" + threadNum.incrementAndGet());
+                    ret.setDaemon(true);
+                    return ret;
+                }
+            });
+
+    private Workers() {
+    }
+
+    static void execute(Runnable task) {
+        executor.execute(task);
+    }
+}
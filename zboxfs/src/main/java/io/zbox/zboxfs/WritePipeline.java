@@ -0,0 +1,167 @@
+package io.zbox.zboxfs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pipelined copy from an input stream into a file.
+ *
+ * <p>The source stream is read on a {@link Workers} thread into a fixed number of pooled direct
+ * buffers, while the calling thread writes the previously filled buffer into the file. When all
+ * buffers are filled and not yet written, reading the source waits, so memory usage is bounded by
+ * the number and size of the buffers.</p>
+ */
+final class WritePipeline {
+
+    // size of each buffer, 1 MiB
+    static final int DEFAULT_BUF_SIZE = 1024 * 1024;
+
+    // number of buffers, one is filled while the other is written
+    static final int DEFAULT_BUF_COUNT = 2;
+
+    // size of heap array used to read the source stream
+    private static final int READ_SIZE = 64 * 1024;
+
+    // a buffer filled by reader
+    private static final class Slot {
+        final BufferPool.Lease lease;
+
+        // true if end of the source stream is reached after this buffer
+        boolean eof;
+
+        // error happened when reading the source stream
+        IOException err;
+
+        Slot(BufferPool.Lease lease) {
+            this.lease = lease;
+        }
+    }
+
+    private final InputStream src;
+    private final Slot[] slots;
+    private final BlockingQueue<Slot> free;
+    private final BlockingQueue<Slot> filled;
+    private final CountDownLatch readerDone = new CountDownLatch(1);
+    private volatile boolean cancelled = false;
+
+    // set once buffers are given back to pool
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    private WritePipeline(InputStream src, int bufSize, int bufCount) {
+        this.src = src;
+        this.slots = new Slot[bufCount];
+        this.free = new ArrayBlockingQueue<>(bufCount);
+        this.filled = new ArrayBlockingQueue<>(bufCount);
+        for (int i = 0; i < bufCount; i++) {
+            slots[i] = new Slot(BufferPool.lease(bufSize));
+            free.offer(slots[i]);
+        }
+    }
+
+    // copy all bytes from src to file, returning number of bytes copied
+    static long copy(InputStream src, File file, int bufSize, int bufCount)
+            throws ZboxException {
+        WritePipeline pipe = new WritePipeline(src, bufSize, bufCount);
+        try {
+            return pipe.run(file);
+        } finally {
+            pipe.close();
+        }
+    }
+
+    private long run(File file) throws ZboxException {
+        Workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read();
+                } finally {
+                    readerDone.countDown();
+                    // pipeline was closed without waiting for reader
+                    if (cancelled) release();
+                }
+            }
+        });
+
+        long total = 0;
+
+        try {
+            while (true) {
+                Slot slot = filled.take();
+                ByteBuffer buf = slot.lease.buffer();
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    long written = file.jniWrite(buf.slice());
+                    if (written == 0) throw new ZboxException("Failed to write file");
+                    buf.position(buf.position() + (int) written);
+                    total += written;
+                }
+
+                if (slot.err != null) throw new ZboxException(slot.err.toString());
+                if (slot.eof) return total;
+
+                buf.clear();
+                free.put(slot);
+            }
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new ZboxException("Write interrupted");
+        }
+    }
+
+    // reader task, fill free buffers from the source stream until end of stream or cancelled
+    private void read() {
+        byte[] bytes = new byte[READ_SIZE];
+
+        try {
+            while (!cancelled) {
+                Slot slot = free.take();
+                if (cancelled) return;
+
+                ByteBuffer buf = slot.lease.buffer();
+                try {
+                    while (buf.hasRemaining()) {
+                        if (cancelled) return;
+                        int read = src.read(bytes, 0, Math.min(bytes.length, buf.remaining()));
+                        if (read <= 0) {
+                            slot.eof = true;
+                            break;
+                        }
+                        buf.put(bytes, 0, read);
+                    }
+                } catch (IOException err) {
+                    slot.err = err;
+                }
+
+                filled.put(slot);
+                if (slot.eof || slot.err != null) return;
+            }
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // stop reader and give back all buffers. It doesn't wait for reader, which might be blocked
+    // reading the source stream, buffers are given back by reader when it stops in that case.
+    private void close() {
+        cancelled = true;
+        free.clear();
+        for (Slot slot : slots) {
+            free.offer(slot);
+        }
+
+        if (readerDone.getCount() == 0) release();
+    }
+
+    private void release() {
+        if (!released.compareAndSet(false, true)) return;
+        for (Slot slot : slots) {
+            slot.lease.close();
+        }
+    }
+}
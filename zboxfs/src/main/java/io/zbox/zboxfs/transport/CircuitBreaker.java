@@ -0,0 +1,89 @@
+package io.zbox.zboxfs.transport;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// Per-host circuit breaker. After a number of consecutive failures the circuit opens and requests
+// to the host fail fast without touching network. Once the open duration has passed, a single
+// trial request is let through, the circuit closes if it succeeds, otherwise it opens again.
+class CircuitBreaker {
+
+    // consecutive failures to open the circuit
+    static final int FAILURE_THRESHOLD = 5;
+
+    // how long the circuit stays open before a trial request, in ms
+    static final int OPEN_DURATION = 30 * 1000;
+
+    private static final ConcurrentMap<String, CircuitBreaker> breakers =
+            new ConcurrentHashMap<>();
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String host;
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+
+    private CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    // get breaker of the url's host and port
+    static CircuitBreaker of(URL url) {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        String host = url.getHost() + ":" + port;
+        CircuitBreaker ret = breakers.get(host);
+        if (ret == null) {
+            CircuitBreaker created = new CircuitBreaker(host);
+            ret = breakers.putIfAbsent(host, created);
+            if (ret == null) ret = created;
+        }
+        return ret;
+    }
+
+    String host() {
+        return host;
+    }
+
+    // check if a request can be sent now
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now() - openedAt >= OPEN_DURATION) {
+                    // let one trial request through
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // trial request is still running
+                return false;
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= FAILURE_THRESHOLD) {
+            state = State.OPEN;
+            openedAt = now();
+        }
+    }
+
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
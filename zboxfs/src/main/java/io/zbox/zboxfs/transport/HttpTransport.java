@@ -6,17 +6,109 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.HashMap;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
 
-import javax.net.ssl.HttpsURLConnection;
-
+// Remote storage requests from native side. Requests go through object cache, merging of
+// concurrent GETs and retry, and each attempt is sent by the current Transport, which by default
+// is implemented here on top of HttpURLConnection.
+//
+// Persistent connections are reused through the platform connection pool. Connections are
+// returned to the pool once their response body is fully read and closed. Connections of failed
+// attempts are disconnected instead, as their responses might be stalled or broken.
 class HttpTransport {
 
-    // default timeout, in ms
+    // default connect timeout, in ms
     private static int timeout = 5000;
 
-    // bytes transfer buffer for JNI
-    private static byte[] transBuf = new byte[128 * 1024];
+    // default read timeout, in ms. A stalled server would otherwise block the calling thread,
+    // which holds the repo lock, for ever.
+    static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+
+    private static int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    // retry policy of failed requests, all requests sent by this class are idempotent
+    private static volatile RetryPolicy retryPolicy = new RetryPolicy(
+            RetryPolicy.DEFAULT_MAX_RETRIES, RetryPolicy.DEFAULT_BASE_DELAY,
+            RetryPolicy.DEFAULT_MAX_DELAY);
+
+    // a single attempt of a request
+    private interface Attempt {
+        Response run() throws IOException;
+    }
+
+    // max number of idle persistent connections kept per host by the platform connection pool,
+    // unless the application changes the pool's "http.maxConnections" setting. The pool is
+    // shared by the whole process, so it is left as is.
+    static final int MAX_IDLE_CONNS = 5;
+
+    // initial size of response body buffer
+    static final int INIT_BUF_SIZE = 128 * 1024;
+
+    // max size of response body buffer kept for next request, larger buffers are only used once
+    static final int MAX_KEPT_BUF_SIZE = 8 * 1024 * 1024;
+
+    // size of each write when uploading body
+    static final int UPLOAD_CHUNK_SIZE = 64 * 1024;
+
+    // upload chunk buffer of each thread, used to copy body from direct buffer
+    private static final ThreadLocal<byte[]> uploadBuf = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[UPLOAD_CHUNK_SIZE];
+        }
+    };
+
+    // response body buffer of each thread. Body of a response is only used by the calling thread
+    // before it makes next request, so one buffer per thread is enough and requests on different
+    // threads can run in parallel.
+    private static final ThreadLocal<byte[]> bodyBuf = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INIT_BUF_SIZE];
+        }
+    };
+
+    // scheduler of batch uploads, replaced when upload concurrency is changed
+    private static volatile Uploader uploader = new Uploader(Uploader.DEFAULT_CONCURRENCY);
+
+    // default transport, sends requests through HttpURLConnection
+    static final Transport DEFAULT_TRANSPORT = new Transport() {
+        @Override
+        public Response get(URL url, Map<String, String> headers) throws IOException {
+            return getOnce(url, headers);
+        }
+
+        @Override
+        public Response getRange(URL url, Map<String, String> headers, long offset, int len)
+                throws IOException {
+            return getRangeOnce(url, headers, offset, len);
+        }
+
+        @Override
+        public Response put(URL url, Map<String, String> headers, ByteBuffer body)
+                throws IOException {
+            return putOnce(url, headers, body);
+        }
+
+        @Override
+        public Response delete(URL url, Map<String, String> headers) throws IOException {
+            return deleteOnce(url, headers);
+        }
+
+        @Override
+        public Response deleteBulk(URL url, Map<String, String> headers, ByteBuffer body)
+                throws IOException {
+            return deleteBulkOnce(url, headers, body);
+        }
+    };
+
+    // transport sends each attempt of requests
+    private static volatile Transport transport = DEFAULT_TRANSPORT;
+
+    // in-flight GETs, used to merge concurrent requests of the same object
+    private static final SingleFlight inFlight = new SingleFlight();
 
     private HttpTransport() {
     }
@@ -25,7 +117,234 @@ class HttpTransport {
         HttpTransport.timeout = timeout * 1000;
     }
 
-    private static void setHeaders(HttpsURLConnection conn, HashMap<String, String> headers) {
+    // set timeout of waiting for response data, in ms, 0 means no timeout
+    static void setReadTimeout(int readTimeout) {
+        if (readTimeout < 0) throw new IllegalArgumentException("Invalid read timeout");
+        HttpTransport.readTimeout = readTimeout;
+    }
+
+    // set retry policy of failed requests, delays are in ms and maxRetries 0 disables retry
+    static void setRetryPolicy(int maxRetries, int baseDelay, int maxDelay) {
+        retryPolicy = new RetryPolicy(maxRetries, baseDelay, maxDelay);
+    }
+
+    // send a request and retry it on IO error or transient server error with backoff. Requests
+    // fail fast without retry while the host's circuit is open.
+    private static Response execute(URL url, Attempt attempt) throws IOException {
+        RetryPolicy policy = retryPolicy;
+        CircuitBreaker breaker = CircuitBreaker.of(url);
+
+        for (int retry = 0; ; retry++) {
+            if (!breaker.allowRequest()) {
+                throw new IOException("Circuit breaker is open for " + breaker.host());
+            }
+
+            Response ret;
+            try {
+                ret = attempt.run();
+                // a custom transport might return no response, which is a failed attempt too
+                if (ret == null) throw new IOException("No response from transport");
+            } catch (IOException err) {
+                breaker.onFailure();
+                // don't retry if the caller was interrupted
+                if (!policy.canRetry(retry) || Thread.currentThread().isInterrupted()) throw err;
+                policy.backoff(retry);
+                continue;
+            } catch (RuntimeException | Error err) {
+                // record any failure, otherwise a half-open circuit waits for its trial forever
+                breaker.onFailure();
+                throw err;
+            }
+
+            if (RetryPolicy.isRetryable(ret.status)) {
+                breaker.onFailure();
+                if (policy.canRetry(retry)) {
+                    policy.backoff(retry);
+                    continue;
+                }
+            } else {
+                breaker.onSuccess();
+            }
+            return ret;
+        }
+    }
+
+    // set max number of uploads of a batch run in parallel, it should not exceed
+    // MAX_IDLE_CONNS, otherwise extra connections cannot be kept for reuse
+    static void setUploadConcurrency(int concurrency) {
+        Uploader old;
+        synchronized (HttpTransport.class) {
+            old = uploader;
+            if (old.concurrency() == concurrency) return;
+            uploader = new Uploader(concurrency);
+        }
+        // the old uploader is stopped after batches running on it are done
+        old.release();
+    }
+
+    static Transport transport() {
+        return transport;
+    }
+
+    static void setTransport(Transport transport) {
+        HttpTransport.transport = transport;
+    }
+
+    // number of GETs which were merged into a concurrent request of the same object
+    static long coalescedCount() {
+        return inFlight.mergedCount();
+    }
+
+    // open a connection. TLS connections use the default socket factory, which might be
+    // installed by application, e.g. for certificate pinning, and already caches TLS sessions.
+    private static HttpURLConnection open(URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    // finish a request, a connection is only reused if the request succeeded, otherwise it is
+    // disconnected, as draining a stalled or broken response would block for another timeout
+    private static void close(HttpURLConnection conn, boolean reusable) {
+        if (reusable) {
+            release(conn);
+        } else {
+            conn.disconnect();
+        }
+    }
+
+    // read and discard the rest of response body and then close it, so the connection can be
+    // reused by next request
+    private static void release(HttpURLConnection conn) {
+        InputStream in;
+        try {
+            in = conn.getInputStream();
+        } catch (IOException err) {
+            in = conn.getErrorStream();
+        }
+        if (in == null) return;
+
+        try {
+            byte[] buf = new byte[4096];
+            while (in.read(buf) >= 0) {
+                // discard
+            }
+        } catch (IOException ignored) {
+            // connection cannot be reused, it will be closed by the pool
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // read whole body into the thread's body buffer, the buffer grows if the body is larger than
+    // it, regardless of expected length which is -1 if unknown
+    static void readBody(InputStream in, long contentLength, Response ret) throws IOException {
+        byte[] buf = bodyBuf.get();
+
+        // reserve enough space upfront if body size is known
+        if (contentLength > buf.length && contentLength <= Integer.MAX_VALUE) {
+            buf = new byte[(int) contentLength];
+        }
+
+        int totalRead = 0;
+        while (true) {
+            if (totalRead == buf.length) {
+                // buffer is full, only grow it if there are more bytes
+                int next = in.read();
+                if (next < 0) break;
+                if (buf.length == Integer.MAX_VALUE) throw new IOException("Response too large");
+                int newLen = (int) Math.min((long) buf.length * 2, Integer.MAX_VALUE);
+                buf = Arrays.copyOf(buf, newLen);
+                buf[totalRead++] = (byte) next;
+            }
+            int read = in.read(buf, totalRead, buf.length - totalRead);
+            if (read < 0) break;
+            totalRead += read;
+        }
+
+        if (buf.length <= MAX_KEPT_BUF_SIZE) {
+            bodyBuf.set(buf);
+        }
+
+        ret.body = buf;
+        ret.len = totalRead;
+    }
+
+    // read up to len bytes into the thread's body buffer, stops early at end of stream
+    static void readFully(InputStream in, int len, Response ret) throws IOException {
+        byte[] buf = bodyBuf.get();
+        if (len > buf.length) buf = new byte[len];
+
+        int totalRead = 0;
+        while (totalRead < len) {
+            int read = in.read(buf, totalRead, len - totalRead);
+            if (read < 0) break;
+            totalRead += read;
+        }
+
+        if (buf.length <= MAX_KEPT_BUF_SIZE) {
+            bodyBuf.set(buf);
+        }
+
+        ret.body = buf;
+        ret.len = totalRead;
+    }
+
+    // skip bytes of stream, returns false if end of stream is reached first
+    static boolean skipFully(InputStream in, long len) throws IOException {
+        byte[] buf = null;
+        while (len > 0) {
+            long skipped = in.skip(len);
+            if (skipped <= 0) {
+                // skip() may not detect end of stream, so read instead
+                if (buf == null) buf = new byte[4096];
+                int read = in.read(buf, 0, (int) Math.min(buf.length, len));
+                if (read < 0) return false;
+                skipped = read;
+            }
+            len -= skipped;
+        }
+        return true;
+    }
+
+    // write remaining bytes of body in chunks, bytes of direct buffer are copied through a small
+    // per-thread array, so heap usage doesn't depend on body size
+    static void writeBody(OutputStream out, ByteBuffer body) throws IOException {
+        ByteBuffer src = body.duplicate();
+
+        if (src.hasArray()) {
+            byte[] arr = src.array();
+            int off = src.arrayOffset() + src.position();
+            int end = src.arrayOffset() + src.limit();
+            while (off < end) {
+                int len = Math.min(UPLOAD_CHUNK_SIZE, end - off);
+                out.write(arr, off, len);
+                off += len;
+            }
+            return;
+        }
+
+        byte[] chunk = uploadBuf.get();
+        while (src.hasRemaining()) {
+            int len = Math.min(chunk.length, src.remaining());
+            src.get(chunk, 0, len);
+            out.write(chunk, 0, len);
+        }
+    }
+
+    // value of Content-Length header, or -1 if it is absent or invalid
+    private static long contentLength(HttpURLConnection conn) {
+        String value = conn.getHeaderField("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException err) {
+            return -1;
+        }
+    }
+
+    private static void setHeaders(HttpURLConnection conn, Map<String, String> headers) {
         for (Map.Entry<String, String> ent : headers.entrySet()) {
             String key = ent.getKey();
             String value = ent.getValue();
@@ -33,17 +352,94 @@ class HttpTransport {
         }
     }
 
-    public static Response get(URL url, HashMap<String, String> headers) throws IOException {
-        HttpsURLConnection conn = null;
+    public static Response get(final URL url, final HashMap<String, String> headers)
+            throws IOException {
+        Response ret = new Response();
+        if (ObjectCache.get(url, ret)) return ret;
+
+        // concurrent requests of the same object share one fetch
+        return inFlight.get(url, headers, new SingleFlight.Fetch() {
+            @Override
+            public Response run() throws IOException {
+                // content is not cached if the object is uploaded or deleted meanwhile
+                try (ObjectCache.Download download = ObjectCache.download(url)) {
+                    Response resp = execute(url, new Attempt() {
+                        @Override
+                        public Response run() throws IOException {
+                            return transport.get(url, headers);
+                        }
+                    });
+                    if (resp.status == HttpURLConnection.HTTP_OK) {
+                        download.store(ByteBuffer.wrap(resp.body, 0, resp.len));
+                    }
+                    return resp;
+                }
+            }
+        });
+    }
+
+    // download len bytes of an object starting at offset. The response has status 206 and body
+    // holds the requested bytes, which are less than len if the range exceeds end of object, or
+    // status 416 if offset is beyond end of object.
+    public static Response get_range(final URL url, final HashMap<String, String> headers,
+                                     final long offset, final int len) throws IOException {
+        if (offset < 0 || len < 0) throw new IllegalArgumentException("Invalid range");
+        Response ret = new Response();
+        if (len == 0) {
+            ret.status = HttpURLConnection.HTTP_PARTIAL;
+            return ret;
+        }
+        if (ObjectCache.getRange(url, offset, len, ret)) return ret;
+
+        // merge concurrent requests of the same range only
+        HashMap<String, String> key = new HashMap<>(headers);
+        key.put("Range", rangeHeader(offset, len));
+
+        return inFlight.get(url, key, new SingleFlight.Fetch() {
+            @Override
+            public Response run() throws IOException {
+                return execute(url, new Attempt() {
+                    @Override
+                    public Response run() throws IOException {
+                        return transport.getRange(url, headers, offset, len);
+                    }
+                });
+            }
+        });
+    }
+
+    private static String rangeHeader(long offset, int len) {
+        return "bytes=" + offset + "-" + (offset + len - 1);
+    }
+
+    // start offset of Content-Range header, or -1 if it is absent or invalid
+    private static long contentRangeStart(HttpURLConnection conn) {
+        String value = conn.getHeaderField("Content-Range");
+        if (value == null) return -1;
+        value = value.trim();
+        if (!value.startsWith("bytes ")) return -1;
+        int end = value.indexOf('-');
+        if (end < 0) return -1;
+        try {
+            return Long.parseLong(value.substring(6, end).trim());
+        } catch (NumberFormatException err) {
+            return -1;
+        }
+    }
+
+    private static Response getOnce(URL url, Map<String, String> headers) throws IOException {
+        HttpURLConnection conn = null;
+        boolean ok = false;
         Response ret = new Response();
 
         try {
             // create connection
-            conn = (HttpsURLConnection) url.openConnection();
+            conn = open(url);
 
             // set connection properties
             conn.setRequestMethod("GET");
             conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(readTimeout);
             conn.setUseCaches(false);
             conn.setDoOutput(false);
             conn.setDoInput(true);
@@ -55,32 +451,69 @@ class HttpTransport {
             ret.status = conn.getResponseCode();
             // only process body when request succeed
             if (ret.status == HttpURLConnection.HTTP_OK) {
-                byte[] buf = transBuf;
+                readBody(conn.getInputStream(), contentLength(conn), ret);
+            }
+
+            ok = true;
+        } finally {
+            if (conn != null) {
+                close(conn, ok);
+            }
+        }
+
+        return ret;
+    }
+
+    private static Response getRangeOnce(URL url, Map<String, String> headers, long offset,
+                                         int len) throws IOException {
+        HttpURLConnection conn = null;
+        boolean ok = false;
+        boolean reusable = true;
+        Response ret = new Response();
+
+        try {
+            // create connection
+            conn = open(url);
+
+            // set connection properties
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(readTimeout);
+            conn.setUseCaches(false);
+            conn.setDoOutput(false);
+            conn.setDoInput(true);
+
+            // set HTTP headers
+            setHeaders(conn, headers);
+            conn.setRequestProperty("Range", rangeHeader(offset, len));
 
-                // in a very rare situation, the response body is larger than the transfer
-                // buffer, then we have to create a larger buffer
-                int contentLength = Integer.parseInt(conn.getHeaderField("Content-Length"));
-                if (contentLength > transBuf.length) {
-                    buf = new byte[contentLength];
+            // send request and get response status code
+            ret.status = conn.getResponseCode();
+
+            if (ret.status == HttpURLConnection.HTTP_PARTIAL) {
+                if (contentRangeStart(conn) != offset) {
+                    throw new IOException("Unexpected Content-Range: "
+                            + conn.getHeaderField("Content-Range"));
                 }
+                readFully(conn.getInputStream(), len, ret);
 
-                // get response body and read it all to transfer buffer
+            } else if (ret.status == HttpURLConnection.HTTP_OK) {
+                // server doesn't support range, take the range from whole object and don't
+                // download the rest of it
+                reusable = false;
                 InputStream in = conn.getInputStream();
-                int read = in.read(buf);
-                int totalRead = 0;
-                while (read > 0) {
-                    totalRead += read;
-                    read = in.read(buf, totalRead, buf.length - totalRead);
+                if (skipFully(in, offset)) {
+                    ret.status = HttpURLConnection.HTTP_PARTIAL;
+                    readFully(in, len, ret);
+                } else {
+                    ret.status = 416;
                 }
-                in.close();
-
-                ret.body = buf;
-                ret.len = totalRead;
             }
 
+            ok = true;
         } finally {
             if (conn != null) {
-                conn.disconnect();
+                close(conn, ok && reusable);
             }
         }
 
@@ -88,54 +521,104 @@ class HttpTransport {
     }
 
     public static Response put(URL url, HashMap<String, String> headers, byte[] body) throws IOException {
-        HttpsURLConnection conn = null;
+        return put(url, headers, ByteBuffer.wrap(body));
+    }
+
+    // upload remaining bytes of body, which can be a direct buffer passed from native side
+    public static Response put(final URL url, final HashMap<String, String> headers,
+                               final ByteBuffer body) throws IOException {
+        Response ret;
+        try {
+            ret = execute(url, new Attempt() {
+                @Override
+                public Response run() throws IOException {
+                    return transport.put(url, headers, body);
+                }
+            });
+        } catch (IOException err) {
+            ObjectCache.remove(url);
+            throw err;
+        }
+
+        // write through to cache, or drop cached object as its remote state is unknown
+        if (ret.status / 100 == 2) {
+            ObjectCache.put(url, body);
+        } else {
+            ObjectCache.remove(url);
+        }
+        return ret;
+    }
+
+    private static Response putOnce(URL url, Map<String, String> headers, ByteBuffer body)
+            throws IOException {
+        HttpURLConnection conn = null;
+        boolean ok = false;
         Response ret = new Response();
 
         try {
             // create connection
-            conn = (HttpsURLConnection) url.openConnection();
+            conn = open(url);
 
             // set connection properties
             conn.setRequestMethod("PUT");
             conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(readTimeout);
             conn.setUseCaches(false);
             conn.setDoOutput(true);
-            conn.setDoInput(false);
+            conn.setDoInput(true);
+
+            // stream body without buffering it again
+            conn.setFixedLengthStreamingMode((long) body.remaining());
 
             // set HTTP headers
             setHeaders(conn, headers);
 
             // write body
             OutputStream out = conn.getOutputStream();
-            out.write(body);
+            writeBody(out, body);
             out.close();
 
             // send request and get response status code
             ret.status = conn.getResponseCode();
 
+            ok = true;
         } finally {
             if (conn != null) {
-                conn.disconnect();
+                close(conn, ok);
             }
         }
 
         return ret;
     }
 
-    public static Response delete(URL url, HashMap<String, String> headers) throws IOException {
-        HttpsURLConnection conn = null;
+    public static Response delete(final URL url, final HashMap<String, String> headers)
+            throws IOException {
+        ObjectCache.remove(url);
+        return execute(url, new Attempt() {
+            @Override
+            public Response run() throws IOException {
+                return transport.delete(url, headers);
+            }
+        });
+    }
+
+    private static Response deleteOnce(URL url, Map<String, String> headers)
+            throws IOException {
+        HttpURLConnection conn = null;
+        boolean ok = false;
         Response ret = new Response();
 
         try {
             // create connection
-            conn = (HttpsURLConnection) url.openConnection();
+            conn = open(url);
 
             // set connection properties
             conn.setRequestMethod("DELETE");
             conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(readTimeout);
             conn.setUseCaches(false);
             conn.setDoOutput(false);
-            conn.setDoInput(false);
+            conn.setDoInput(true);
 
             // set HTTP headers
             setHeaders(conn, headers);
@@ -143,9 +626,10 @@ class HttpTransport {
             // send request and get response status code
             ret.status = conn.getResponseCode();
 
+            ok = true;
         } finally {
             if (conn != null) {
-                conn.disconnect();
+                close(conn, ok);
             }
         }
 
@@ -153,37 +637,86 @@ class HttpTransport {
     }
 
     public static Response delete_bulk(URL url, HashMap<String, String> headers, byte[] body) throws IOException {
-        HttpsURLConnection conn = null;
+        return delete_bulk(url, headers, ByteBuffer.wrap(body));
+    }
+
+    public static Response delete_bulk(final URL url, final HashMap<String, String> headers,
+                                       final ByteBuffer body) throws IOException {
+        // deleted object keys are in the body, so drop all cached objects under the same path
+        ObjectCache.removeSiblings(url);
+        return execute(url, new Attempt() {
+            @Override
+            public Response run() throws IOException {
+                return transport.deleteBulk(url, headers, body);
+            }
+        });
+    }
+
+    private static Response deleteBulkOnce(URL url, Map<String, String> headers,
+                                           ByteBuffer body) throws IOException {
+        HttpURLConnection conn = null;
+        boolean ok = false;
         Response ret = new Response();
 
         try {
             // create connection
-            conn = (HttpsURLConnection) url.openConnection();
+            conn = open(url);
 
             // set connection properties
             conn.setRequestMethod("DELETE");
             conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(readTimeout);
             conn.setUseCaches(false);
             conn.setDoOutput(true);
-            conn.setDoInput(false);
+            conn.setDoInput(true);
+
+            // stream body without buffering it again
+            conn.setFixedLengthStreamingMode((long) body.remaining());
 
             // set HTTP headers
             setHeaders(conn, headers);
 
             // write body
             OutputStream out = conn.getOutputStream();
-            out.write(body);
+            writeBody(out, body);
             out.close();
 
             // send request and get response status code
             ret.status = conn.getResponseCode();
 
+            ok = true;
         } finally {
             if (conn != null) {
-                conn.disconnect();
+                close(conn, ok);
             }
         }
 
         return ret;
     }
+
+    // upload a batch of objects in parallel, responses are returned in the same order as the
+    // requests and only after all of them are done. Each object is uploaded by a single PUT as
+    // put() does, so objects become visible individually and commit semantics are unchanged.
+    public static Response[] put_batch(URL[] urls, HashMap<String, String>[] headers,
+                                       byte[][] bodies) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            bufs[i] = ByteBuffer.wrap(bodies[i]);
+        }
+        return put_batch(urls, headers, bufs);
+    }
+
+    public static Response[] put_batch(URL[] urls, HashMap<String, String>[] headers,
+                                       ByteBuffer[] bodies) throws IOException {
+        Uploader up;
+        synchronized (HttpTransport.class) {
+            up = uploader;
+            up.acquire();
+        }
+        try {
+            return up.putAll(urls, headers, bodies);
+        } finally {
+            up.release();
+        }
+    }
 }
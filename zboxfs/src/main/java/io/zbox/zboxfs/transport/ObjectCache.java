@@ -0,0 +1,528 @@
+package io.zbox.zboxfs.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide on-device cache of remote storage objects.
+ *
+ * <p>When enabled, objects downloaded from remote storage of {@code "zbox://"} repos are kept in
+ * files under a local directory, so re-opening a repo and re-reading files are served from local
+ * storage without network round trips. Uploaded objects are written through to the cache, and
+ * deleted objects are removed from it. When the total size of cached objects exceeds the
+ * capacity, the least recently used objects are evicted.</p>
+ *
+ * <p>Objects are stored encrypted exactly as they are in remote storage, so cached files don't
+ * expose repo content. Cached objects persist across process restarts and are reused when the
+ * cache is enabled again on the same directory.</p>
+ *
+ * <p>The cache assumes a repo is only modified through this device while the cache is used, if
+ * it might be modified elsewhere, call {@link #clear()} before opening it.</p>
+ *
+ * <p>The cache is disabled by default. Use {@link #enable(File, long)} to enable it.</p>
+ *
+ * <h3>Example</h3>
+ *
+ * <blockquote><pre>
+ * // use up to 256 MiB of app's cache directory for remote objects
+ * ObjectCache.enable(new File(context.getCacheDir(), "zboxfs"), 256 * 1024 * 1024);
+ * </pre></blockquote>
+ *
+ * @author Bo Lu
+ */
+public final class ObjectCache {
+
+    // magic number at the beginning of each cached object file
+    private static final int MAGIC = 0x7a626f63;
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final Object lock = new Object();
+
+    // cached objects in access order, keyed by object key, guarded by lock
+    private static final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    // cache directory, null if cache is disabled, only changed with lock held
+    private static volatile File dir = null;
+
+    // capacity and used size in bytes, guarded by lock
+    private static long capacity = 0;
+    private static long size = 0;
+
+    // sequence number of temporary files
+    private static final AtomicLong tmpSeq = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // a cached object file
+    private static final class Entry {
+        final File file;
+        final long size;
+
+        Entry(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    // generation of an object being downloaded, bumped whenever the object is uploaded or
+    // removed, guarded by lock
+    private static final class Generation {
+        long value = 0;
+
+        // number of downloads of the object in progress
+        int refs = 0;
+    }
+
+    // generations of objects being downloaded, guarded by lock
+    private static final HashMap<String, Generation> downloads = new HashMap<>();
+
+    // a download of an object from remote storage. Its content is only cached if the object is
+    // neither uploaded nor removed while it is downloaded, otherwise it might be stale.
+    static final class Download implements AutoCloseable {
+        private final String key;
+        private final Generation gen;
+        private final long start;
+
+        private Download(String key, Generation gen) {
+            this.key = key;
+            this.gen = gen;
+            this.start = gen.value;
+        }
+
+        // store the downloaded object
+        void store(ByteBuffer body) {
+            put(key, body, gen, start);
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                if (--gen.refs == 0) downloads.remove(key);
+            }
+        }
+    }
+
+    private ObjectCache() {
+    }
+
+    /**
+     * Enable the cache using a directory with the specified capacity.
+     *
+     * <p>Objects already cached in the directory are reused. If the cache is already enabled on
+     * another directory, it is switched to the new one and the old directory is left untouched.
+     * </p>
+     *
+     * @param dir      the cache directory, which is created if it doesn't exist
+     * @param capacity cache capacity in bytes, must be positive
+     * @throws IOException if the directory cannot be created
+     */
+    public static void enable(File dir, long capacity) throws IOException {
+        if (dir == null) throw new NullPointerException();
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + dir);
+        }
+
+        synchronized (lock) {
+            if (!dir.equals(ObjectCache.dir)) {
+                entries.clear();
+                size = 0;
+                load(dir);
+                ObjectCache.dir = dir;
+            }
+            ObjectCache.capacity = capacity;
+            evict();
+        }
+    }
+
+    /**
+     * Disable the cache.
+     *
+     * <p>Cached objects are kept in the cache directory and can be reused when the cache is
+     * enabled again.</p>
+     */
+    public static void disable() {
+        synchronized (lock) {
+            dir = null;
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Check if the cache is enabled.
+     *
+     * @return {@code true} if the cache is enabled
+     */
+    public static boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     * Get cache capacity in bytes.
+     *
+     * @return cache capacity in bytes, {@code 0} if cache is disabled
+     */
+    public static long capacity() {
+        synchronized (lock) {
+            return dir == null ? 0 : capacity;
+        }
+    }
+
+    /**
+     * Get number of bytes used by cached objects.
+     *
+     * @return number of bytes used by cached objects
+     */
+    public static long size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * Get number of object downloads served by cache.
+     *
+     * @return number of cache hits
+     */
+    public static long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get number of object downloads which had to go to remote storage.
+     *
+     * @return number of cache misses
+     * @see Transports#coalescedCount()
+     */
+    public static long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all cached objects.
+     */
+    public static void clear() {
+        synchronized (lock) {
+            for (Entry ent : entries.values()) {
+                delete(ent.file);
+            }
+            entries.clear();
+            size = 0;
+            bumpAll("");
+        }
+    }
+
+    // start downloading an object, the download must be closed when it is finished
+    static Download download(URL url) {
+        String key = key(url);
+        synchronized (lock) {
+            Generation gen = downloads.get(key);
+            if (gen == null) {
+                gen = new Generation();
+                downloads.put(key, gen);
+            }
+            gen.refs++;
+            return new Download(key, gen);
+        }
+    }
+
+    // read a cached object into response, returns false if it is not cached
+    static boolean get(URL url, Response ret) {
+        if (dir == null) return false;
+
+        String key = key(url);
+        Entry ent;
+        synchronized (lock) {
+            ent = entries.get(key);
+        }
+        if (ent == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        // the file might be evicted concurrently, treat it as a miss
+        try (InputStream in = open(ent, key)) {
+            long len = ent.size - headerSize(key);
+            HttpTransport.readBody(in, len, ret);
+            if (ret.len != len) throw new IOException("Truncated cached object");
+        } catch (IOException err) {
+            remove(key);
+            misses.incrementAndGet();
+            return false;
+        }
+
+        ret.status = HttpURLConnection.HTTP_OK;
+        hits.incrementAndGet();
+        ent.file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    // read a range of a cached object into response, returns false if it is not cached
+    static boolean getRange(URL url, long offset, int len, Response ret) {
+        if (dir == null) return false;
+
+        String key = key(url);
+        Entry ent;
+        synchronized (lock) {
+            ent = entries.get(key);
+        }
+        if (ent == null) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        long objLen = ent.size - headerSize(key);
+        try (InputStream in = open(ent, key)) {
+            if (offset >= objLen) {
+                ret.status = 416;
+                ret.len = 0;
+            } else {
+                int expected = (int) Math.min(len, objLen - offset);
+                if (!HttpTransport.skipFully(in, offset)) {
+                    throw new IOException("Truncated cached object");
+                }
+                HttpTransport.readFully(in, expected, ret);
+                if (ret.len != expected) throw new IOException("Truncated cached object");
+                ret.status = HttpURLConnection.HTTP_PARTIAL;
+            }
+        } catch (IOException err) {
+            remove(key);
+            misses.incrementAndGet();
+            return false;
+        }
+
+        hits.incrementAndGet();
+        ent.file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    // store an uploaded object, failure is ignored as cache is only an optimization
+    static void put(URL url, ByteBuffer body) {
+        put(key(url), body, null, 0);
+    }
+
+    // store an object, a downloaded one is skipped if its generation has changed since start
+    private static void put(String key, ByteBuffer body, Generation gen, long start) {
+        File cacheDir = dir;
+        if (cacheDir == null) return;
+
+        File file = new File(cacheDir, fileName(key));
+        File tmp = new File(cacheDir, file.getName() + "." + tmpSeq.incrementAndGet() + TMP_SUFFIX);
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeUTF(key);
+                HttpTransport.writeBody(out, body);
+            }
+
+            synchronized (lock) {
+                // cache might be disabled or switched while writing
+                if (dir != cacheDir) {
+                    delete(tmp);
+                    return;
+                }
+                if (gen == null) {
+                    // downloads in progress might have got the previous content
+                    bump(key);
+                } else if (gen.value != start) {
+                    delete(tmp);
+                    return;
+                }
+                if (!tmp.renameTo(file)) {
+                    delete(tmp);
+                    remove(key);
+                    return;
+                }
+                Entry old = entries.put(key, new Entry(file, file.length()));
+                if (old != null) size -= old.size;
+                size += file.length();
+                evict();
+            }
+        } catch (IOException err) {
+            // don't keep the previous content of the object
+            delete(tmp);
+            remove(key);
+        }
+    }
+
+    // remove an object
+    static void remove(URL url) {
+        if (dir == null) return;
+        remove(key(url));
+    }
+
+    // remove all objects under the url's parent path, used when objects are removed in bulk and
+    // their keys are unknown
+    static void removeSiblings(URL url) {
+        if (dir == null) return;
+        String key = key(url);
+        String prefix = key.substring(0, key.lastIndexOf('/') + 1);
+        synchronized (lock) {
+            bumpAll(prefix);
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> ent = it.next();
+                if (ent.getKey().startsWith(prefix)) {
+                    delete(ent.getValue().file);
+                    size -= ent.getValue().size;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static void remove(String key) {
+        synchronized (lock) {
+            bump(key);
+            Entry ent = entries.remove(key);
+            if (ent != null) {
+                delete(ent.file);
+                size -= ent.size;
+            }
+        }
+    }
+
+    // bump generation of an object being downloaded, must be called with lock held
+    private static void bump(String key) {
+        Generation gen = downloads.get(key);
+        if (gen != null) gen.value++;
+    }
+
+    // bump generations of all objects being downloaded whose keys start with prefix, must be
+    // called with lock held
+    private static void bumpAll(String prefix) {
+        for (Map.Entry<String, Generation> ent : downloads.entrySet()) {
+            if (ent.getKey().startsWith(prefix)) ent.getValue().value++;
+        }
+    }
+
+    // open a cached object file positioned at start of object body
+    private static InputStream open(Entry ent, String key) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(ent.file));
+        try {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != MAGIC || !data.readUTF().equals(key)) {
+                throw new IOException("Invalid cached object " + ent.file);
+            }
+            return in;
+        } catch (IOException err) {
+            in.close();
+            throw err;
+        }
+    }
+
+    // object key, query string is excluded as it may contain credentials
+    private static String key(URL url) {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port + url.getPath();
+    }
+
+    // size of header written before object body
+    private static long headerSize(String key) {
+        return 4 + 2 + key.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static String fileName(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder ret = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                ret.append(Character.forDigit((b >> 4) & 0xf, 16));
+                ret.append(Character.forDigit(b & 0xf, 16));
+            }
+            return ret.toString();
+        } catch (NoSuchAlgorithmException err) {
+            throw new IllegalStateException(err);
+        }
+    }
+
+    // load index of objects cached in directory, least recently used first, must be called with
+    // lock held
+    private static void load(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        List<File> list = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(list, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long ta = a.lastModified();
+                long tb = b.lastModified();
+                return ta < tb ? -1 : (ta == tb ? 0 : 1);
+            }
+        });
+
+        for (File file : list) {
+            if (!file.isFile()) continue;
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                // left by interrupted write
+                delete(file);
+                continue;
+            }
+            String key = readKey(file);
+            if (key == null || !file.getName().equals(fileName(key))) {
+                delete(file);
+                continue;
+            }
+            entries.put(key, new Entry(file, file.length()));
+            size += file.length();
+        }
+    }
+
+    private static String readKey(File file) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) return null;
+            return in.readUTF();
+        } catch (IOException err) {
+            return null;
+        }
+    }
+
+    // evict least recently used objects until size is within capacity, must be called with lock
+    // held
+    private static void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > capacity && it.hasNext()) {
+            Entry ent = it.next();
+            delete(ent.file);
+            size -= ent.size;
+            it.remove();
+        }
+    }
+
+    private static void delete(File file) {
+        // failure is ignored, as cache is only an optimization
+        file.delete();
+    }
+}
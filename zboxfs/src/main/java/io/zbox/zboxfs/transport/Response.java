@@ -1,14 +1,70 @@
 package io.zbox.zboxfs.transport;
 
-// HTTP response wrapper
-class Response {
+/**
+ * Response of a remote storage request.
+ *
+ * @author Bo Lu
+ * @see Transport
+ */
+public final class Response {
 
     // response status code
     int status = 0;
 
-    // response body
+    // response body, it is the calling thread's transfer buffer which is reused by the thread's
+    // next request, so it must be consumed before that. Responses of merged requests share a copy
+    // of the body, which must not be modified.
     byte[] body = null;
 
     // response body length
     int len = 0;
+
+    Response() {
+    }
+
+    /**
+     * Create a response.
+     *
+     * @param status the HTTP status code
+     * @param body   the buffer holds response body, can be {@code null} if there is no body
+     * @param len    length of response body in the buffer
+     */
+    public Response(int status, byte[] body, int len) {
+        if (len < 0 || len > (body == null ? 0 : body.length)) {
+            throw new IllegalArgumentException("Invalid body length");
+        }
+        this.status = status;
+        this.body = body;
+        this.len = len;
+    }
+
+    /**
+     * Get HTTP status code.
+     *
+     * @return the status code
+     */
+    public int status() {
+        return status;
+    }
+
+    /**
+     * Get the buffer holds response body.
+     *
+     * <p>Only the first {@link #len()} bytes are body content. The buffer may be reused by the
+     * next request on the same thread, so its content must be consumed before that.</p>
+     *
+     * @return the body buffer, or {@code null} if there is no body
+     */
+    public byte[] body() {
+        return body;
+    }
+
+    /**
+     * Get length of response body.
+     *
+     * @return the body length
+     */
+    public int len() {
+        return len;
+    }
 }
@@ -0,0 +1,65 @@
+package io.zbox.zboxfs.transport;
+
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+// Retry policy of idempotent requests. Delay before each retry grows exponentially from the base
+// delay up to the max delay, and a random delay between zero and that is used ("full jitter"), so
+// clients failed at the same time don't retry at the same time.
+class RetryPolicy {
+
+    // default max number of retries after the first attempt
+    static final int DEFAULT_MAX_RETRIES = 3;
+
+    // default base delay, in ms
+    static final int DEFAULT_BASE_DELAY = 100;
+
+    // default max delay, in ms
+    static final int DEFAULT_MAX_DELAY = 2000;
+
+    private static final Random random = new Random();
+
+    final int maxRetries;
+    final int baseDelay;
+    final int maxDelay;
+
+    RetryPolicy(int maxRetries, int baseDelay, int maxDelay) {
+        if (maxRetries < 0 || baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Invalid retry policy");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    // whether a request can be retried after the specified number of retries
+    boolean canRetry(int retries) {
+        return retries < maxRetries;
+    }
+
+    // delay before the specified retry, starts from 0
+    long delay(int retry) {
+        long cap = Math.min((long) baseDelay << Math.min(retry, 30), (long) maxDelay);
+        if (cap <= 0) return 0;
+        synchronized (random) {
+            return (long) (random.nextDouble() * (cap + 1));
+        }
+    }
+
+    // sleep before the specified retry
+    void backoff(int retry) throws InterruptedIOException {
+        long delay = delay(retry);
+        if (delay <= 0) return;
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    // responses which indicate transient server failure
+    static boolean isRetryable(int status) {
+        return status >= 500 || status == 429;
+    }
+}
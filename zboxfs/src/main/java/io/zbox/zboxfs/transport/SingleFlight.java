@@ -0,0 +1,142 @@
+package io.zbox.zboxfs.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Deduplicates concurrent GETs of the same object. The first request of an object is sent and
+// requests of the same url and headers arriving while it is in flight wait for it and share its
+// response instead of being sent again.
+class SingleFlight {
+
+    // a request whose response is shared by others
+    interface Fetch {
+        Response run() throws IOException;
+    }
+
+    // key of an in-flight request
+    private static final class Key {
+        final String url;
+        final Map<String, String> headers;
+
+        Key(URL url, Map<String, String> headers) {
+            this.url = url.toExternalForm();
+            this.headers = new HashMap<>(headers);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key other = (Key) obj;
+            return url.equals(other.url) && headers.equals(other.headers);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * url.hashCode() + headers.hashCode();
+        }
+    }
+
+    // an in-flight request
+    private static final class Flight {
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // number of merged requests waiting for this one, guarded by flights
+        int waiters = 0;
+
+        // shared result, set before done is counted down
+        Response resp;
+        Throwable error;
+    }
+
+    private final Map<Key, Flight> flights = new HashMap<>();
+    private final AtomicLong merged = new AtomicLong();
+
+    // number of requests which were served by another in-flight request
+    long mergedCount() {
+        return merged.get();
+    }
+
+    Response get(URL url, HashMap<String, String> headers, Fetch fetch) throws IOException {
+        Key key = new Key(url, headers);
+        Flight flight;
+        boolean leader = false;
+
+        synchronized (flights) {
+            flight = flights.get(key);
+            if (flight == null) {
+                flight = new Flight();
+                flights.put(key, flight);
+                leader = true;
+            } else {
+                flight.waiters++;
+            }
+        }
+
+        if (!leader) {
+            merged.incrementAndGet();
+            return await(flight);
+        }
+
+        Response ret = null;
+        Throwable error = null;
+        try {
+            ret = fetch.run();
+            return ret;
+        } catch (IOException | RuntimeException err) {
+            error = err;
+            throw err;
+        } finally {
+            land(key, flight, ret, error);
+        }
+    }
+
+    // publish result of the leading request to merged requests
+    private void land(Key key, Flight flight, Response resp, Throwable error) {
+        int waiters;
+        synchronized (flights) {
+            flights.remove(key);
+            waiters = flight.waiters;
+        }
+
+        if (waiters > 0) {
+            if (resp != null) {
+                // the leader's body is its thread's buffer which is reused by its next request,
+                // so merged requests share a copy of it
+                Response shared = new Response();
+                shared.status = resp.status;
+                shared.len = resp.len;
+                if (resp.body != null) shared.body = Arrays.copyOf(resp.body, resp.len);
+                flight.resp = shared;
+            } else {
+                flight.error = error;
+            }
+        }
+        flight.done.countDown();
+    }
+
+    private static Response await(Flight flight) throws IOException {
+        try {
+            flight.done.await();
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for merged request");
+        }
+
+        if (flight.resp == null) {
+            Throwable err = flight.error;
+            throw new IOException(err == null ? "Merged request failed" : err.toString(), err);
+        }
+
+        Response ret = new Response();
+        ret.status = flight.resp.status;
+        ret.body = flight.resp.body;
+        ret.len = flight.resp.len;
+        return ret;
+    }
+}
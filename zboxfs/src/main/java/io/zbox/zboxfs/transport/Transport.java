@@ -0,0 +1,94 @@
+package io.zbox.zboxfs.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Transport of requests to remote storage of {@code "zbox://"} repos.
+ *
+ * <p>A transport sends a single request and returns its response. Retry with backoff, circuit
+ * breaking, {@link ObjectCache caching}, merging of concurrent requests and parallel uploads are
+ * applied on top of it, so an implementation only needs to talk to the storage service. The
+ * default transport sends requests through {@link java.net.HttpURLConnection} with persistent
+ * connections.</p>
+ *
+ * <p>A custom transport can be used to route requests through another HTTP client, or to mock or
+ * measure remote storage access. It is set by {@link io.zbox.zboxfs.Env#init(String, Transport)}
+ * and must be thread safe, as requests are sent from multiple threads in parallel.</p>
+ *
+ * @author Bo Lu
+ * @see Transports
+ */
+public interface Transport {
+
+    /**
+     * Download an object.
+     *
+     * <p>Body of the returned response is only used when status is {@code 200}.</p>
+     *
+     * @param url     the object url
+     * @param headers request headers
+     * @return the response
+     * @throws IOException if the request cannot be sent or its response cannot be received
+     */
+    Response get(URL url, Map<String, String> headers) throws IOException;
+
+    /**
+     * Download a range of an object.
+     *
+     * <p>If the range is served, status of the returned response is {@code 206} and its body
+     * holds the bytes starting at {@code offset}, which are less than {@code len} only if the
+     * range exceeds end of the object. If {@code offset} is beyond end of the object, status is
+     * {@code 416}.</p>
+     *
+     * @param url     the object url
+     * @param headers request headers, not including {@code Range}
+     * @param offset  offset of the first byte, not negative
+     * @param len     number of bytes, positive
+     * @return the response
+     * @throws IOException if the request cannot be sent or its response cannot be received
+     */
+    Response getRange(URL url, Map<String, String> headers, long offset, int len)
+            throws IOException;
+
+    /**
+     * Upload an object.
+     *
+     * <p>The remaining bytes of {@code body} are uploaded, the buffer position must not be
+     * changed.</p>
+     *
+     * @param url     the object url
+     * @param headers request headers
+     * @param body    the object content
+     * @return the response
+     * @throws IOException if the request cannot be sent or its response cannot be received
+     */
+    Response put(URL url, Map<String, String> headers, ByteBuffer body) throws IOException;
+
+    /**
+     * Delete an object.
+     *
+     * @param url     the object url
+     * @param headers request headers
+     * @return the response
+     * @throws IOException if the request cannot be sent or its response cannot be received
+     */
+    Response delete(URL url, Map<String, String> headers) throws IOException;
+
+    /**
+     * Delete multiple objects listed in the request body.
+     *
+     * <p>The remaining bytes of {@code body} are sent, the buffer position must not be changed.
+     * </p>
+     *
+     * @param url     the bulk delete url
+     * @param headers request headers
+     * @param body    the request body listing the objects
+     * @return the response
+     * @throws IOException if the request cannot be sent or its response cannot be received
+     */
+    Response deleteBulk(URL url, Map<String, String> headers, ByteBuffer body)
+            throws IOException;
+}
@@ -0,0 +1,144 @@
+package io.zbox.zboxfs.transport;
+
+/**
+ * Selects the {@link Transport} used by remote repos and configures how their requests are sent.
+ *
+ * <p>The transport is normally set once by {@link io.zbox.zboxfs.Env#init(String, Transport)},
+ * before any remote repo is opened. Read timeout, retry policy and upload concurrency can be
+ * changed at any time and apply to requests sent afterwards.</p>
+ *
+ * @author Bo Lu
+ */
+public final class Transports {
+
+    /**
+     * Default timeout of waiting for response data, in milliseconds.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = HttpTransport.DEFAULT_READ_TIMEOUT;
+
+    /**
+     * Default max number of retries of a failed request.
+     */
+    public static final int DEFAULT_MAX_RETRIES = RetryPolicy.DEFAULT_MAX_RETRIES;
+
+    /**
+     * Default base delay before retrying a failed request, in milliseconds.
+     */
+    public static final int DEFAULT_RETRY_BASE_DELAY = RetryPolicy.DEFAULT_BASE_DELAY;
+
+    /**
+     * Default max delay before retrying a failed request, in milliseconds.
+     */
+    public static final int DEFAULT_RETRY_MAX_DELAY = RetryPolicy.DEFAULT_MAX_DELAY;
+
+    /**
+     * Default max number of objects of a batch uploaded in parallel.
+     */
+    public static final int DEFAULT_UPLOAD_CONCURRENCY = Uploader.DEFAULT_CONCURRENCY;
+
+    private Transports() {
+    }
+
+    /**
+     * Get the default transport, which sends requests through
+     * {@link java.net.HttpURLConnection} with persistent connections.
+     *
+     * <p>It can be wrapped by a custom transport, for example to measure requests.</p>
+     *
+     * @return the default transport
+     */
+    public static Transport defaultTransport() {
+        return HttpTransport.DEFAULT_TRANSPORT;
+    }
+
+    /**
+     * Get the transport currently used.
+     *
+     * @return the current transport
+     */
+    public static Transport current() {
+        return HttpTransport.transport();
+    }
+
+    /**
+     * Set the transport used by remote repos.
+     *
+     * <p>Requests already in flight are not affected.</p>
+     *
+     * @param transport the transport, {@code null} to use the default transport
+     */
+    public static void set(Transport transport) {
+        HttpTransport.setTransport(transport == null ? HttpTransport.DEFAULT_TRANSPORT : transport);
+    }
+
+    /**
+     * Set timeout of waiting for response data of remote storage requests.
+     *
+     * <p>A request whose response stalls longer than this fails and is retried according to the
+     * retry policy. It applies to the default transport and to requests sent after this call.
+     * Default is {@link #DEFAULT_READ_TIMEOUT}.</p>
+     *
+     * @param millis timeout in milliseconds, {@code 0} means no timeout
+     * @throws IllegalArgumentException if timeout is negative
+     */
+    public static void setReadTimeout(int millis) {
+        if (millis < 0) throw new IllegalArgumentException("Read timeout must not be negative");
+        HttpTransport.setReadTimeout(millis);
+    }
+
+    /**
+     * Set retry policy of failed remote storage requests.
+     *
+     * <p>Requests failed by IO error or by transient server error, i.e. status {@code 5xx} or
+     * {@code 429}, are retried up to {@code maxRetries} times. Delay before each retry doubles
+     * from {@code baseDelay} up to {@code maxDelay}, and a random delay up to that is used.
+     * Defaults are {@link #DEFAULT_MAX_RETRIES}, {@link #DEFAULT_RETRY_BASE_DELAY} and
+     * {@link #DEFAULT_RETRY_MAX_DELAY}.</p>
+     *
+     * @param maxRetries max number of retries after the first attempt, {@code 0} disables retry
+     * @param baseDelay  base delay before retry, in milliseconds
+     * @param maxDelay   max delay before retry, in milliseconds, must not be less than
+     *                   {@code baseDelay}
+     * @throws IllegalArgumentException if any argument is invalid
+     */
+    public static void setRetryPolicy(int maxRetries, int baseDelay, int maxDelay) {
+        if (maxRetries < 0) throw new IllegalArgumentException("Max retries must not be negative");
+        if (baseDelay < 0) throw new IllegalArgumentException("Base delay must not be negative");
+        if (maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Max delay must not be less than base delay");
+        }
+        HttpTransport.setRetryPolicy(maxRetries, baseDelay, maxDelay);
+    }
+
+    /**
+     * Set max number of objects of a batch uploaded in parallel.
+     *
+     * <p>It should not exceed the number of idle connections the platform connection pool keeps
+     * per host, which is 5 by default, otherwise extra connections cannot be reused. Batches
+     * already running are not affected. Default is {@link #DEFAULT_UPLOAD_CONCURRENCY}.</p>
+     *
+     * <p><b>Note:</b> this only applies to the batch upload entry point of the transport layer,
+     * which the bundled native library doesn't call yet. Until it does, objects are uploaded one
+     * at a time and this setting has no effect on repos.</p>
+     *
+     * @param concurrency max number of parallel uploads, must be positive
+     * @throws IllegalArgumentException if concurrency is not positive
+     */
+    public static void setUploadConcurrency(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Upload concurrency must be positive");
+        }
+        HttpTransport.setUploadConcurrency(concurrency);
+    }
+
+    /**
+     * Get number of object downloads which were merged into a concurrent download of the same
+     * object, rather than being sent to remote storage again.
+     *
+     * @return number of merged downloads
+     * @see ObjectCache#hitCount()
+     */
+    public static long coalescedCount() {
+        return HttpTransport.coalescedCount();
+    }
+}
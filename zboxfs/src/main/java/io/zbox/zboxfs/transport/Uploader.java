@@ -0,0 +1,117 @@
+package io.zbox.zboxfs.transport;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs object PUTs of a batch in parallel with bounded concurrency. Each upload runs on its own
+// pooled connection, and responses are returned in submission order. An uploader replaced by
+// another one keeps its threads until batches running on it are done.
+class Uploader {
+
+    // default number of concurrent uploads
+    static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final AtomicInteger threadNum = new AtomicInteger();
+
+    private final int concurrency;
+    private final ExecutorService pool;
+
+    // number of batches running, plus one while it is the current uploader, guarded by this
+    private int refs = 1;
+
+    Uploader(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("Concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        this.pool = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread ret = new Thread(task, "zboxfs-upload-" + threadNum.incrementAndGet());
+                ret.setDaemon(true);
+                return ret;
+            }
+        });
+    }
+
+    int concurrency() {
+        return concurrency;
+    }
+
+    // take a reference before running a batch
+    synchronized void acquire() {
+        refs++;
+    }
+
+    // drop a reference, threads are stopped once no batch is running and it is retired
+    void release() {
+        boolean idle;
+        synchronized (this) {
+            idle = --refs == 0;
+        }
+        if (idle) pool.shutdown();
+    }
+
+    // upload all bodies and return responses in submission order, a reference must be held. It
+    // returns only after all uploads are done, if any upload failed, the error of the first
+    // failed one is thrown.
+    Response[] putAll(URL[] urls, HashMap<String, String>[] headers, ByteBuffer[] bodies)
+            throws IOException {
+        if (urls.length != headers.length || urls.length != bodies.length) {
+            throw new IllegalArgumentException("Batch arrays must have same length");
+        }
+
+        List<Future<Response>> futures = new ArrayList<>(urls.length);
+        for (int i = 0; i < urls.length; i++) {
+            final URL url = urls[i];
+            final HashMap<String, String> hdrs = headers[i];
+            final ByteBuffer body = bodies[i];
+            futures.add(pool.submit(new Callable<Response>() {
+                @Override
+                public Response call() throws IOException {
+                    return HttpTransport.put(url, hdrs, body);
+                }
+            }));
+        }
+
+        Response[] ret = new Response[urls.length];
+        IOException error = null;
+        boolean interrupted = false;
+
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Response> future = futures.get(i);
+            while (true) {
+                try {
+                    ret[i] = future.get();
+                    break;
+                } catch (InterruptedException err) {
+                    // keep waiting, uploads must not outlive the batch
+                    interrupted = true;
+                } catch (ExecutionException err) {
+                    if (error == null) error = toIOException(err.getCause());
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
+        if (error != null) throw error;
+        return ret;
+    }
+
+    private static IOException toIOException(Throwable err) {
+        if (err instanceof IOException) return (IOException) err;
+        return new IOException(err.toString(), err);
+    }
+}
@@ -0,0 +1,111 @@
+package io.zbox.zboxfs;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ChunkReaderTest {
+
+    // source serving content in short reads of at most step bytes
+    private static ChunkReader.Source source(final byte[] content, final int step) {
+        return new ChunkReader.Source() {
+            private int pos = 0;
+
+            @Override
+            public long read(ByteBuffer dst) {
+                int len = Math.min(Math.min(step, dst.remaining()), content.length - pos);
+                dst.put(content, pos, len);
+                pos += len;
+                return len;
+            }
+        };
+    }
+
+    private static byte[] content(int len) {
+        byte[] ret = new byte[len];
+        for (int i = 0; i < len; i++) ret[i] = (byte) i;
+        return ret;
+    }
+
+    @Test
+    public void fullChunks() throws ZboxException {
+        final byte[] content = content(10_000);
+        final List<Long> offsets = new ArrayList<>();
+        final ByteBuffer out = ByteBuffer.allocate(content.length);
+
+        long total = ChunkReader.readChunks(source(content, 333), 4096, new ChunkConsumer() {
+            @Override
+            public void accept(ByteBuffer chunk, long offset) {
+                offsets.add(offset);
+                out.put(chunk);
+            }
+        });
+
+        assertEquals(content.length, total);
+        assertEquals(3, offsets.size());
+        assertEquals(0L, (long) offsets.get(0));
+        assertEquals(4096L, (long) offsets.get(1));
+        assertEquals(8192L, (long) offsets.get(2));
+        assertArrayEquals(content, out.array());
+    }
+
+    @Test
+    public void exactMultiple() throws ZboxException {
+        final int[] chunks = {0};
+
+        long total = ChunkReader.readChunks(source(content(8192), 8192), 4096,
+                new ChunkConsumer() {
+                    @Override
+                    public void accept(ByteBuffer chunk, long offset) {
+                        assertEquals(4096, chunk.remaining());
+                        chunks[0]++;
+                    }
+                });
+
+        assertEquals(8192, total);
+        assertEquals(2, chunks[0]);
+    }
+
+    @Test
+    public void empty() throws ZboxException {
+        long total = ChunkReader.readChunks(source(new byte[0], 1), 4096, new ChunkConsumer() {
+            @Override
+            public void accept(ByteBuffer chunk, long offset) {
+                fail("No chunk expected");
+            }
+        });
+
+        assertEquals(0, total);
+    }
+
+    @Test
+    public void consumerFailure() {
+        try {
+            ChunkReader.readChunks(source(content(100), 100), 10, new ChunkConsumer() {
+                @Override
+                public void accept(ByteBuffer chunk, long offset) throws IOException {
+                    throw new IOException("consumer failed");
+                }
+            });
+            fail("Consumer failure should be thrown");
+        } catch (ZboxException err) {
+            // expected
+        }
+    }
+
+    @Test(expected = ZboxException.class)
+    public void invalidChunkSize() throws ZboxException {
+        ChunkReader.readChunks(source(new byte[0], 1), 0, new ChunkConsumer() {
+            @Override
+            public void accept(ByteBuffer chunk, long offset) {
+            }
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package io.zbox.zboxfs;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.zbox.zboxfs.transport.Transports;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// transport settings are configurable by apps from outside of the transport package
+public class TransportsTest {
+
+    @Test
+    public void readTimeout() {
+        Transports.setReadTimeout(10 * 1000);
+        Transports.setReadTimeout(0);
+        try {
+            Transports.setReadTimeout(-1);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void retryPolicy() {
+        Transports.setRetryPolicy(5, 50, 1000);
+        Transports.setRetryPolicy(0, 0, 0);
+
+        int[][] invalids = {{-1, 100, 1000}, {3, -1, 1000}, {3, 100, 50}};
+        for (int[] args : invalids) {
+            try {
+                Transports.setRetryPolicy(args[0], args[1], args[2]);
+                fail();
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void uploadConcurrency() {
+        Transports.setUploadConcurrency(2);
+        Transports.setUploadConcurrency(2);
+        try {
+            Transports.setUploadConcurrency(0);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void coalescedCount() {
+        assertTrue(Transports.coalescedCount() >= 0);
+    }
+
+    @After
+    public void after() {
+        Transports.setReadTimeout(Transports.DEFAULT_READ_TIMEOUT);
+        Transports.setRetryPolicy(Transports.DEFAULT_MAX_RETRIES,
+                Transports.DEFAULT_RETRY_BASE_DELAY, Transports.DEFAULT_RETRY_MAX_DELAY);
+        Transports.setUploadConcurrency(Transports.DEFAULT_UPLOAD_CONCURRENCY);
+    }
+}
@@ -0,0 +1,435 @@
+package io.zbox.zboxfs.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpTransportTest {
+
+    private static final int BENCH_REQUESTS = 500;
+
+    private LoopbackServer server;
+    private final HashMap<String, String> headers = new HashMap<>();
+
+    @Before
+    public void before() throws IOException {
+        server = new LoopbackServer();
+    }
+
+    @Test
+    public void objectRoundTrip() throws IOException {
+        URL url = server.url("/obj1");
+        byte[] body = new byte[3000];
+        Arrays.fill(body, (byte) 42);
+
+        assertEquals(HttpURLConnection.HTTP_OK, HttpTransport.put(url, headers, body).status);
+
+        Response resp = HttpTransport.get(url, headers);
+        assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+        assertEquals(body.length, resp.len);
+        assertArrayEquals(body, Arrays.copyOf(resp.body, resp.len));
+
+        assertEquals(HttpURLConnection.HTTP_OK, HttpTransport.delete(url, headers).status);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, HttpTransport.get(url, headers).status);
+    }
+
+    @Test
+    public void connectionsReused() throws IOException {
+        URL url = server.url("/obj2");
+        byte[] body = new byte[100];
+
+        for (int i = 0; i < 50; i++) {
+            HttpTransport.put(url, headers, body);
+            HttpTransport.get(url, headers);
+            HttpTransport.get(server.url("/missing"), headers);
+        }
+
+        assertEquals(150, server.requestCount());
+        assertTrue("connections: " + server.connectionCount(),
+                server.connectionCount() <= HttpTransport.MAX_IDLE_CONNS);
+    }
+
+    @Test
+    public void concurrentGets() throws Exception {
+        final int objs = 16;
+        for (int i = 0; i < objs; i++) {
+            HttpTransport.put(server.url("/c" + i), headers, content(i, 1000 + i * 20000));
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    for (int i = 0; i < 50; i++) {
+                        int obj = (seed * 7 + i) % objs;
+                        Response resp = HttpTransport.get(server.url("/c" + obj), headers);
+                        assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+                        assertArrayEquals(content(obj, 1000 + obj * 20000),
+                                Arrays.copyOf(resp.body, resp.len));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void bodyWithoutContentLength() throws IOException {
+        URL url = server.url("/big");
+        byte[] body = content(3, HttpTransport.INIT_BUF_SIZE * 4 + 17);
+        HttpTransport.put(url, headers, body);
+
+        server.setContentLength(false);
+        Response resp = HttpTransport.get(url, headers);
+        assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+        assertEquals(body.length, resp.len);
+        assertArrayEquals(body, Arrays.copyOf(resp.body, resp.len));
+
+        // grown buffer is reused by next request on the same thread
+        Response resp2 = HttpTransport.get(url, headers);
+        assertSame(resp.body, resp2.body);
+    }
+
+    @Test
+    public void fixedLengthUpload() throws IOException {
+        byte[] content = content(5, 3 * 1024 * 1024 + 5);
+
+        // direct buffer, only remaining bytes are uploaded and buffer position is not changed
+        ByteBuffer body = ByteBuffer.allocateDirect(content.length + 10);
+        body.position(10);
+        body.put(content);
+        body.position(10);
+        URL url = server.url("/direct");
+        assertEquals(HttpURLConnection.HTTP_OK, HttpTransport.put(url, headers, body).status);
+        assertEquals(String.valueOf(content.length), server.lastHeaders().get("content-length"));
+        assertNull(server.lastHeaders().get("transfer-encoding"));
+        assertArrayEquals(content, server.objects().get("/direct"));
+        assertEquals(10, body.position());
+
+        // heap array
+        url = server.url("/array");
+        assertEquals(HttpURLConnection.HTTP_OK, HttpTransport.put(url, headers, content).status);
+        assertEquals(String.valueOf(content.length), server.lastHeaders().get("content-length"));
+        assertArrayEquals(content, server.objects().get("/array"));
+    }
+
+    @Test
+    public void batchUpload() throws IOException {
+        final int objs = 10;
+        URL[] urls = new URL[objs];
+        @SuppressWarnings("unchecked")
+        HashMap<String, String>[] hdrs = new HashMap[objs];
+        ByteBuffer[] bodies = new ByteBuffer[objs];
+        for (int i = 0; i < objs; i++) {
+            urls[i] = server.url("/b" + i);
+            hdrs[i] = headers;
+            bodies[i] = ByteBuffer.wrap(content(i, 1000 + i * 5000));
+        }
+
+        // responses are returned in submission order even if later uploads finish first
+        Uploader uploader = new Uploader(4);
+        Response[] resps = uploader.putAll(urls, hdrs, bodies);
+        uploader.release();
+
+        assertEquals(objs, resps.length);
+        for (int i = 0; i < objs; i++) {
+            assertEquals(HttpURLConnection.HTTP_OK, resps[i].status);
+            assertArrayEquals(content(i, 1000 + i * 5000), server.objects().get("/b" + i));
+        }
+    }
+
+    @Test
+    public void changeConcurrencyDuringBatch() throws Exception {
+        final int objs = 8;
+        final URL[] urls = new URL[objs];
+        @SuppressWarnings("unchecked")
+        final HashMap<String, String>[] hdrs = new HashMap[objs];
+        final byte[][] bodies = new byte[objs][];
+        for (int i = 0; i < objs; i++) {
+            urls[i] = server.url("/c" + i);
+            hdrs[i] = headers;
+            bodies[i] = content(i, 100);
+        }
+
+        // an uploader running a batch is only stopped after the batch is done
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final List<Throwable> errors = new ArrayList<>();
+        Thread batches = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!stop.get()) {
+                        for (Response resp : HttpTransport.put_batch(urls, hdrs, bodies)) {
+                            assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+                        }
+                    }
+                } catch (Throwable err) {
+                    errors.add(err);
+                }
+            }
+        });
+        batches.start();
+        for (int i = 0; i < 500; i++) {
+            HttpTransport.setUploadConcurrency(i % 2 == 0 ? 2 : 3);
+            Thread.sleep(1);
+        }
+        stop.set(true);
+        batches.join();
+        HttpTransport.setUploadConcurrency(Uploader.DEFAULT_CONCURRENCY);
+
+        assertEquals("[]", errors.toString());
+    }
+
+    @Test
+    public void retryTransientErrors() throws IOException {
+        HttpTransport.setRetryPolicy(3, 1, 10);
+        URL url = server.url("/retry");
+        byte[] body = content(7, 5000);
+
+        server.failNext(2, HttpURLConnection.HTTP_UNAVAILABLE);
+        assertEquals(HttpURLConnection.HTTP_OK, HttpTransport.put(url, headers, body).status);
+        assertEquals(3, server.requestCount());
+        assertArrayEquals(body, server.objects().get("/retry"));
+
+        // gives up after max retries and returns the last response
+        server.failNext(4, HttpURLConnection.HTTP_INTERNAL_ERROR);
+        assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, HttpTransport.get(url, headers).status);
+        assertEquals(7, server.requestCount());
+
+        // client errors are not retried
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND,
+                HttpTransport.get(server.url("/missing"), headers).status);
+        assertEquals(8, server.requestCount());
+    }
+
+    @Test
+    public void readTimeout() throws IOException {
+        HttpTransport.setRetryPolicy(0, 0, 0);
+        HttpTransport.setReadTimeout(200);
+        server.setLatency(3000);
+
+        long start = System.nanoTime();
+        try {
+            HttpTransport.get(server.url("/stalled"), headers);
+            fail();
+        } catch (SocketTimeoutException ignored) {
+        }
+        assertTrue(System.nanoTime() - start < 2000 * 1000000L);
+    }
+
+    // a response stalled in its body costs one timeout, it is not drained again after failure
+    @Test
+    public void stalledBody() throws IOException {
+        URL url = server.url("/stalled_body");
+        HttpTransport.put(url, headers, content(8, 100000));
+        HttpTransport.setRetryPolicy(0, 0, 0);
+        HttpTransport.setReadTimeout(500);
+        server.setBodyStall(3000);
+
+        long start = System.nanoTime();
+        try {
+            HttpTransport.get(url, headers);
+            fail();
+        } catch (SocketTimeoutException ignored) {
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue("elapsed " + elapsed / 1000000 + " ms", elapsed < 900 * 1000000L);
+    }
+
+    @Test
+    public void circuitBreaker() throws IOException {
+        HttpTransport.setRetryPolicy(0, 0, 0);
+        URL url = server.url("/down");
+
+        server.failNext(100, HttpURLConnection.HTTP_BAD_GATEWAY);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertEquals(HttpURLConnection.HTTP_BAD_GATEWAY, HttpTransport.get(url, headers).status);
+        }
+
+        // circuit is open, requests fail without reaching the server
+        try {
+            HttpTransport.get(url, headers);
+            fail();
+        } catch (IOException ignored) {
+        }
+        assertEquals(CircuitBreaker.FAILURE_THRESHOLD, server.requestCount());
+        assertTrue(CircuitBreaker.of(url).isOpen());
+    }
+
+    @Test
+    public void coalesceConcurrentGets() throws Exception {
+        final URL url = server.url("/shared");
+        final byte[] body = content(9, 200 * 1024);
+        HttpTransport.put(url, headers, body);
+        server.setLatency(500);
+
+        final int threads = 8;
+        final CyclicBarrier start = new CyclicBarrier(threads);
+        long merged = HttpTransport.coalescedCount();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    Response resp = HttpTransport.get(url, headers);
+                    assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+                    assertArrayEquals(body, Arrays.copyOf(resp.body, resp.len));
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+
+        // one PUT and one GET reached the server
+        assertEquals(2, server.requestCount());
+        assertEquals(threads - 1, HttpTransport.coalescedCount() - merged);
+
+        // requests with different headers are not merged
+        HashMap<String, String> other = new HashMap<>();
+        other.put("X-Test", "1");
+        HttpTransport.get(url, other);
+        assertEquals(3, server.requestCount());
+    }
+
+    @Test
+    public void rangeGet() throws IOException {
+        URL url = server.url("/large");
+        byte[] body = content(11, 4 * 1024 * 1024);
+        HttpTransport.put(url, headers, body);
+        long sent = server.bytesSent();
+
+        // only requested bytes are downloaded
+        Response resp = HttpTransport.get_range(url, headers, 3000000, 5000);
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, resp.status);
+        assertArrayEquals(Arrays.copyOfRange(body, 3000000, 3005000),
+                Arrays.copyOf(resp.body, resp.len));
+        assertEquals("bytes=3000000-3004999", server.lastHeaders().get("range"));
+        assertEquals(5000, server.bytesSent() - sent);
+
+        // range exceeds end of object
+        resp = HttpTransport.get_range(url, headers, body.length - 10, 100);
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, resp.status);
+        assertEquals(10, resp.len);
+
+        // range beyond end of object
+        resp = HttpTransport.get_range(url, headers, body.length, 100);
+        assertEquals(416, resp.status);
+
+        // server ignores range
+        server.setRangeSupport(false);
+        resp = HttpTransport.get_range(url, headers, 123, 4567);
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, resp.status);
+        assertArrayEquals(Arrays.copyOfRange(body, 123, 123 + 4567),
+                Arrays.copyOf(resp.body, resp.len));
+    }
+
+    private static byte[] content(int seed, int len) {
+        byte[] ret = new byte[len];
+        for (int i = 0; i < len; i++) {
+            ret[i] = (byte) (i * 31 + seed);
+        }
+        return ret;
+    }
+
+    // requests per second of small object GETs with and without persistent connections
+    @Test
+    public void benchmark() throws IOException {
+        URL url = server.url("/small");
+        HttpTransport.put(url, headers, new byte[512]);
+
+        server.setKeepAlive(false);
+        double closed = requestsPerSec(url);
+        server.setKeepAlive(true);
+        double reused = requestsPerSec(url);
+
+        System.out.println(String.format("GET 512 B: %.0f req/s new connection per request, "
+                + "%.0f req/s persistent connections (%.1fx)", closed, reused, reused / closed));
+    }
+
+    // time of uploading a batch of small objects one by one and in parallel, with simulated
+    // network round trip latency
+    @Test
+    public void batchUploadBenchmark() throws IOException {
+        final int objs = 40;
+        URL[] urls = new URL[objs];
+        @SuppressWarnings("unchecked")
+        HashMap<String, String>[] hdrs = new HashMap[objs];
+        byte[][] bodies = new byte[objs][];
+        for (int i = 0; i < objs; i++) {
+            urls[i] = server.url("/p" + i);
+            hdrs[i] = headers;
+            bodies[i] = content(i, 16 * 1024);
+        }
+        server.setLatency(20);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < objs; i++) {
+            Response resp = HttpTransport.put(urls[i], hdrs[i], bodies[i]);
+            assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+        }
+        long serial = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Response[] resps = HttpTransport.put_batch(urls, hdrs, bodies);
+        long parallel = System.nanoTime() - start;
+
+        for (Response resp : resps) {
+            assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+        }
+        System.out.println(String.format("PUT %d x 16 KiB: %d ms one by one, "
+                        + "%d ms in parallel (%.1fx)",
+                objs, serial / 1000000, parallel / 1000000, (double) serial / parallel));
+    }
+
+    private double requestsPerSec(URL url) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCH_REQUESTS; i++) {
+            assertEquals(HttpURLConnection.HTTP_OK, HttpTransport.get(url, headers).status);
+        }
+        return BENCH_REQUESTS * 1e9 / (System.nanoTime() - start);
+    }
+
+    @After
+    public void after() throws IOException {
+        HttpTransport.setRetryPolicy(RetryPolicy.DEFAULT_MAX_RETRIES,
+                RetryPolicy.DEFAULT_BASE_DELAY, RetryPolicy.DEFAULT_MAX_DELAY);
+        HttpTransport.setReadTimeout(HttpTransport.DEFAULT_READ_TIMEOUT);
+        server.close();
+    }
+}
@@ -0,0 +1,484 @@
+package io.zbox.zboxfs.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Minimal HTTP/1.1 object storage server on loopback interface, stands in for remote storage in
+// transport tests and benchmarks. Objects are kept in memory or in a local directory, PUT stores
+// an object, GET returns it or a single byte range of it, and DELETE removes it. DELETE with a
+// body removes objects whose paths are listed in the body, one per line. Latency, bandwidth limit
+// and random errors can be injected to simulate real network.
+//
+// It is not a stand-in for the remote storage of "zbox://" repos. The request and bulk DELETE body
+// formats and the auth headers of that protocol are owned by the native side and are not
+// implemented here, so no repo can be opened against this server. It only serves requests made
+// directly through HttpTransport and Transport, and the bulk DELETE path list is a format of this
+// server only.
+class LoopbackServer implements Closeable {
+
+    // object storage of the server
+    interface Store {
+        byte[] get(String path) throws IOException;
+
+        void put(String path, byte[] body) throws IOException;
+
+        void remove(String path) throws IOException;
+
+        Map<String, byte[]> objects() throws IOException;
+    }
+
+    private static final class MemStore implements Store {
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+        @Override
+        public byte[] get(String path) {
+            return objects.get(path);
+        }
+
+        @Override
+        public void put(String path, byte[] body) {
+            objects.put(path, body);
+        }
+
+        @Override
+        public void remove(String path) {
+            objects.remove(path);
+        }
+
+        @Override
+        public Map<String, byte[]> objects() {
+            return Collections.unmodifiableMap(objects);
+        }
+    }
+
+    // objects are stored as files under root directory, using object path as file path
+    private static final class DiskStore implements Store {
+        private final File root;
+        private final AtomicLong tmpSeq = new AtomicLong();
+
+        DiskStore(File root) {
+            this.root = root;
+        }
+
+        @Override
+        public byte[] get(String path) throws IOException {
+            File file = file(path);
+            if (!file.isFile()) return null;
+            try (InputStream in = new FileInputStream(file)) {
+                return readFully(in, (int) file.length());
+            } catch (FileNotFoundException err) {
+                return null;
+            }
+        }
+
+        @Override
+        public void put(String path, byte[] body) throws IOException {
+            File file = file(path);
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create directory " + dir);
+            }
+            File tmp = new File(dir, file.getName() + "." + tmpSeq.incrementAndGet() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(body);
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Cannot store " + path);
+            }
+        }
+
+        @Override
+        public void remove(String path) throws IOException {
+            file(path).delete();
+        }
+
+        @Override
+        public Map<String, byte[]> objects() throws IOException {
+            Map<String, byte[]> ret = new HashMap<>();
+            list(root, "", ret);
+            return ret;
+        }
+
+        private void list(File dir, String prefix, Map<String, byte[]> ret) throws IOException {
+            File[] files = dir.listFiles();
+            if (files == null) return;
+            for (File file : files) {
+                String path = prefix + "/" + file.getName();
+                if (file.isDirectory()) {
+                    list(file, path, ret);
+                } else if (!file.getName().endsWith(".tmp")) {
+                    ret.put(path, get(path));
+                }
+            }
+        }
+
+        private File file(String path) throws IOException {
+            if (!path.startsWith("/") || path.contains("/../") || path.endsWith("/..")) {
+                throw new IOException("Invalid path " + path);
+            }
+            return new File(root, path.substring(1));
+        }
+    }
+
+    private final ServerSocket server;
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+    private final Store store;
+    private final Random random = new Random();
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    // headers of last request, with lower case names
+    private volatile Map<String, String> lastHeaders = new HashMap<>();
+
+    // if false, every response asks client to close the connection
+    private volatile boolean keepAlive = true;
+
+    // if false, responses have no Content-Length and body ends when connection is closed
+    private volatile boolean contentLength = true;
+
+    // delay before each response, in ms
+    private volatile int latency = 0;
+
+    // delay in the middle of each response body, in ms
+    private volatile int bodyStall = 0;
+
+    // max transfer rate of request and response bodies, in bytes per second, 0 means unlimited
+    private volatile long bandwidth = 0;
+
+    // if false, Range header is ignored and whole object is returned
+    private volatile boolean rangeSupport = true;
+
+    // number of response body bytes sent
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    // probability of a request failing with 503
+    private volatile double errorRate = 0;
+
+    // number of next requests fail with the fault status
+    private final AtomicInteger faults = new AtomicInteger();
+    private volatile int faultStatus = 500;
+
+    // server with objects stored in memory
+    LoopbackServer() throws IOException {
+        this(new MemStore());
+    }
+
+    // server with objects stored under a local directory
+    LoopbackServer(File root) throws IOException {
+        this(new DiskStore(root));
+    }
+
+    private LoopbackServer(Store store) throws IOException {
+        this.store = store;
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    URL url(String path) throws MalformedURLException {
+        return new URL("http", "127.0.0.1", server.getLocalPort(), path);
+    }
+
+    void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    void setContentLength(boolean contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    void setLatency(int latency) {
+        this.latency = latency;
+    }
+
+    void setBodyStall(int bodyStall) {
+        this.bodyStall = bodyStall;
+    }
+
+    void setBandwidth(long bytesPerSec) {
+        this.bandwidth = bytesPerSec;
+    }
+
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    void setRangeSupport(boolean rangeSupport) {
+        this.rangeSupport = rangeSupport;
+    }
+
+    // number of response body bytes sent
+    long bytesSent() {
+        return bytesSent.get();
+    }
+
+    // make next requests fail with the specified status, without touching stored objects
+    void failNext(int count, int status) {
+        faultStatus = status;
+        faults.set(count);
+    }
+
+    // number of accepted connections
+    int connectionCount() {
+        return connections.get();
+    }
+
+    // number of served requests
+    int requestCount() {
+        return requests.get();
+    }
+
+    Map<String, String> lastHeaders() {
+        return lastHeaders;
+    }
+
+    Map<String, byte[]> objects() throws IOException {
+        return store.objects();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        workers.shutdownNow();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            final Socket sock;
+            try {
+                sock = server.accept();
+            } catch (IOException err) {
+                return;
+            }
+            connections.incrementAndGet();
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(sock);
+                }
+            });
+        }
+    }
+
+    // serve requests on a connection until either side closes it
+    private void serve(Socket sock) {
+        try {
+            sock.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(sock.getInputStream());
+            OutputStream out = new BufferedOutputStream(sock.getOutputStream());
+
+            while (true) {
+                String line = readLine(in);
+                if (line == null || line.isEmpty()) break;
+                String[] parts = line.split(" ");
+                String method = parts[0];
+                String path = parts[1];
+
+                Map<String, String> headers = new HashMap<>();
+                while (!(line = readLine(in)).isEmpty()) {
+                    int idx = line.indexOf(':');
+                    headers.put(line.substring(0, idx).trim().toLowerCase(Locale.US),
+                            line.substring(idx + 1).trim());
+                }
+
+                byte[] body = new byte[0];
+                String len = headers.get("content-length");
+                if (len != null) {
+                    body = readFully(in, Integer.parseInt(len));
+                    throttle(body.length);
+                }
+
+                lastHeaders = headers;
+                requests.incrementAndGet();
+                if (latency > 0) {
+                    try {
+                        Thread.sleep(latency);
+                    } catch (InterruptedException err) {
+                        break;
+                    }
+                }
+                boolean close = !keepAlive || !contentLength;
+                if (faults.getAndDecrement() > 0) {
+                    respond(out, faultStatus, "Fault", new byte[0], close);
+                } else {
+                    faults.set(0);
+                    if (randomError()) {
+                        respond(out, 503, "Service Unavailable", new byte[0], close);
+                    } else {
+                        handle(method, path, headers, body, out, close);
+                    }
+                }
+                if (close) break;
+            }
+        } catch (IOException ignored) {
+            // connection closed by client
+        } finally {
+            try {
+                sock.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void handle(String method, String path, Map<String, String> headers, byte[] body,
+                        OutputStream out, boolean close) throws IOException {
+        switch (method) {
+            case "GET": {
+                byte[] obj = store.get(path);
+                String range = headers.get("range");
+                if (obj == null) {
+                    respond(out, 404, "Not Found", new byte[0], close);
+                } else if (range != null && rangeSupport) {
+                    respondRange(out, obj, range, close);
+                } else {
+                    respond(out, 200, "OK", obj, close);
+                }
+                break;
+            }
+            case "PUT":
+                store.put(path, body);
+                respond(out, 200, "OK", new byte[0], close);
+                break;
+            case "DELETE":
+                if (body.length > 0) {
+                    String paths = new String(body, StandardCharsets.UTF_8);
+                    for (String obj : paths.split("\n")) {
+                        if (!obj.trim().isEmpty()) store.remove(obj.trim());
+                    }
+                } else {
+                    store.remove(path);
+                }
+                respond(out, 200, "OK", new byte[0], close);
+                break;
+            default:
+                respond(out, 405, "Method Not Allowed", new byte[0], close);
+        }
+    }
+
+    // respond with a single byte range "bytes=first-last" of an object
+    private void respondRange(OutputStream out, byte[] obj, String range, boolean close)
+            throws IOException {
+        String[] bounds = range.substring(range.indexOf('=') + 1).split("-");
+        long first = Long.parseLong(bounds[0].trim());
+        long last = bounds.length > 1 ? Long.parseLong(bounds[1].trim()) : obj.length - 1;
+        if (first >= obj.length) {
+            respond(out, 416, "Range Not Satisfiable", "Content-Range: bytes */" + obj.length,
+                    new byte[0], close);
+            return;
+        }
+        last = Math.min(last, obj.length - 1);
+        byte[] part = Arrays.copyOfRange(obj, (int) first, (int) last + 1);
+        respond(out, 206, "Partial Content",
+                "Content-Range: bytes " + first + "-" + last + "/" + obj.length, part, close);
+    }
+
+    private void respond(OutputStream out, int status, String reason, byte[] body,
+                         boolean close) throws IOException {
+        respond(out, status, reason, null, body, close);
+    }
+
+    private void respond(OutputStream out, int status, String reason, String header, byte[] body,
+                         boolean close) throws IOException {
+        StringBuilder head = new StringBuilder()
+                .append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        if (header != null) head.append(header).append("\r\n");
+        if (contentLength) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        if (close) head.append("Connection: close\r\n");
+        head.append("\r\n");
+        // counted before sending, as the client might check it as soon as it gets the body
+        bytesSent.addAndGet(body.length);
+        out.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+        int stall = bodyStall;
+        if (stall > 0 && body.length > 1) {
+            out.write(body, 0, body.length / 2);
+            out.flush();
+            try {
+                Thread.sleep(stall);
+            } catch (InterruptedException err) {
+                throw new InterruptedIOException("Interrupted in response body");
+            }
+            out.write(body, body.length / 2, body.length - body.length / 2);
+        } else {
+            out.write(body);
+        }
+        out.flush();
+        throttle(body.length);
+    }
+
+    private boolean randomError() {
+        double rate = errorRate;
+        if (rate <= 0) return false;
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    // wait for the time needed to transfer the bytes within bandwidth limit
+    private void throttle(int bytes) throws IOException {
+        long bw = bandwidth;
+        if (bw <= 0 || bytes == 0) return;
+        try {
+            Thread.sleep(bytes * 1000L / bw);
+        } catch (InterruptedException err) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    // read a CRLF terminated line, returns null at end of stream
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') break;
+            if (c != '\r') line.write(c);
+        }
+        if (c < 0 && line.size() == 0) return null;
+        return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] readFully(InputStream in, int len) throws IOException {
+        byte[] ret = new byte[len];
+        int total = 0;
+        while (total < len) {
+            int read = in.read(ret, total, len - total);
+            if (read < 0) throw new IOException("Unexpected end of request body");
+            total += read;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,226 @@
+package io.zbox.zboxfs.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectCacheTest {
+
+    private LoopbackServer server;
+    private File dir;
+    private final HashMap<String, String> headers = new HashMap<>();
+
+    @Before
+    public void before() throws IOException {
+        server = new LoopbackServer();
+        dir = File.createTempFile("zboxfs-objcache", "");
+        assertTrue(dir.delete());
+        ObjectCache.enable(dir, 1024 * 1024);
+    }
+
+    @Test
+    public void writeThrough() throws IOException {
+        URL url = server.url("/repo/data/obj1");
+        byte[] body = content(1, 5000);
+        assertEquals(HttpURLConnection.HTTP_OK, HttpTransport.put(url, headers, body).status);
+        assertEquals(1, server.requestCount());
+
+        // served from cache without request
+        long hits = ObjectCache.hitCount();
+        Response resp = HttpTransport.get(url, headers);
+        assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+        assertArrayEquals(body, Arrays.copyOf(resp.body, resp.len));
+        assertEquals(1, server.requestCount());
+        assertEquals(hits + 1, ObjectCache.hitCount());
+
+        // delete invalidates cached object
+        HttpTransport.delete(url, headers);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, HttpTransport.get(url, headers).status);
+        assertEquals(3, server.requestCount());
+    }
+
+    @Test
+    public void cacheOnRead() throws IOException {
+        URL url = server.url("/repo/data/obj2");
+        byte[] body = content(2, 3000);
+        ObjectCache.disable();
+        HttpTransport.put(url, headers, body);
+        ObjectCache.enable(dir, 1024 * 1024);
+
+        long misses = ObjectCache.missCount();
+        for (int i = 0; i < 3; i++) {
+            Response resp = HttpTransport.get(url, headers);
+            assertArrayEquals(body, Arrays.copyOf(resp.body, resp.len));
+        }
+        assertEquals(misses + 1, ObjectCache.missCount());
+        assertEquals(2, server.requestCount());
+    }
+
+    @Test
+    public void rangeFromCache() throws IOException {
+        URL url = server.url("/repo/data/obj6");
+        byte[] body = content(6, 100000);
+        HttpTransport.put(url, headers, body);
+
+        Response resp = HttpTransport.get_range(url, headers, 40000, 1000);
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, resp.status);
+        assertArrayEquals(Arrays.copyOfRange(body, 40000, 41000),
+                Arrays.copyOf(resp.body, resp.len));
+        assertEquals(416, HttpTransport.get_range(url, headers, 100000, 10).status);
+        assertEquals(1, server.requestCount());
+    }
+
+    @Test
+    public void persistAcrossRestart() throws IOException {
+        URL url = server.url("/repo/index/obj3");
+        byte[] body = content(3, 10000);
+        HttpTransport.put(url, headers, body);
+
+        ObjectCache.disable();
+        assertFalse(ObjectCache.isEnabled());
+        ObjectCache.enable(dir, 1024 * 1024);
+        assertTrue(ObjectCache.size() > body.length);
+
+        Response resp = HttpTransport.get(url, headers);
+        assertArrayEquals(body, Arrays.copyOf(resp.body, resp.len));
+        assertEquals(1, server.requestCount());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        ObjectCache.enable(dir, 100 * 1024);
+        for (int i = 0; i < 5; i++) {
+            HttpTransport.put(server.url("/repo/data/e" + i), headers, content(i, 30 * 1024));
+            // keep the first object recently used
+            HttpTransport.get(server.url("/repo/data/e0"), headers);
+        }
+        assertTrue(ObjectCache.size() <= 100 * 1024);
+        int requests = server.requestCount();
+
+        HttpTransport.get(server.url("/repo/data/e0"), headers);
+        HttpTransport.get(server.url("/repo/data/e4"), headers);
+        assertEquals(requests, server.requestCount());
+
+        HttpTransport.get(server.url("/repo/data/e1"), headers);
+        assertEquals(requests + 1, server.requestCount());
+    }
+
+    @Test
+    public void bulkDeleteInvalidates() throws IOException {
+        URL url = server.url("/repo/data/obj4");
+        HttpTransport.put(url, headers, content(4, 100));
+        HttpTransport.put(server.url("/other/obj5"), headers, content(5, 100));
+
+        HttpTransport.delete_bulk(server.url("/repo/data/bulk"), headers, new byte[0]);
+        HttpTransport.get(url, headers);
+        assertEquals(4, server.requestCount());
+        HttpTransport.get(server.url("/other/obj5"), headers);
+        assertEquals(4, server.requestCount());
+    }
+
+    @Test
+    public void staleDownloadNotCached() throws Exception {
+        final URL url = server.url("/repo/data/obj7");
+        final byte[] oldBody = content(7, 1000);
+        final byte[] newBody = content(8, 1000);
+        HttpTransport.put(url, headers, oldBody);
+        ObjectCache.clear();
+
+        // download of the old content is held until the object is uploaded again
+        final CountDownLatch fetched = new CountDownLatch(1);
+        final CountDownLatch uploaded = new CountDownLatch(1);
+        final Transport inner = Transports.defaultTransport();
+        Transports.set(new Transport() {
+            @Override
+            public Response get(URL url, Map<String, String> headers) throws IOException {
+                Response ret = inner.get(url, headers);
+                fetched.countDown();
+                try {
+                    uploaded.await();
+                } catch (InterruptedException err) {
+                    throw new IOException(err);
+                }
+                return ret;
+            }
+
+            @Override
+            public Response getRange(URL url, Map<String, String> headers, long offset, int len)
+                    throws IOException {
+                return inner.getRange(url, headers, offset, len);
+            }
+
+            @Override
+            public Response put(URL url, Map<String, String> headers, ByteBuffer body)
+                    throws IOException {
+                return inner.put(url, headers, body);
+            }
+
+            @Override
+            public Response delete(URL url, Map<String, String> headers) throws IOException {
+                return inner.delete(url, headers);
+            }
+
+            @Override
+            public Response deleteBulk(URL url, Map<String, String> headers, ByteBuffer body)
+                    throws IOException {
+                return inner.deleteBulk(url, headers, body);
+            }
+        });
+
+        final Response[] stale = new Response[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stale[0] = HttpTransport.get(url, new HashMap<String, String>());
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        reader.start();
+        assertTrue(fetched.await(10, TimeUnit.SECONDS));
+        HttpTransport.put(url, headers, newBody);
+        uploaded.countDown();
+        reader.join();
+        assertArrayEquals(oldBody, Arrays.copyOf(stale[0].body, stale[0].len));
+
+        // the new content is kept in cache
+        int requests = server.requestCount();
+        Response resp = HttpTransport.get(url, headers);
+        assertArrayEquals(newBody, Arrays.copyOf(resp.body, resp.len));
+        assertEquals(requests, server.requestCount());
+    }
+
+    private static byte[] content(int seed, int len) {
+        byte[] ret = new byte[len];
+        for (int i = 0; i < len; i++) {
+            ret[i] = (byte) (i * 17 + seed);
+        }
+        return ret;
+    }
+
+    @After
+    public void after() throws IOException {
+        Transports.set(null);
+        ObjectCache.clear();
+        ObjectCache.disable();
+        dir.delete();
+        server.close();
+    }
+}
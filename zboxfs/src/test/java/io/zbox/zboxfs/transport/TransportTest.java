@@ -0,0 +1,306 @@
+package io.zbox.zboxfs.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransportTest {
+
+    private final HashMap<String, String> headers = new HashMap<>();
+    private File root;
+
+    // transport wraps another one and measures its requests
+    private static class MeteredTransport implements Transport {
+        private final Transport inner;
+        final AtomicInteger requests = new AtomicInteger();
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+
+        MeteredTransport(Transport inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public Response get(URL url, Map<String, String> headers) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return inner.get(url, headers);
+            } finally {
+                done(start);
+            }
+        }
+
+        @Override
+        public Response getRange(URL url, Map<String, String> headers, long offset, int len)
+                throws IOException {
+            long start = System.nanoTime();
+            try {
+                return inner.getRange(url, headers, offset, len);
+            } finally {
+                done(start);
+            }
+        }
+
+        @Override
+        public Response put(URL url, Map<String, String> headers, ByteBuffer body)
+                throws IOException {
+            long start = System.nanoTime();
+            try {
+                return inner.put(url, headers, body);
+            } finally {
+                done(start);
+            }
+        }
+
+        @Override
+        public Response delete(URL url, Map<String, String> headers) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return inner.delete(url, headers);
+            } finally {
+                done(start);
+            }
+        }
+
+        @Override
+        public Response deleteBulk(URL url, Map<String, String> headers, ByteBuffer body)
+                throws IOException {
+            long start = System.nanoTime();
+            try {
+                return inner.deleteBulk(url, headers, body);
+            } finally {
+                done(start);
+            }
+        }
+
+        private void done(long start) {
+            requests.incrementAndGet();
+            latencies.add(System.nanoTime() - start);
+        }
+    }
+
+    // in-memory mock of remote storage, fails the first attempt of every request
+    private static class FlakyMockTransport implements Transport {
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        @Override
+        public Response get(URL url, Map<String, String> headers) throws IOException {
+            fail();
+            byte[] obj = objects.get(url.getPath());
+            if (obj == null) return new Response(HttpURLConnection.HTTP_NOT_FOUND, null, 0);
+            return new Response(HttpURLConnection.HTTP_OK, obj, obj.length);
+        }
+
+        @Override
+        public Response getRange(URL url, Map<String, String> headers, long offset, int len)
+                throws IOException {
+            fail();
+            byte[] obj = objects.get(url.getPath());
+            if (obj == null) return new Response(HttpURLConnection.HTTP_NOT_FOUND, null, 0);
+            if (offset >= obj.length) return new Response(416, null, 0);
+            byte[] part = Arrays.copyOfRange(obj, (int) offset,
+                    (int) Math.min(obj.length, offset + len));
+            return new Response(HttpURLConnection.HTTP_PARTIAL, part, part.length);
+        }
+
+        @Override
+        public Response put(URL url, Map<String, String> headers, ByteBuffer body)
+                throws IOException {
+            fail();
+            byte[] obj = new byte[body.remaining()];
+            body.duplicate().get(obj);
+            objects.put(url.getPath(), obj);
+            return new Response(HttpURLConnection.HTTP_OK, null, 0);
+        }
+
+        @Override
+        public Response delete(URL url, Map<String, String> headers) throws IOException {
+            fail();
+            objects.remove(url.getPath());
+            return new Response(HttpURLConnection.HTTP_OK, null, 0);
+        }
+
+        @Override
+        public Response deleteBulk(URL url, Map<String, String> headers, ByteBuffer body) {
+            return new Response(HttpURLConnection.HTTP_OK, null, 0);
+        }
+
+        private void fail() throws IOException {
+            if (attempts.incrementAndGet() % 2 == 1) throw new IOException("Injected failure");
+        }
+    }
+
+    @Before
+    public void before() throws IOException {
+        root = File.createTempFile("zboxfs-loopback", "");
+        assertTrue(root.delete());
+        assertTrue(root.mkdirs());
+        HttpTransport.setRetryPolicy(3, 1, 10);
+    }
+
+    @Test
+    public void defaultTransport() {
+        assertSame(Transports.defaultTransport(), Transports.current());
+    }
+
+    @Test
+    public void mockTransport() throws IOException {
+        FlakyMockTransport mock = new FlakyMockTransport();
+        Transports.set(mock);
+        assertSame(mock, Transports.current());
+
+        // no network is used, failed attempts are retried
+        URL url = new URL("https", "storage.invalid", "/repo/obj");
+        byte[] body = "mocked".getBytes(StandardCharsets.UTF_8);
+        assertEquals(HttpURLConnection.HTTP_OK, HttpTransport.put(url, headers, body).status());
+        Response resp = HttpTransport.get(url, headers);
+        assertEquals(HttpURLConnection.HTTP_OK, resp.status());
+        assertArrayEquals(body, Arrays.copyOf(resp.body(), resp.len()));
+        resp = HttpTransport.get_range(url, headers, 2, 3);
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, resp.status());
+        assertEquals("cke", new String(resp.body(), 0, resp.len(), StandardCharsets.UTF_8));
+        HttpTransport.delete(url, headers);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, HttpTransport.get(url, headers).status());
+        assertEquals(10, mock.attempts.get());
+
+        Transports.set(null);
+        assertSame(Transports.defaultTransport(), Transports.current());
+    }
+
+    @Test
+    public void nullResponse() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        Transports.set(new FlakyMockTransport() {
+            @Override
+            public Response get(URL url, Map<String, String> headers) {
+                calls.incrementAndGet();
+                return null;
+            }
+        });
+
+        // a missing response is a failed attempt, it is retried and then reported as IO error
+        URL url = new URL("https", "null.invalid", "/repo/obj");
+        try {
+            HttpTransport.get(url, headers);
+            fail();
+        } catch (IOException ignored) {
+        }
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void diskBackedServer() throws IOException {
+        MeteredTransport metered = new MeteredTransport(Transports.defaultTransport());
+        Transports.set(metered);
+
+        try (LoopbackServer server = new LoopbackServer(root)) {
+            byte[] body = new byte[10000];
+            Arrays.fill(body, (byte) 7);
+            HttpTransport.put(server.url("/repo/data/a"), headers, body);
+            HttpTransport.put(server.url("/repo/data/b"), headers, body);
+            HttpTransport.put(server.url("/repo/data/c"), headers, body);
+            assertTrue(new File(root, "repo/data/a").isFile());
+            assertEquals(3, server.objects().size());
+
+            Response resp = HttpTransport.get(server.url("/repo/data/a"), headers);
+            assertArrayEquals(body, Arrays.copyOf(resp.body, resp.len));
+
+            HttpTransport.delete(server.url("/repo/data/a"), headers);
+            assertFalse(new File(root, "repo/data/a").exists());
+
+            byte[] paths = "/repo/data/b\n/repo/data/c\n".getBytes(StandardCharsets.UTF_8);
+            HttpTransport.delete_bulk(server.url("/repo/bulk"), headers, paths);
+            assertTrue(server.objects().isEmpty());
+            assertEquals(0, new File(root, "repo/data").list().length);
+        }
+
+        assertEquals(6, metered.requests.get());
+    }
+
+    // throughput and latency of object uploads and downloads sent directly through the transport
+    // over simulated network, no repo is involved
+    @Test
+    public void benchmark() throws IOException {
+        final int objs = 100;
+        final int objSize = 64 * 1024;
+        MeteredTransport metered = new MeteredTransport(Transports.defaultTransport());
+        Transports.set(metered);
+
+        try (LoopbackServer server = new LoopbackServer(root)) {
+            server.setLatency(5);
+            server.setBandwidth(50 * 1024 * 1024);
+            server.setErrorRate(0.02);
+
+            byte[] body = new byte[objSize];
+            long start = System.nanoTime();
+            for (int i = 0; i < objs; i++) {
+                Response resp = HttpTransport.put(server.url("/repo/data/" + i), headers, body);
+                assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+            }
+            long putTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < objs; i++) {
+                Response resp = HttpTransport.get(server.url("/repo/data/" + i), headers);
+                assertEquals(HttpURLConnection.HTTP_OK, resp.status);
+                assertEquals(objSize, resp.len);
+            }
+            long getTime = System.nanoTime() - start;
+
+            List<Long> latencies = new ArrayList<>(metered.latencies);
+            Collections.sort(latencies);
+            long p50 = latencies.get(latencies.size() / 2);
+            long p99 = latencies.get(latencies.size() * 99 / 100);
+
+            System.out.println(String.format("%d x 64 KiB, 5 ms latency, 50 MiB/s, 2%% errors: "
+                            + "PUT %.1f MiB/s, GET %.1f MiB/s, %d attempts, "
+                            + "attempt latency p50 %.1f ms, p99 %.1f ms",
+                    objs, mibPerSec(objs * objSize, putTime), mibPerSec(objs * objSize, getTime),
+                    metered.requests.get(), p50 / 1e6, p99 / 1e6));
+        }
+    }
+
+    private static double mibPerSec(long bytes, long nanos) {
+        return bytes / 1024.0 / 1024.0 * 1e9 / nanos;
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    @After
+    public void after() {
+        Transports.set(null);
+        HttpTransport.setRetryPolicy(RetryPolicy.DEFAULT_MAX_RETRIES,
+                RetryPolicy.DEFAULT_BASE_DELAY, RetryPolicy.DEFAULT_MAX_DELAY);
+        deleteTree(root);
+    }
+}